@@ -0,0 +1,54 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Title: FiberBenchmarks</p>
+ * <p>Description: Runs the benchmarks with the gc profiler enabled, so allocation rates are reported next to
+ * throughput and latency percentiles. Accepts the standard JMH command line options, e.g. a benchmark regex.
+ * The Quasar agent must be passed to the launching JVM: forked benchmark JVMs inherit it.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.FiberBenchmarks</code></p>
+ */
+public class FiberBenchmarks {
+
+	/**
+	 * Runs the benchmarks
+	 * @param args The JMH command line options
+	 * @throws RunnerException thrown if a benchmark fails
+	 * @throws CommandLineOptionException thrown if the options are invalid
+	 */
+	public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+		final Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+
+	private FiberBenchmarks() {}
+}
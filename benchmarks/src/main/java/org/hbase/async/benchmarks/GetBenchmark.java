@@ -0,0 +1,112 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.hbase.async.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableCallable;
+
+/**
+ * <p>Title: GetBenchmark</p>
+ * <p>Description: Measures single row gets through {@link org.hbase.async.FiberGetRequestBuilder#execute()} and
+ * {@link org.hbase.async.FiberHBaseRPC#get()}, called from plain threads and from fibers.
+ * Fiber benchmarks run {@link #FIBER_BATCH} sequential gets per fiber, so the fiber spawn is amortized.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.GetBenchmark</code></p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetBenchmark {
+	/** The number of gets run per fiber */
+	public static final int FIBER_BATCH = 100;
+
+	/**
+	 * Executes a get builder from a thread
+	 * @param state The client state
+	 * @param cursor The key cursor
+	 * @return the row
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	@Benchmark
+	public ArrayList<KeyValue> threadExecute(final InProcessClientState state, final KeyCursor cursor) throws SuspendExecution {
+		return state.client.newGetRequest().table(InProcessClientState.TABLE).key(cursor.next(state)).execute();
+	}
+
+	/**
+	 * Runs a built get rpc from a thread
+	 * @param state The client state
+	 * @param cursor The key cursor
+	 * @return the row
+	 */
+	@Benchmark
+	public ArrayList<KeyValue> threadRpcGet(final InProcessClientState state, final KeyCursor cursor) {
+		return state.client.newGetRequest().table(InProcessClientState.TABLE).key(cursor.next(state)).getFiberHBaseRpc().get();
+	}
+
+	/**
+	 * Executes get builders from a fiber
+	 * @param state The client state
+	 * @param cursor The key cursor
+	 * @return the number of key-values read
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FIBER_BATCH)
+	public int fiberExecute(final InProcessClientState state, final KeyCursor cursor) {
+		return state.inFiber(new SuspendableCallable<Integer>() {
+			@Override
+			public Integer run() throws SuspendExecution, InterruptedException {
+				int kvs = 0;
+				for(int i = 0; i < FIBER_BATCH; i++) {
+					kvs += state.client.newGetRequest().table(InProcessClientState.TABLE).key(cursor.next(state)).execute().size();
+				}
+				return kvs;
+			}
+		});
+	}
+
+	/**
+	 * Runs built get rpcs from a fiber
+	 * @param state The client state
+	 * @param cursor The key cursor
+	 * @return the number of key-values read
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FIBER_BATCH)
+	public int fiberRpcGet(final InProcessClientState state, final KeyCursor cursor) {
+		return state.inFiber(new SuspendableCallable<Integer>() {
+			@Override
+			public Integer run() throws SuspendExecution, InterruptedException {
+				int kvs = 0;
+				for(int i = 0; i < FIBER_BATCH; i++) {
+					kvs += state.client.newGetRequest().table(InProcessClientState.TABLE).key(cursor.next(state)).getFiberHBaseRpc().get().size();
+				}
+				return kvs;
+			}
+		});
+	}
+}
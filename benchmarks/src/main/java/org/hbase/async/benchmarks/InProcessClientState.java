@@ -0,0 +1,99 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+
+import org.hbase.async.Config;
+import org.hbase.async.HBaseFiberClient;
+import org.hbase.async.InProcessHBaseClient;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.strands.SuspendableCallable;
+
+/**
+ * <p>Title: InProcessClientState</p>
+ * <p>Description: A fiber client backed by an {@link InProcessHBaseClient}, shared by all the benchmark threads</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.InProcessClientState</code></p>
+ */
+@State(Scope.Benchmark)
+public class InProcessClientState {
+	/** The benchmarked table */
+	public static final String TABLE = "bench";
+	/** The number of distinct row keys cycled through */
+	public static final int KEY_COUNT = 1024;
+
+	/** The latency of every stand-in operation in microseconds */
+	@Param({"0", "200"})
+	public int latencyMicros;
+	/** The size in bytes of every returned value */
+	@Param({"64", "1024"})
+	public int valueSize;
+
+	/** The client under test */
+	public HBaseFiberClient client;
+	/** The row keys cycled through */
+	public final String[] keys = new String[KEY_COUNT];
+
+	/**
+	 * Creates the client
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		final Config config = new Config();
+		config.overrideConfig(InProcessHBaseClient.CONFIG_LATENCY_MICROS, String.valueOf(latencyMicros));
+		config.overrideConfig(InProcessHBaseClient.CONFIG_VALUE_SIZE, String.valueOf(valueSize));
+		config.overrideConfig(InProcessHBaseClient.CONFIG_REGIONS, "8");
+		client = new HBaseFiberClient(config, new InProcessHBaseClient(config));
+		for(int i = 0; i < KEY_COUNT; i++) {
+			keys[i] = String.format("row-%08d", i);
+		}
+	}
+
+	/**
+	 * Closes the client
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.close();
+	}
+
+	/**
+	 * Runs the passed callable in a fiber on the client's scheduler and waits for its result
+	 * @param callable The callable to run
+	 * @return the callable's result
+	 */
+	public <T> T inFiber(final SuspendableCallable<T> callable) {
+		try {
+			return new Fiber<T>(client.getScheduler(), callable).start().get();
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * <p>Title: KeyCursor</p>
+ * <p>Description: Per benchmark thread position in the shared row keys, so concurrent threads read different rows</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.KeyCursor</code></p>
+ */
+@State(Scope.Thread)
+public class KeyCursor {
+	/** The next key index */
+	private int next = (int)(Thread.currentThread().getId() * 31);
+
+	/**
+	 * Returns the next row key
+	 * @param state The client state holding the keys
+	 * @return the next row key
+	 */
+	public String next(final InProcessClientState state) {
+		next = (next + 1) & (InProcessClientState.KEY_COUNT - 1);
+		return state.keys[next];
+	}
+}
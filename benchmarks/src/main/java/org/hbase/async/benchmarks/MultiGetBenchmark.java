@@ -0,0 +1,79 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hbase.async.FiberMultiGetRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableCallable;
+
+/**
+ * <p>Title: MultiGetBenchmark</p>
+ * <p>Description: Measures {@link FiberMultiGetRequest#get()} from a fiber, over keys spread across all regions</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.MultiGetBenchmark</code></p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MultiGetBenchmark {
+	/** The number of keys per multi-get */
+	@Param({"10", "100"})
+	public int keyCount;
+
+	/** The keys of every multi-get */
+	private String[] keys;
+
+	/**
+	 * Builds the keys, spreading their first byte across the stand-in's regions
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		keys = new String[keyCount];
+		for(int i = 0; i < keyCount; i++) {
+			keys[i] = (char)('!' + (i * 90 / keyCount)) + String.format("row-%08d", i);
+		}
+	}
+
+	/**
+	 * Runs a multi-get from a fiber
+	 * @param state The client state
+	 * @return the number of results
+	 */
+	@Benchmark
+	public int fiberMultiGet(final InProcessClientState state) {
+		return state.inFiber(new SuspendableCallable<Integer>() {
+			@Override
+			public Integer run() throws SuspendExecution, InterruptedException {
+				return state.client.newMGetRequest(InProcessClientState.TABLE, keys).get().size();
+			}
+		});
+	}
+}
@@ -0,0 +1,87 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.hbase.async.FiberScanRequest;
+import org.hbase.async.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.channels.ReceivePort;
+
+/**
+ * <p>Title: ScanBenchmark</p>
+ * <p>Description: Measures full scans of the stand-in's rows from a fiber, batch by batch with
+ * {@link FiberScanRequest#nextRows()} and row by row from {@link FiberScanRequest#stream()}</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.benchmarks.ScanBenchmark</code></p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+
+	/**
+	 * Scans all rows with nextRows from a fiber
+	 * @param state The client state
+	 * @return the number of rows scanned
+	 */
+	@Benchmark
+	public int fiberNextRows(final InProcessClientState state) {
+		return state.inFiber(new SuspendableCallable<Integer>() {
+			@Override
+			public Integer run() throws SuspendExecution, InterruptedException {
+				final FiberScanRequest scan = state.client.newScanRequest(InProcessClientState.TABLE);
+				int rows = 0;
+				ArrayList<ArrayList<KeyValue>> batch;
+				while((batch = scan.nextRows())!=null) {
+					rows += batch.size();
+				}
+				scan.close();
+				return rows;
+			}
+		});
+	}
+
+	/**
+	 * Scans all rows from a streaming scan from a fiber
+	 * @param state The client state
+	 * @return the number of rows scanned
+	 */
+	@Benchmark
+	public int fiberStream(final InProcessClientState state) {
+		return state.inFiber(new SuspendableCallable<Integer>() {
+			@Override
+			public Integer run() throws SuspendExecution, InterruptedException {
+				final ReceivePort<ArrayList<KeyValue>> port = state.client.newScanRequest(InProcessClientState.TABLE).stream();
+				int rows = 0;
+				while(port.receive()!=null) {
+					rows++;
+				}
+				return rows;
+			}
+		});
+	}
+}
@@ -0,0 +1,98 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: AsyncHBaseOperations</p>
+ * <p>Description: {@link FiberHBaseOperations} backed by an asynchbase {@link HBaseClient}</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.AsyncHBaseOperations</code></p>
+ */
+final class AsyncHBaseOperations implements FiberHBaseOperations {
+	/** The asynchbase client */
+	final HBaseClient hbClient;
+
+	/**
+	 * Creates a new AsyncHBaseOperations
+	 * @param hbClient The asynchbase client
+	 */
+	AsyncHBaseOperations(final HBaseClient hbClient) {
+		this.hbClient = hbClient;
+	}
+
+	@Override
+	public Deferred<ArrayList<KeyValue>> get(final GetRequest request) {
+		return hbClient.get(request);
+	}
+
+	@Override
+	public Deferred<Object> put(final PutRequest request) {
+		return hbClient.put(request);
+	}
+
+	@Override
+	public Deferred<Long> atomicIncrement(final AtomicIncrementRequest request) {
+		return hbClient.atomicIncrement(request);
+	}
+
+	@Override
+	public Deferred<Boolean> compareAndSet(final PutRequest edit, final byte[] expected) {
+		return hbClient.compareAndSet(edit, expected);
+	}
+
+	@Override
+	public Deferred<Object> delete(final DeleteRequest request) {
+		return hbClient.delete(request);
+	}
+
+	@Override
+	public Deferred<Object> flush() {
+		return hbClient.flush();
+	}
+
+	@Override
+	public Deferred<List<RegionLocation>> locateRegions(final byte[] table) {
+		return hbClient.locateRegions(table);
+	}
+
+	@Override
+	public Scanner newScanner(final String table) {
+		return hbClient.newScanner(table);
+	}
+
+	@Override
+	public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows(final Scanner scanner) {
+		return scanner.nextRows();
+	}
+
+	@Override
+	public Deferred<Object> closeScanner(final Scanner scanner) {
+		return scanner.close();
+	}
+
+	@Override
+	public Deferred<Object> shutdown() {
+		return hbClient.shutdown();
+	}
+}
@@ -0,0 +1,44 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+/**
+ * <p>Title: CircuitOpenException</p>
+ * <p>Description: Thrown, without sending the rpc, when the circuit breaker of the region server hosting the rpc's row is open</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.CircuitOpenException</code></p>
+ * @see FiberCircuitBreaker
+ */
+public final class CircuitOpenException extends NonRecoverableException {
+	/**  */
+	private static final long serialVersionUID = 5180441226318367017L;
+
+	/**
+	 * Creates a new CircuitOpenException
+	 * @param msg The exception message
+	 */
+	CircuitOpenException(final String msg) {
+		super(msg);
+	}
+
+	@Override
+	CircuitOpenException make(final Object msg, final HBaseRpc rpc) {
+		return new CircuitOpenException(msg.toString());
+	}
+}
@@ -0,0 +1,45 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+/**
+ * <p>Title: CompareAndSetConflictException</p>
+ * <p>Description: Thrown when a read-modify-write loses its compare-and-set race on every attempt,
+ * because the cell kept being changed by another writer between the read and the compare-and-set</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.CompareAndSetConflictException</code></p>
+ * @see FiberCompareAndSetRequestBuilder#update(FiberCompareAndSetRequestBuilder.Update)
+ */
+public final class CompareAndSetConflictException extends NonRecoverableException {
+	/**  */
+	private static final long serialVersionUID = -7301985548376259410L;
+
+	/**
+	 * Creates a new CompareAndSetConflictException
+	 * @param msg The exception message
+	 */
+	CompareAndSetConflictException(final String msg) {
+		super(msg);
+	}
+
+	@Override
+	CompareAndSetConflictException make(final Object msg, final HBaseRpc rpc) {
+		return new CompareAndSetConflictException(msg.toString());
+	}
+}
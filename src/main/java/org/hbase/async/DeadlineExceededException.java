@@ -0,0 +1,53 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+/**
+ * <p>Title: DeadlineExceededException</p>
+ * <p>Description: Thrown when an operation is abandoned because the {@link FiberDeadline} of the calling strand has passed,
+ * either before the operation was sent or while waiting for its result</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.DeadlineExceededException</code></p>
+ */
+public final class DeadlineExceededException extends NonRecoverableException {
+	/**  */
+	private static final long serialVersionUID = -2415770617395402712L;
+
+	/**
+	 * Creates a new DeadlineExceededException
+	 * @param msg The exception message
+	 */
+	DeadlineExceededException(final String msg) {
+		super(msg);
+	}
+
+	/**
+	 * Creates a new DeadlineExceededException
+	 * @param msg The exception message
+	 * @param cause The underlying cause
+	 */
+	DeadlineExceededException(final String msg, final Throwable cause) {
+		super(msg, cause);
+	}
+
+	@Override
+	DeadlineExceededException make(final Object msg, final HBaseRpc rpc) {
+		return new DeadlineExceededException(msg.toString(), this);
+	}
+}
@@ -0,0 +1,555 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.function.LongSupplier;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.Suspendable;
+import co.paralleluniverse.strands.concurrent.ReentrantLock;
+
+/**
+ * <p>Title: FiberAdmissionControl</p>
+ * <p>Description: Bounds the number of rpcs in flight to each region server. A caller that would exceed a server's
+ * limit waits until one of that server's rpcs completes: fibers suspend, threads block, and nothing piles up in
+ * asynchbase or Netty buffers. The limit is either fixed or adaptive (AIMD): it grows by one per round of
+ * completions while the server is saturated, and is halved when the server answers with a
+ * {@link PleaseThrottleException} or an rpc times out. Waits respect the caller's {@link FiberDeadline}.
+ * When enabled, each region server also has a {@link FiberCircuitBreaker}: while it is open, rpcs to the server
+ * fail fast with a {@link CircuitOpenException} instead of waiting. Callers that cannot wait, such as
+ * {@link java.util.concurrent.CompletableFuture} callers, are counted against the limits but never wait.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberAdmissionControl</code></p>
+ */
+public final class FiberAdmissionControl {
+	/** Config key for the maximum rpcs in flight per region server, the initial limit when adaptive. Defaults to 0, which disables admission control */
+	public static final String CONFIG_ADMISSION_LIMIT = "hbase.fiber.admission.limit";
+	/** Config key for enabling the adaptive (AIMD) limit. Defaults to false */
+	public static final String CONFIG_ADMISSION_ADAPTIVE = "hbase.fiber.admission.adaptive";
+	/** Config key for the lowest adaptive limit. Defaults to 8 */
+	public static final String CONFIG_ADMISSION_MIN_LIMIT = "hbase.fiber.admission.min.limit";
+	/** Config key for the highest adaptive limit. Defaults to 1024 */
+	public static final String CONFIG_ADMISSION_MAX_LIMIT = "hbase.fiber.admission.max.limit";
+
+	/** The minimum interval between two decreases of a server's adaptive limit, so one overload episode halves it once */
+	private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** The region locator used to find the server of an rpc */
+	private final FiberRegionLocator regionLocator;
+	/** The nano time source */
+	private final LongSupplier clock;
+	/** The initial limit per server, or 0 if the rpcs in flight are not bounded */
+	private final int initialLimit;
+	/** The circuit breaker settings */
+	private final FiberCircuitBreaker.Settings breakerSettings;
+	/** Indicates if the limits are adaptive */
+	private final boolean adaptive;
+	/** The lowest adaptive limit */
+	private final int minLimit;
+	/** The highest adaptive limit */
+	private final int maxLimit;
+	/** The limiters keyed by region server <b>host:port</b> */
+	private final ConcurrentHashMap<String, Limiter> limiters = new ConcurrentHashMap<String, Limiter>();
+	/** The number of rpcs that had to wait for admission */
+	private final AtomicLong waited = new AtomicLong(0L);
+	/** The number of rpcs throttled by a region server */
+	private final AtomicLong throttled = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberAdmissionControl
+	 * @param regionLocator The region locator used to find the server of an rpc
+	 * @param config The config to read the admission options from
+	 */
+	FiberAdmissionControl(final FiberRegionLocator regionLocator, final Config config) {
+		this(regionLocator, config, System::nanoTime);
+	}
+
+	/**
+	 * Creates a new FiberAdmissionControl reading the time from the passed clock
+	 * @param regionLocator The region locator used to find the server of an rpc
+	 * @param config The config to read the admission options from
+	 * @param clock The nano time source
+	 */
+	FiberAdmissionControl(final FiberRegionLocator regionLocator, final Config config, final LongSupplier clock) {
+		this.regionLocator = regionLocator;
+		this.clock = clock;
+		initialLimit = HBaseFiberClient.configInt(config, CONFIG_ADMISSION_LIMIT, 0);
+		adaptive = config.hasProperty(CONFIG_ADMISSION_ADAPTIVE) ? config.getBoolean(CONFIG_ADMISSION_ADAPTIVE) : false;
+		minLimit = HBaseFiberClient.configInt(config, CONFIG_ADMISSION_MIN_LIMIT, 8);
+		maxLimit = HBaseFiberClient.configInt(config, CONFIG_ADMISSION_MAX_LIMIT, 1024);
+		breakerSettings = new FiberCircuitBreaker.Settings(config);
+		if(initialLimit < 0) throw new IllegalArgumentException("Invalid admission limit: " + initialLimit);
+		if(adaptive && (minLimit < 1 || maxLimit < minLimit)) throw new IllegalArgumentException("Invalid adaptive admission limits: " + minLimit + "-" + maxLimit);
+	}
+
+	/**
+	 * Waits until the region server hosting the passed rpc's row admits one more rpc
+	 * @param rpc The rpc about to be sent
+	 * @return the permit to release when the rpc completes, or null if admission control is disabled or the server is unknown
+	 * @throws DeadlineExceededException thrown if the caller's deadline expires while waiting
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 */
+	@Suspendable
+	Permit acquire(final HBaseRpc rpc) {
+		return acquire(rpc.table, rpc.key);
+	}
+
+	/**
+	 * Waits until the region server hosting the passed row admits one more rpc
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the permit to release when the rpc completes, or null if admission control is disabled or the server is unknown
+	 * @throws DeadlineExceededException thrown if the caller's deadline expires while waiting
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 */
+	@Suspendable
+	Permit acquire(final byte[] table, final byte[] key) {
+		if(!isEnabled() || table==null || key==null) return null;
+		RegionLocation region = regionLocator.cached(table, key);
+		if(region==null) {
+			try {
+				region = FiberRegionLocator.find(regionLocator.locate(table), key);
+			} catch (DeadlineExceededException dex) {
+				throw dex;
+			} catch (RuntimeException ex) {
+				return null;	// the rpc itself will report why the table cannot be located
+			}
+		}
+		return region==null ? null : acquire(FiberRegionLocator.server(region));
+	}
+
+	/**
+	 * Waits until the passed region server admits one more rpc
+	 * @param server The region server <b>host:port</b>
+	 * @return the permit to release when the rpc completes, or null if admission control is disabled
+	 * @throws DeadlineExceededException thrown if the caller's deadline expires while waiting
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 */
+	@Suspendable
+	Permit acquire(final String server) {
+		if(!isEnabled()) return null;
+		final Limiter limiter = limiter(server);
+		final boolean probe = breakerSettings.enabled && limiter.breaker.allow();
+		try {
+			limiter.acquire();
+		} catch (RuntimeException ex) {
+			if(probe) limiter.breaker.cancelProbe();
+			throw ex;
+		}
+		return new Permit(limiter, probe);
+	}
+
+	/**
+	 * Admits an rpc from a caller that cannot wait, such as a {@link java.util.concurrent.CompletableFuture} caller.
+	 * The rpc is counted against its server's limit but never waits for it, and only cached region locations are used.
+	 * @param rpc The rpc about to be sent
+	 * @return the permit to release when the rpc completes, or null if admission control is disabled or the server is not cached
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 */
+	Permit admitNow(final HBaseRpc rpc) {
+		return admitNow(rpc.table, rpc.key);
+	}
+
+	/**
+	 * Admits an rpc for the passed row from a caller that cannot wait
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the permit to release when the rpc completes, or null if admission control is disabled or the server is not cached
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 * @see #admitNow(HBaseRpc)
+	 */
+	Permit admitNow(final byte[] table, final byte[] key) {
+		if(!isEnabled() || table==null || key==null) return null;
+		final RegionLocation region = regionLocator.cached(table, key);
+		if(region==null) return null;
+		final Limiter limiter = limiter(FiberRegionLocator.server(region));
+		final boolean probe = breakerSettings.enabled && limiter.breaker.allow();
+		limiter.admit();
+		return new Permit(limiter, probe);
+	}
+
+	/**
+	 * Admits an optional rpc, such as a hedge, only if its server can take it without waiting:
+	 * the server is cached, its circuit breaker is closed and it is below its in-flight limit
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the permit to release when the rpc completes, or null if the rpc should not be sent
+	 */
+	Permit tryAdmit(final byte[] table, final byte[] key) {
+		final RegionLocation region = regionLocator.cached(table, key);
+		if(region==null) return null;
+		final Limiter limiter = limiter(FiberRegionLocator.server(region));
+		if(breakerSettings.enabled && limiter.breaker.getState()!=FiberCircuitBreaker.State.CLOSED) return null;
+		return limiter.tryAdmit() ? new Permit(limiter, false) : null;
+	}
+
+	/**
+	 * Indicates if admission control is enabled
+	 * @return true if the rpcs in flight are bounded or circuit breakers are enabled
+	 */
+	public boolean isEnabled() {
+		return initialLimit > 0 || breakerSettings.enabled;
+	}
+
+	/**
+	 * Returns the state of a region server's circuit breaker
+	 * @param server The region server <b>host:port</b>
+	 * @return <b>CLOSED</b>, <b>OPEN</b> or <b>HALF_OPEN</b>
+	 */
+	public String getBreakerState(final String server) {
+		final Limiter limiter = limiters.get(server);
+		return limiter==null ? FiberCircuitBreaker.State.CLOSED.name() : limiter.breaker.getState().name();
+	}
+
+	/**
+	 * Returns the number of times a region server's circuit breaker opened
+	 * @param server The region server <b>host:port</b>
+	 * @return the number of trips
+	 */
+	public long getBreakerTrips(final String server) {
+		final Limiter limiter = limiters.get(server);
+		return limiter==null ? 0L : limiter.breaker.getTrips();
+	}
+
+	/**
+	 * Indicates if the limits are adaptive
+	 * @return true if the limits are adaptive
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Returns the region servers rpcs have been admitted to
+	 * @return the region server <b>host:port</b>s
+	 */
+	public Set<String> getServers() {
+		return Collections.unmodifiableSet(limiters.keySet());
+	}
+
+	/**
+	 * Returns the current limit of a region server
+	 * @param server The region server <b>host:port</b>
+	 * @return the limit, or the initial limit if no rpc has been admitted to the server
+	 */
+	public int getLimit(final String server) {
+		final Limiter limiter = limiters.get(server);
+		return limiter==null ? initialLimit : (int)limiter.limit;
+	}
+
+	/**
+	 * Returns the number of rpcs in flight to a region server
+	 * @param server The region server <b>host:port</b>
+	 * @return the number of rpcs in flight
+	 */
+	public int getInFlight(final String server) {
+		final Limiter limiter = limiters.get(server);
+		return limiter==null ? 0 : limiter.inFlight;
+	}
+
+	/**
+	 * Returns the number of rpcs waiting for admission to a region server
+	 * @param server The region server <b>host:port</b>
+	 * @return the number of waiting rpcs
+	 */
+	public int getWaiting(final String server) {
+		final Limiter limiter = limiters.get(server);
+		return limiter==null ? 0 : limiter.waiting;
+	}
+
+	/**
+	 * Returns the number of rpcs that had to wait for admission
+	 * @return the number of rpcs that waited
+	 */
+	public long getWaited() {
+		return waited.get();
+	}
+
+	/**
+	 * Returns the number of rpcs a region server answered with a {@link PleaseThrottleException}
+	 * @return the number of throttled rpcs
+	 */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Returns the limiter of a region server, creating it if necessary
+	 * @param server The region server <b>host:port</b>
+	 * @return the limiter
+	 */
+	private Limiter limiter(final String server) {
+		Limiter limiter = limiters.get(server);
+		if(limiter==null) {
+			final Limiter created = new Limiter(server);
+			limiter = limiters.putIfAbsent(server, created);
+			if(limiter==null) limiter = created;
+		}
+		return limiter;
+	}
+
+	/**
+	 * Determines if the passed failure means the server is overloaded
+	 * @param error The rpc failure
+	 * @return true if the server throttled the rpc or the rpc timed out
+	 */
+	private boolean isOverload(final Throwable error) {
+		Throwable t = error;
+		for(int i = 0; t!=null && i < 8; i++, t = t.getCause()) {
+			if(t instanceof PleaseThrottleException) {
+				throttled.incrementAndGet();
+				return true;
+			}
+		}
+		return FiberOperationMetrics.isTimeout(error);
+	}
+
+	/**
+	 * Determines if the passed failure is a sign of a sick server
+	 * @param error The rpc failure
+	 * @param overload true if the failure already was found to be an overload
+	 * @return true if the failure counts against the server's circuit breaker
+	 */
+	private static boolean isServerFailure(final Throwable error, final boolean overload) {
+		if(overload) return true;
+		Throwable t = error;
+		for(int i = 0; t!=null && i < 8; i++, t = t.getCause()) {
+			if(t instanceof ConnectionResetException) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * <p>Title: Permit</p>
+	 * <p>Description: Admission of one rpc to a region server, released when the rpc completes</p>
+	 * <p><code>org.hbase.async.FiberAdmissionControl.Permit</code></p>
+	 */
+	final class Permit {
+		/** The limiter that admitted the rpc */
+		private final Limiter limiter;
+		/** Indicates if the rpc is a half-open circuit breaker probe */
+		private final boolean probe;
+		/** The time the rpc was admitted, in nanos */
+		private final long start = clock.getAsLong();
+
+		/**
+		 * Creates a new Permit
+		 * @param limiter The limiter that admitted the rpc
+		 * @param probe true if the rpc is a half-open circuit breaker probe
+		 */
+		Permit(final Limiter limiter, final boolean probe) {
+			this.limiter = limiter;
+			this.probe = probe;
+		}
+
+		/**
+		 * Releases this permit when the passed deferred rpc completes.
+		 * The deferred's result or failure is passed through unchanged.
+		 * @param deferred The deferred rpc
+		 * @return the passed deferred
+		 */
+		<T> Deferred<T> track(final Deferred<T> deferred) {
+			return track(deferred, true);
+		}
+
+		/**
+		 * Releases this permit when the passed deferred scanner batch completes. Unlike {@link #track(Deferred)},
+		 * the batch's latency is not held against the breaker's slow threshold: a batch scanning many rows
+		 * through a server side filter is routinely slower than a point rpc. Failures still count.
+		 * @param deferred The deferred scanner batch
+		 * @return the passed deferred
+		 */
+		<T> Deferred<T> trackBatch(final Deferred<T> deferred) {
+			return track(deferred, false);
+		}
+
+		/**
+		 * Releases this permit when the passed deferred rpc completes, passing its result or failure through unchanged
+		 * @param deferred The deferred rpc
+		 * @param timed true if the rpc's latency counts towards the breaker's slow rate
+		 * @return the passed deferred
+		 */
+		private <T> Deferred<T> track(final Deferred<T> deferred, final boolean timed) {
+			return deferred.addCallbacks(
+				new Callback<T, T>() {
+					@Override
+					public T call(final T result) throws Exception {
+						limiter.release(false);
+						if(breakerSettings.enabled) limiter.breaker.record(probe, false, elapsed(timed));
+						return result;
+					}
+				},
+				new Callback<Exception, Exception>() {
+					@Override
+					public Exception call(final Exception ex) throws Exception {
+						final boolean overload = isOverload(ex);
+						limiter.release(overload);
+						if(breakerSettings.enabled) limiter.breaker.record(probe, isServerFailure(ex, overload), elapsed(timed));
+						return ex;
+					}
+				}
+			);
+		}
+
+		/**
+		 * Returns the latency of the rpc as recorded by the breaker
+		 * @param timed true if the latency counts towards the breaker's slow rate
+		 * @return the nanos since the rpc was admitted, or 0 if the latency does not count
+		 */
+		private long elapsed(final boolean timed) {
+			return timed ? clock.getAsLong() - start : 0L;
+		}
+
+		/**
+		 * Releases this permit without an outcome, for an rpc that was never sent
+		 */
+		void release() {
+			limiter.release(false);
+			if(probe) limiter.breaker.cancelProbe();
+		}
+	}
+
+	/**
+	 * <p>Title: Limiter</p>
+	 * <p>Description: The in-flight limit of one region server. Waiters park on a strand aware condition,
+	 * so fibers suspend rather than block their carrier thread.</p>
+	 * <p><code>org.hbase.async.FiberAdmissionControl.Limiter</code></p>
+	 */
+	private final class Limiter {
+		/** The circuit breaker of the region server */
+		final FiberCircuitBreaker breaker;
+		/** Guards the limiter state */
+		private final ReentrantLock lock = new ReentrantLock();
+		/** Signalled when an rpc completes */
+		private final Condition released = lock.newCondition();
+		/** The current limit, fractional while adaptively increasing */
+		volatile double limit = initialLimit;
+		/** The number of rpcs in flight */
+		volatile int inFlight = 0;
+		/** The number of waiting rpcs */
+		volatile int waiting = 0;
+		/** The time of the last adaptive decrease */
+		private long lastDecrease = clock.getAsLong() - DECREASE_INTERVAL_NANOS;
+
+		/**
+		 * Creates a new Limiter
+		 * @param server The region server <b>host:port</b>
+		 */
+		Limiter(final String server) {
+			breaker = new FiberCircuitBreaker(server, breakerSettings, clock);
+		}
+
+		/**
+		 * Waits for an in-flight slot
+		 * @throws DeadlineExceededException thrown if the caller's deadline expires while waiting
+		 */
+		@Suspendable
+		void acquire() {
+			final FiberDeadline deadline = FiberDeadline.current();
+			lock.lock();
+			try {
+				if(initialLimit > 0 && inFlight >= (int)limit) {
+					waited.incrementAndGet();
+					waiting++;
+					try {
+						while(inFlight >= (int)limit) {
+							if(deadline==null) {
+								released.await();
+							} else if(deadline.isExpired() || !released.await(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+								if(inFlight < (int)limit) break;
+								throw deadline.exceeded("wait for admission");
+							}
+						}
+					} finally {
+						waiting--;
+					}
+				}
+				inFlight++;
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for admission", iex);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Takes an in-flight slot without waiting, even if the limit is reached
+		 */
+		void admit() {
+			lock.lock();
+			try {
+				inFlight++;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Takes an in-flight slot only if the limit is not reached
+		 * @return true if a slot was taken
+		 */
+		boolean tryAdmit() {
+			lock.lock();
+			try {
+				if(initialLimit > 0 && inFlight >= (int)limit) return false;
+				inFlight++;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Releases an in-flight slot, adapting the limit to the rpc's outcome
+		 * @param overload true if the rpc failed because the server is overloaded
+		 */
+		void release(final boolean overload) {
+			lock.lock();
+			try {
+				final boolean saturated = inFlight >= (int)limit;
+				inFlight--;
+				if(adaptive) {
+					if(overload) {
+						final long now = clock.getAsLong();
+						if(now - lastDecrease >= DECREASE_INTERVAL_NANOS) {
+							lastDecrease = now;
+							limit = Math.max(minLimit, limit / 2);
+						}
+					} else if(saturated) {
+						limit = Math.min(maxLimit, limit + 1.0 / limit);
+					}
+				}
+				if(waiting > 0) {
+					released.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
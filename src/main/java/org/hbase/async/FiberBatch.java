@@ -0,0 +1,296 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * <p>Title: FiberBatch</p>
+ * <p>Description: Sends independent operations of any kind together, so their round trips overlap, and waits once
+ * for all of them. Operations are added from their builders, each returning a typed {@link Slot}, and are sent in region
+ * server order on {@link #execute()}, which suspends the calling fiber, or blocks the calling thread, until every
+ * operation completed. Results are returned in submission order; one failed operation does not fail the others.
+ * A batch is executed once: build a new batch to send the operations again.</p>
+ * <p>Each operation is attempted once. It is counted against its region server's admission limit and honors the caller's
+ * {@link FiberDeadline}. Gets skip the row cache, increments are sent rather than aggregated, and bufferable puts
+ * complete when their write buffer batch is flushed. Not thread-safe.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberBatch</code></p>
+ */
+public final class FiberBatch {
+	/** The fiber client */
+	private final HBaseFiberClient fiberClient;
+	/** The operations in submission order */
+	private final List<FiberHBaseRPC<?, ?>> rpcs = new ArrayList<FiberHBaseRPC<?, ?>>();
+	/** Set once the batch was executed */
+	private boolean executed = false;
+
+	/**
+	 * Creates a new FiberBatch
+	 * @param fiberClient The fiber client to send the operations with
+	 */
+	FiberBatch(final HBaseFiberClient fiberClient) {
+		this.fiberClient = fiberClient;
+	}
+
+	/**
+	 * Adds the operation built from the passed builder's current settings. The builder can be reused afterwards.
+	 * @param builder The get, put, increment or delete builder
+	 * @return the slot of the operation's result
+	 * @throws IllegalStateException thrown if the batch was already executed
+	 */
+	public <R> Slot<R> add(final FiberHBaseRPCBuilder<?, R, ?, ?> builder) {
+		if(executed) throw new IllegalStateException("The batch was already executed");
+		rpcs.add(builder.buildAsyncRpc());
+		return new Slot<R>(rpcs.size() - 1);
+	}
+
+	/**
+	 * Returns the number of operations added
+	 * @return the operation count
+	 */
+	public int size() {
+		return rpcs.size();
+	}
+
+	/**
+	 * Sends every operation and waits for all of them to complete.
+	 * If the caller's deadline expires first, the operations still pending fail with a {@link DeadlineExceededException}.
+	 * @return the results in submission order
+	 * @throws IllegalStateException thrown if the batch was already executed, since its operations must not be sent twice
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	@SuppressWarnings("unchecked")
+	public Results execute() throws SuspendExecution {
+		if(executed) throw new IllegalStateException("The batch was already executed");
+		executed = true;
+		final int size = rpcs.size();
+		final Results results = new Results(size);
+		if(size==0) return results;
+		final Deferred<Object> all = new Deferred<Object>();
+		final AtomicInteger remaining = new AtomicInteger(size);
+		for(final int index: sendOrder()) {
+			Deferred<Object> d;
+			try {
+				d = (Deferred<Object>)rpcs.get(index).send();
+			} catch (RuntimeException ex) {
+				d = Deferred.fromError(ex);
+			}
+			d.addCallbacks(
+				new Callback<Void, Object>() {
+					@Override
+					public Void call(final Object result) throws Exception {
+						results.complete(index, result, null);
+						if(remaining.decrementAndGet()==0) all.callback(null);
+						return null;
+					}
+				},
+				new Callback<Void, Exception>() {
+					@Override
+					public Void call(final Exception ex) throws Exception {
+						results.complete(index, null, ex);
+						if(remaining.decrementAndGet()==0) all.callback(null);
+						return null;
+					}
+				}
+			);
+		}
+		try {
+			FiberDeferred.await(all);
+		} catch (DeadlineExceededException dex) {
+			results.abandon(dex);
+		}
+		return results;
+	}
+
+	/**
+	 * Orders the operations by the region server hosting their row, as far as cached region locations tell,
+	 * so the operations bound to one server are written to its connection back to back
+	 * @return the operation indexes in send order
+	 */
+	private Integer[] sendOrder() {
+		final int size = rpcs.size();
+		final Integer[] order = new Integer[size];
+		final String[] servers = new String[size];
+		for(int i = 0; i < size; i++) {
+			order[i] = i;
+			final HBaseRpc rpc = rpcs.get(i).getHbaseRpc();
+			final RegionLocation region = rpc.table==null || rpc.key==null ? null : fiberClient.getRegionLocator().cached(rpc.table, rpc.key);
+			servers[i] = region==null ? "" : FiberRegionLocator.server(region);
+		}
+		// stable, so submission order is kept per server
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return servers[a].compareTo(servers[b]);
+			}
+		});
+		return order;
+	}
+
+	/**
+	 * <p>Title: Slot</p>
+	 * <p>Description: The typed position of an operation's result in a batch</p>
+	 * <p><code>org.hbase.async.FiberBatch.Slot</code></p>
+	 * @param <R> The operation result type
+	 */
+	public static final class Slot<R> {
+		/** The submission index */
+		private final int index;
+
+		/**
+		 * Creates a new Slot
+		 * @param index The submission index
+		 */
+		Slot(final int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Returns the submission index of the operation
+		 * @return the index
+		 */
+		public int index() {
+			return index;
+		}
+	}
+
+	/**
+	 * <p>Title: Results</p>
+	 * <p>Description: The outcomes of a batch's operations in submission order</p>
+	 * <p><code>org.hbase.async.FiberBatch.Results</code></p>
+	 */
+	public static final class Results {
+		/** The outcome of each operation, null until it completed. Set once, so late completions after a deadline are ignored */
+		private final AtomicReferenceArray<Outcome> outcomes;
+
+		/**
+		 * Creates a new Results
+		 * @param size The number of operations
+		 */
+		Results(final int size) {
+			outcomes = new AtomicReferenceArray<Outcome>(size);
+		}
+
+		/**
+		 * Records the outcome of an operation unless it was already recorded
+		 * @param index The operation index
+		 * @param value The result
+		 * @param error The failure, or null if it succeeded
+		 */
+		void complete(final int index, final Object value, final Exception error) {
+			outcomes.compareAndSet(index, null, new Outcome(value, error));
+		}
+
+		/**
+		 * Fails every operation that has not completed yet
+		 * @param error The failure
+		 */
+		void abandon(final Exception error) {
+			for(int i = 0, n = size(); i < n; i++) {
+				complete(i, null, error);
+			}
+		}
+
+		/**
+		 * Returns the number of operations
+		 * @return the operation count
+		 */
+		public int size() {
+			return outcomes.length();
+		}
+
+		/**
+		 * Indicates if an operation succeeded
+		 * @param index The submission index
+		 * @return true if it succeeded
+		 */
+		public boolean isSuccess(final int index) {
+			return outcomes.get(index).error==null;
+		}
+
+		/**
+		 * Returns the failure of an operation
+		 * @param index The submission index
+		 * @return the failure, or null if the operation succeeded
+		 */
+		public Exception getError(final int index) {
+			return outcomes.get(index).error;
+		}
+
+		/**
+		 * Returns the result of an operation, or throws its failure
+		 * @param slot The slot returned when the operation was added
+		 * @return the result
+		 * @throws HBaseException thrown if the operation failed with an HBaseException
+		 */
+		@SuppressWarnings("unchecked")
+		public <R> R get(final Slot<R> slot) throws HBaseException {
+			final Outcome outcome = outcomes.get(slot.index);
+			if(outcome.error instanceof RuntimeException) throw (RuntimeException)outcome.error;
+			if(outcome.error!=null) throw new RuntimeException(outcome.error);
+			return (R)outcome.value;
+		}
+
+		/**
+		 * Returns every outcome in submission order: the result of each successful operation, the failure of each failed one
+		 * @return the outcomes
+		 */
+		public Object[] toArray() {
+			final Object[] array = new Object[size()];
+			for(int i = 0; i < array.length; i++) {
+				final Outcome outcome = outcomes.get(i);
+				array[i] = outcome.error!=null ? outcome.error : outcome.value;
+			}
+			return array;
+		}
+	}
+
+	/**
+	 * <p>Title: Outcome</p>
+	 * <p>Description: The result or failure of one operation</p>
+	 * <p><code>org.hbase.async.FiberBatch.Outcome</code></p>
+	 */
+	private static final class Outcome {
+		/** The result */
+		final Object value;
+		/** The failure, or null if the operation succeeded */
+		final Exception error;
+
+		/**
+		 * Creates a new Outcome
+		 * @param value The result
+		 * @param error The failure, or null if the operation succeeded
+		 */
+		Outcome(final Object value, final Exception error) {
+			this.value = value;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: FiberBudget</p>
+ * <p>Description: Caps extra work, such as hedges or retries, at a percentage of the primary operations.
+ * Each operation earns a fraction of one unit of work and each unit of extra work spends a whole one,
+ * with a small burst allowance so isolated failures are not starved.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberBudget</code></p>
+ */
+final class FiberBudget {
+	/** The budget units of one unit of extra work */
+	private static final long COST = 1000L;
+
+	/** The budget units earned per operation */
+	private final long earnedPerOperation;
+	/** The maximum budget in units */
+	private final long max;
+	/** The remaining budget in units */
+	private final AtomicLong budget;
+
+	/**
+	 * Creates a new FiberBudget
+	 * @param percent The extra work allowed, as a percentage of operations
+	 * @param burst The extra work allowed in a burst, which is also the initial budget
+	 */
+	FiberBudget(final int percent, final int burst) {
+		if(percent < 0 || percent > 100) throw new IllegalArgumentException("Invalid budget percent: " + percent);
+		earnedPerOperation = COST * percent / 100;
+		max = COST * burst;
+		budget = new AtomicLong(percent==0 ? 0L : max);
+	}
+
+	/**
+	 * Adds the budget earned by one operation
+	 */
+	void earn() {
+		for(;;) {
+			final long current = budget.get();
+			if(current >= max || budget.compareAndSet(current, Math.min(max, current + earnedPerOperation))) return;
+		}
+	}
+
+	/**
+	 * Spends the budget of one unit of extra work
+	 * @return true if the budget allowed it, false if it is exhausted
+	 */
+	boolean spend() {
+		for(;;) {
+			final long current = budget.get();
+			if(current < COST) return false;
+			if(budget.compareAndSet(current, current - COST)) return true;
+		}
+	}
+}
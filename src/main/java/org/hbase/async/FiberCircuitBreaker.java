@@ -0,0 +1,280 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Title: FiberCircuitBreaker</p>
+ * <p>Description: The circuit breaker of one region server. It counts, over a sliding time window, the rpcs that
+ * completed, failed with a sign of a sick server (timeouts, connection resets, throttling) or were slow. When either
+ * the failure or the slow rate crosses its threshold the breaker opens: rpcs to the server then fail fast with a
+ * {@link CircuitOpenException} instead of piling up waiting on it. After the open period a few probe rpcs are let
+ * through (half-open); the breaker closes if they all succeed and opens again otherwise.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberCircuitBreaker</code></p>
+ */
+final class FiberCircuitBreaker {
+	/** Config key for enabling circuit breakers. Defaults to false */
+	public static final String CONFIG_BREAKER_ENABLED = "hbase.fiber.breaker.enabled";
+	/** Config key for the sliding window the rates are computed over, in ms. Defaults to 10000 */
+	public static final String CONFIG_BREAKER_WINDOW = "hbase.fiber.breaker.window.ms";
+	/** Config key for the rpcs that must complete in the window before the breaker can open. Defaults to 20 */
+	public static final String CONFIG_BREAKER_MIN_CALLS = "hbase.fiber.breaker.min.calls";
+	/** Config key for the failure rate, in percent, that opens the breaker. Defaults to 50 */
+	public static final String CONFIG_BREAKER_FAILURE_PERCENT = "hbase.fiber.breaker.failure.percent";
+	/** Config key for the latency, in ms, above which an rpc is slow. Scanner batches are never slow. Defaults to 1000 */
+	public static final String CONFIG_BREAKER_SLOW = "hbase.fiber.breaker.slow.ms";
+	/** Config key for the slow rate, in percent, that opens the breaker. Defaults to 50 */
+	public static final String CONFIG_BREAKER_SLOW_PERCENT = "hbase.fiber.breaker.slow.percent";
+	/** Config key for the time an open breaker fails rpcs before probing, in ms. Defaults to 5000 */
+	public static final String CONFIG_BREAKER_OPEN = "hbase.fiber.breaker.open.ms";
+	/** Config key for the probe rpcs let through by a half-open breaker. Defaults to 3 */
+	public static final String CONFIG_BREAKER_PROBES = "hbase.fiber.breaker.probes";
+
+	/** The number of buckets the window is divided in */
+	private static final int BUCKETS = 10;
+
+	/**
+	 * <p>Title: State</p>
+	 * <p>Description: The states of a circuit breaker</p>
+	 * <p><code>org.hbase.async.FiberCircuitBreaker.State</code></p>
+	 */
+	enum State {
+		/** Rpcs are sent and their outcomes counted */
+		CLOSED,
+		/** Rpcs fail fast */
+		OPEN,
+		/** A few probe rpcs are sent to decide whether to close or open again */
+		HALF_OPEN;
+	}
+
+	/** The region server <b>host:port</b> */
+	private final String server;
+	/** The breaker settings */
+	private final Settings settings;
+	/** The nano time source */
+	private final LongSupplier clock;
+	/** The start of each bucket's interval, in nanos */
+	private final long[] bucketStarts = new long[BUCKETS];
+	/** The completed rpcs per bucket */
+	private final int[] calls = new int[BUCKETS];
+	/** The failed rpcs per bucket */
+	private final int[] failures = new int[BUCKETS];
+	/** The slow rpcs per bucket */
+	private final int[] slow = new int[BUCKETS];
+	/** The current state */
+	private volatile State state = State.CLOSED;
+	/** The time the open breaker starts probing, then the time the current round of probes started, in nanos */
+	private long openUntil = 0L;
+	/** The probes let through while half-open */
+	private int probesSent = 0;
+	/** The probes that succeeded while half-open */
+	private int probesSucceeded = 0;
+	/** The number of times the breaker opened */
+	private volatile long trips = 0L;
+
+	/**
+	 * Creates a new FiberCircuitBreaker
+	 * @param server The region server <b>host:port</b>
+	 * @param settings The breaker settings
+	 * @param clock The nano time source, {@link System#nanoTime()} outside of tests
+	 */
+	FiberCircuitBreaker(final String server, final Settings settings, final LongSupplier clock) {
+		this.server = server;
+		this.settings = settings;
+		this.clock = clock;
+	}
+
+	/**
+	 * Lets an rpc through, or fails it fast if the breaker is open
+	 * @return true if the rpc is a half-open probe, false for a regular rpc
+	 * @throws CircuitOpenException thrown if the breaker is open, or half-open with all its probes in flight
+	 */
+	boolean allow() {
+		if(state==State.CLOSED) return false;
+		synchronized(this) {
+			final long now = clock.getAsLong();
+			if(state==State.OPEN) {
+				if(now - openUntil < 0) {
+					throw new CircuitOpenException("Circuit breaker of region server " + server + " is open for another "
+						+ TimeUnit.NANOSECONDS.toMillis(openUntil - now) + " ms");
+				}
+				state = State.HALF_OPEN;
+				probesSent = 0;
+				probesSucceeded = 0;
+			}
+			if(state==State.HALF_OPEN) {
+				if(probesSent >= settings.probes && now - openUntil >= settings.openNanos) {
+					// the probes never completed: start a new round
+					openUntil = now;
+					probesSent = 0;
+					probesSucceeded = 0;
+				}
+				if(probesSent >= settings.probes) {
+					throw new CircuitOpenException("Circuit breaker of region server " + server + " is probing");
+				}
+				probesSent++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Records the outcome of an rpc
+	 * @param probe true if the rpc was a half-open probe
+	 * @param failed true if the rpc failed with a sign of a sick server
+	 * @param nanos The rpc latency in nanos
+	 */
+	synchronized void record(final boolean probe, final boolean failed, final long nanos) {
+		final boolean isSlow = nanos >= settings.slowNanos;
+		if(probe) {
+			if(state!=State.HALF_OPEN) return;
+			if(failed || isSlow) {
+				open(clock.getAsLong());
+			} else if(++probesSucceeded >= settings.probes) {
+				state = State.CLOSED;
+				for(int i = 0; i < BUCKETS; i++) {
+					calls[i] = 0;
+					failures[i] = 0;
+					slow[i] = 0;
+				}
+			}
+			return;
+		}
+		if(state!=State.CLOSED) return;
+		final long now = clock.getAsLong();
+		final int b = bucket(now);
+		calls[b]++;
+		if(failed) failures[b]++;
+		if(isSlow) slow[b]++;
+		int totalCalls = 0, totalFailures = 0, totalSlow = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			if(now - bucketStarts[i] < settings.windowNanos) {
+				totalCalls += calls[i];
+				totalFailures += failures[i];
+				totalSlow += slow[i];
+			}
+		}
+		if(totalCalls >= settings.minCalls
+			&& (totalFailures * 100L >= (long)settings.failurePercent * totalCalls || totalSlow * 100L >= (long)settings.slowPercent * totalCalls)) {
+			open(now);
+		}
+	}
+
+	/**
+	 * Gives back the slot of a half-open probe that was never sent
+	 */
+	synchronized void cancelProbe() {
+		if(state==State.HALF_OPEN && probesSent > 0) {
+			probesSent--;
+		}
+	}
+
+	/**
+	 * Returns the current state
+	 * @return the state
+	 */
+	State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of times the breaker opened
+	 * @return the number of trips
+	 */
+	long getTrips() {
+		return trips;
+	}
+
+	/**
+	 * Opens the breaker
+	 * @param now The current time in nanos
+	 */
+	private void open(final long now) {
+		state = State.OPEN;
+		openUntil = now + settings.openNanos;
+		trips++;
+	}
+
+	/**
+	 * Returns the bucket of the passed time, clearing it if it held an expired interval
+	 * @param now The current time in nanos
+	 * @return the bucket index
+	 */
+	private int bucket(final long now) {
+		final long bucketNanos = settings.windowNanos / BUCKETS;
+		final long interval = now / bucketNanos;
+		final int b = (int)Math.floorMod(interval, (long)BUCKETS);
+		final long start = interval * bucketNanos;
+		if(bucketStarts[b]!=start) {
+			bucketStarts[b] = start;
+			calls[b] = 0;
+			failures[b] = 0;
+			slow[b] = 0;
+		}
+		return b;
+	}
+
+	/**
+	 * <p>Title: Settings</p>
+	 * <p>Description: The circuit breaker settings shared by all the region servers of a client</p>
+	 * <p><code>org.hbase.async.FiberCircuitBreaker.Settings</code></p>
+	 */
+	static final class Settings {
+		/** Indicates if circuit breakers are enabled */
+		final boolean enabled;
+		/** The sliding window in nanos */
+		final long windowNanos;
+		/** The rpcs that must complete in the window before the breaker can open */
+		final int minCalls;
+		/** The failure rate in percent that opens the breaker */
+		final int failurePercent;
+		/** The latency in nanos above which an rpc is slow */
+		final long slowNanos;
+		/** The slow rate in percent that opens the breaker */
+		final int slowPercent;
+		/** The open period in nanos */
+		final long openNanos;
+		/** The probes let through while half-open */
+		final int probes;
+
+		/**
+		 * Creates new Settings
+		 * @param config The config to read the breaker options from
+		 */
+		Settings(final Config config) {
+			enabled = config.hasProperty(CONFIG_BREAKER_ENABLED) ? config.getBoolean(CONFIG_BREAKER_ENABLED) : false;
+			windowNanos = TimeUnit.MILLISECONDS.toNanos(HBaseFiberClient.configInt(config, CONFIG_BREAKER_WINDOW, 10000));
+			minCalls = HBaseFiberClient.configInt(config, CONFIG_BREAKER_MIN_CALLS, 20);
+			failurePercent = HBaseFiberClient.configInt(config, CONFIG_BREAKER_FAILURE_PERCENT, 50);
+			slowNanos = TimeUnit.MILLISECONDS.toNanos(HBaseFiberClient.configInt(config, CONFIG_BREAKER_SLOW, 1000));
+			slowPercent = HBaseFiberClient.configInt(config, CONFIG_BREAKER_SLOW_PERCENT, 50);
+			openNanos = TimeUnit.MILLISECONDS.toNanos(HBaseFiberClient.configInt(config, CONFIG_BREAKER_OPEN, 5000));
+			probes = HBaseFiberClient.configInt(config, CONFIG_BREAKER_PROBES, 3);
+			if(windowNanos < TimeUnit.MILLISECONDS.toNanos(BUCKETS)) throw new IllegalArgumentException("Invalid breaker window: " + windowNanos);
+			if(probes < 1) throw new IllegalArgumentException("Invalid breaker probes: " + probes);
+			if(failurePercent < 1 || failurePercent > 100 || slowPercent < 1 || slowPercent > 100) {
+				throw new IllegalArgumentException("Invalid breaker thresholds: " + failurePercent + "% failed, " + slowPercent + "% slow");
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: FiberClientMetrics</p>
+ * <p>Description: The per operation type and table metrics of one {@link HBaseFiberClient}.
+ * Each {@link FiberOperationMetrics} is registered with the platform MBeanServer as
+ * <code>org.hbase.async:service=HBaseFiberClient,client=&lt;client&gt;,op=&lt;operation&gt;,table=&lt;table&gt;</code>
+ * when first used, and unregistered when the client is closed.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberClientMetrics</code></p>
+ */
+public final class FiberClientMetrics {
+	/** Config key for enabling operation metrics. Defaults to true */
+	public static final String CONFIG_METRICS_ENABLED = "hbase.fiber.metrics.enabled";
+	/** The JMX domain operation metrics are registered in */
+	public static final String JMX_DOMAIN = "org.hbase.async";
+
+	/** The operation type for gets */
+	static final String OP_GET = "get";
+	/** The operation type for puts */
+	static final String OP_PUT = "put";
+	/** The operation type for deletes */
+	static final String OP_DELETE = "delete";
+	/** The operation type for atomic increments */
+	static final String OP_INCREMENT = "increment";
+	/** The operation type for compare-and-sets */
+	static final String OP_COMPARE_AND_SET = "cas";
+	/** The operation type for multi-gets */
+	static final String OP_MULTI_GET = "multiget";
+	/** The operation type for scanner batches */
+	static final String OP_SCAN = "scan";
+
+	/** The client name used in the JMX object names */
+	private final String clientName;
+	/** Indicates if metrics are recorded */
+	private final boolean enabled;
+	/** The metrics keyed by operation type and table */
+	private final ConcurrentHashMap<String, FiberOperationMetrics> metrics = new ConcurrentHashMap<String, FiberOperationMetrics>();
+	/** The object names registered by this instance */
+	private final Collection<ObjectName> registered = Collections.synchronizedList(new ArrayList<ObjectName>());
+
+	/**
+	 * Creates a new FiberClientMetrics
+	 * @param clientName The client name used in the JMX object names
+	 * @param config The config to read the metrics options from
+	 */
+	FiberClientMetrics(final String clientName, final Config config) {
+		this.clientName = clientName;
+		enabled = config.hasProperty(CONFIG_METRICS_ENABLED) ? config.getBoolean(CONFIG_METRICS_ENABLED) : true;
+	}
+
+	/**
+	 * Returns the metrics for the passed operation type and table, creating and registering them if necessary
+	 * @param operation The operation type
+	 * @param table The table name bytes
+	 * @return the metrics, or null if metrics are disabled
+	 */
+	public FiberOperationMetrics get(final String operation, final byte[] table) {
+		if(!enabled) return null;
+		final String tableName = table==null ? "" : new String(table);
+		final String id = operation + '/' + tableName;
+		FiberOperationMetrics m = metrics.get(id);
+		if(m==null) {
+			final FiberOperationMetrics created = new FiberOperationMetrics(operation, tableName);
+			m = metrics.putIfAbsent(id, created);
+			if(m==null) {
+				m = created;
+				register(m);
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Indicates if metrics are recorded
+	 * @return true if metrics are recorded, false otherwise
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns all the operation metrics created so far
+	 * @return the operation metrics
+	 */
+	public Collection<FiberOperationMetrics> getAll() {
+		return Collections.unmodifiableCollection(metrics.values());
+	}
+
+	/**
+	 * Registers the passed metrics with the platform MBeanServer.
+	 * Registration failures are ignored: the metrics are still recorded.
+	 * @param m The metrics to register
+	 */
+	private void register(final FiberOperationMetrics m) {
+		try {
+			final ObjectName on = new ObjectName(JMX_DOMAIN + ":service=HBaseFiberClient,client=" + ObjectName.quote(clientName)
+				+ ",op=" + m.getOperation() + ",table=" + ObjectName.quote(m.getTable()));
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(on)) {
+				server.registerMBean(m, on);
+				registered.add(on);
+			}
+		} catch (JMException ex) {
+			/* No Op */
+		}
+	}
+
+	/**
+	 * Unregisters all the operation metrics registered by this instance
+	 */
+	void close() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		synchronized(registered) {
+			for(final ObjectName on: registered) {
+				try {
+					server.unregisterMBean(on);
+				} catch (JMException ex) {
+					/* No Op */
+				}
+			}
+			registered.clear();
+		}
+	}
+}
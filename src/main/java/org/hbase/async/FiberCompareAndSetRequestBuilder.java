@@ -0,0 +1,316 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.concurrent.ReentrantLock;
+
+/**
+ * <p>Title: FiberCompareAndSetRequestBuilder</p>
+ * <p>Description: RPC builder for an atomic compare-and-set of one cell: the new value is put only if the cell
+ * currently holds the expected value, or does not exist when the expected value is empty. Executing returns
+ * true if the value was put. {@link #update(Update)} runs an optimistic read-modify-write loop on top of it,
+ * retrying lost races with backoff. While looping it holds a striped row lock of the client, so writers of
+ * a hot row within this JVM take turns instead of failing each other's compare-and-sets.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberCompareAndSetRequestBuilder</code></p>
+ */
+
+public class FiberCompareAndSetRequestBuilder extends FiberHBaseRPCBuilder<FiberCompareAndSetRequestBuilder, Boolean, PutRequest, FiberCompareAndSetRequestBuilder.FiberCompareAndSetRequest> {
+
+	/** Config key for the number of striped row locks serializing read-modify-writes, rounded up to a power of two. 0 disables them. Defaults to 256 */
+	public static final String CONFIG_CAS_LOCK_STRIPES = "hbase.fiber.cas.lock.stripes";
+	/** The default maximum number of compare-and-set attempts of a read-modify-write */
+	public static final int DEFAULT_MAX_ATTEMPTS = 10;
+	/** The expected value meaning the cell must not exist */
+	static final byte[] ABSENT = new byte[0];
+
+	/** The value the cell is expected to hold, empty if it must not exist */
+	byte[] expected = null;
+	/** The value to put */
+	byte[] value = null;
+	/** The maximum number of compare-and-set attempts of a read-modify-write */
+	int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	/** Indicates if read-modify-writes hold the local row lock */
+	boolean localLock = true;
+
+
+	/**
+	 * <p>Title: Update</p>
+	 * <p>Description: Computes the new value of a cell from its current value in a read-modify-write.
+	 * May be called several times, once per attempt, so it must not have side effects.</p>
+	 */
+	public interface Update {
+		/**
+		 * Computes the new value of the cell
+		 * @param current The current value, or null if the cell does not exist
+		 * @return the new value, or null to leave the cell unchanged
+		 */
+		byte[] apply(byte[] current);
+	}
+
+	/**
+	 * Creates a new FiberCompareAndSetRequestBuilder
+	 * @param fiberClient The fiber client to build rpcs for
+	 */
+	public FiberCompareAndSetRequestBuilder(final HBaseFiberClient fiberClient) {
+		super(fiberClient);
+	}
+
+	@Override
+	public PutRequest buildRpc() {
+		if(value==null) throw new IllegalStateException("The value specifier is null");
+		return buildRpc(value);
+	}
+
+	@Override
+	public FiberCompareAndSetRequest buildAsyncRpc() {
+		if(expected==null) throw new IllegalStateException("The expected value specifier is null");
+		return new FiberCompareAndSetRequest(fiberClient, buildRpc(), expected);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A compare-and-set that timed out may have been applied, and would then fail when retried,
+	 * so it is not retried after a timeout or a connection reset.
+	 * @see org.hbase.async.FiberHBaseRPCBuilder#idempotent()
+	 */
+	@Override
+	protected boolean idempotent() {
+		return false;
+	}
+
+	/**
+	 * Reads the cell, computes its new value and compare-and-sets it, reading and trying again after a backoff
+	 * while another writer changed the cell in between. Unless disabled with {@link #localLock(boolean)},
+	 * the row lock of this JVM is held throughout, so only writers in other processes can cause retries.
+	 * The expected value and value of this builder are ignored.
+	 * @param update Computes the new value from the current one
+	 * @return the value written, or the current value if the update left the cell unchanged
+	 * @throws CompareAndSetConflictException thrown if every attempt lost its race
+	 * @throws HBaseException thrown if the read or a compare-and-set fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	public byte[] update(final Update update) throws HBaseException, SuspendExecution {
+		if(update==null) throw new IllegalArgumentException("The passed update was null");
+		buildRpc(ABSENT);	// validates the cell
+		final ReentrantLock lock = localLock ? fiberClient.getRowLocks().lock(table, key) : null;
+		try {
+			for(int attempts = 1; ; attempts++) {
+				final byte[] current = read();
+				final byte[] next = update.apply(current);
+				if(next==null) return current;
+				final byte[] expectedNow = current==null ? ABSENT : current;
+				if(retrying(new FiberRetrier.Attempt<Boolean>() {
+					@Override
+					public Boolean run() throws SuspendExecution {
+						asyncRpc = new FiberCompareAndSetRequest(fiberClient, buildRpc(next), expectedNow);
+						return asyncRpc.get();
+					}
+				})) {
+					return next;
+				}
+				if(attempts >= maxAttempts) {
+					throw new CompareAndSetConflictException("Compare-and-set of " + Bytes.pretty(key) + " lost " + attempts + " races");
+				}
+				final long backoff = fiberClient.getRetrier().backoff(attempts);
+				final FiberDeadline deadline = FiberDeadline.current();
+				if(deadline!=null && deadline.remaining(TimeUnit.MILLISECONDS) <= backoff) {
+					throw deadline.exceeded("compare-and-set of " + Bytes.pretty(key));
+				}
+				FiberRetrier.sleep(backoff);
+			}
+		} finally {
+			if(lock!=null) lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the current value of the cell with a get of its own: a coalesced, hedged or cached read could
+	 * return a value older than the last committed one and waste a compare-and-set attempt
+	 * @return the current value, or null if the cell does not exist
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	private byte[] read() throws SuspendExecution {
+		final FiberGetRequestBuilder get = fiberClient.newGetRequest().table(table).key(key).family(family).qualifier(qualifier)
+			.failFast(failfast).timeout(rpcTimeout).fresh();
+		final ArrayList<KeyValue> kvs = get.execute();
+		return kvs==null || kvs.isEmpty() ? null : kvs.get(0).value();
+	}
+
+	/**
+	 * Builds the put of the passed value
+	 * @param v The value to put
+	 * @return the put
+	 */
+	private PutRequest buildRpc(final byte[] v) {
+		if(table==null) throw new IllegalStateException("The table specifier is null");
+		if(key==null) throw new IllegalStateException("The key specifier is null");
+		if(family==null) throw new IllegalStateException("The family specifier is null");
+		if(qualifier==null) throw new IllegalStateException("The qualifier specifier is null");
+		final PutRequest p = new PutRequest(table, key, family, qualifier, v);
+		super.apply(p);
+		p.setBufferable(false);
+		return p;
+	}
+
+	@Override
+	public FiberCompareAndSetRequestBuilder reset() {
+		expected = null;
+		value = null;
+		maxAttempts = DEFAULT_MAX_ATTEMPTS;
+		localLock = true;
+		return super.reset();
+	}
+
+	/**
+	 * Sets the value the cell is expected to hold
+	 * @param expected the expected value, empty if the cell must not exist
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder expected(final byte[] expected) {
+		if(expected==null) throw new IllegalArgumentException("The passed expected value was null");
+		this.expected = expected;
+		return this;
+	}
+
+	/**
+	 * Sets the value the cell is expected to hold
+	 * @param expected the expected value, empty if the cell must not exist
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder expected(final String expected) {
+		return expected(expected.getBytes());
+	}
+
+	/**
+	 * Expects the cell not to exist
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder expectAbsent() {
+		this.expected = ABSENT;
+		return this;
+	}
+
+	/**
+	 * Sets the value to put
+	 * @param value the value bytes to set
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder value(final byte[] value) {
+		KeyValue.checkValue(value);
+		this.value = value;
+		return this;
+	}
+
+	/**
+	 * Sets the value to put
+	 * @param value the value to set
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder value(final String value) {
+		return value(value.getBytes());
+	}
+
+	/**
+	 * Sets the maximum number of compare-and-set attempts of a read-modify-write
+	 * @param maxAttempts the maximum number of attempts, at least 1
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder maxAttempts(final int maxAttempts) {
+		if(maxAttempts < 1) throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Sets whether read-modify-writes hold the local row lock
+	 * @param localLock true to serialize the read-modify-writes of a row within this JVM, false otherwise
+	 * @return this builder
+	 */
+	public FiberCompareAndSetRequestBuilder localLock(final boolean localLock) {
+		this.localLock = localLock;
+		return this;
+	}
+
+	/**
+	 * Returns the value the cell is expected to hold
+	 * @return the expected value, empty if the cell must not exist
+	 */
+	public byte[] getExpected() {
+		return expected;
+	}
+
+	/**
+	 * Returns the value to put
+	 * @return the value
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+
+	/**
+	 * <p>Title: FiberCompareAndSetRequest</p>
+	 * <p>Description: A quasar fiber driven wrapper for a compare-and-set, sent as a {@link CompareAndSetRequest}
+	 * built by asynchbase from the put and the expected value</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.hbase.async.FiberCompareAndSetRequestBuilder.FiberCompareAndSetRequest</code></p>
+	 */
+	public static class FiberCompareAndSetRequest extends FiberHBaseRPC<Boolean, PutRequest> {
+		/**  */
+		private static final long serialVersionUID = 8563187207652395714L;
+		/** The value the cell is expected to hold, empty if it must not exist */
+		private final byte[] expected;
+
+		/**
+		 * Creates a new FiberCompareAndSetRequest
+		 * @param fiberClient The fiber client to execute with
+		 * @param hbPut The put to apply if the cell holds the expected value
+		 * @param expected The expected value, empty if the cell must not exist
+		 */
+		FiberCompareAndSetRequest(final HBaseFiberClient fiberClient, final PutRequest hbPut, final byte[] expected) {
+			super(fiberClient, hbPut);
+			this.expected = expected;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#operation()
+		 */
+		@Override
+		protected String operation() {
+			return FiberClientMetrics.OP_COMPARE_AND_SET;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#invoke(org.hbase.async.HBaseRpc)
+		 */
+		@Override
+		protected Deferred<Boolean> invoke(final PutRequest hbaseRpc) {
+			return fiberClient.invalidating(hbaseRpc.table(), hbaseRpc.key(), hbClient.compareAndSet(hbaseRpc, expected));
+		}
+	}
+
+}
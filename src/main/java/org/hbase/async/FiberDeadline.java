@@ -0,0 +1,157 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: FiberDeadline</p>
+ * <p>Description: An overall time budget for everything a strand does through the fiber client.
+ * A deadline is entered for the current strand and is inherited by the fibers it starts, such as those of
+ * streaming and parallel scans. While a deadline is in effect, every rpc's timeout is capped at the remaining budget,
+ * waits are abandoned when it expires, and operations issued after it has expired fail with a
+ * {@link DeadlineExceededException} without being sent. Entering a deadline never extends an enclosing one.</p>
+ * <pre>
+ * try(FiberDeadline.Scope scope = FiberDeadline.after(200, TimeUnit.MILLISECONDS).enter()) {
+ *     client.newMGetRequest(table, keys).get();
+ * }
+ * </pre>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberDeadline</code></p>
+ */
+public final class FiberDeadline {
+	/** The deadline of the current strand. Quasar keeps thread locals per fiber, and copies inheritable ones to new fibers */
+	private static final InheritableThreadLocal<FiberDeadline> current = new InheritableThreadLocal<FiberDeadline>();
+
+	/** The deadline as a {@link System#nanoTime()} timestamp */
+	private final long deadlineNanos;
+
+	/**
+	 * Creates a new FiberDeadline
+	 * @param deadlineNanos The deadline as a {@link System#nanoTime()} timestamp
+	 */
+	private FiberDeadline(final long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * Creates a deadline expiring after the passed budget
+	 * @param budget The time budget
+	 * @param unit The unit of the budget
+	 * @return the deadline
+	 */
+	public static FiberDeadline after(final long budget, final TimeUnit unit) {
+		if(budget < 0) throw new IllegalArgumentException("Invalid deadline budget: " + budget);
+		return new FiberDeadline(System.nanoTime() + unit.toNanos(budget));
+	}
+
+	/**
+	 * Returns the deadline in effect for the current strand
+	 * @return the deadline, or null if none is in effect
+	 */
+	public static FiberDeadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Makes this deadline, or the enclosing one if it expires first, the deadline of the current strand
+	 * until the returned scope is closed
+	 * @return the scope to close to restore the enclosing deadline
+	 */
+	public Scope enter() {
+		final FiberDeadline enclosing = current.get();
+		current.set(enclosing!=null && enclosing.deadlineNanos - deadlineNanos < 0 ? enclosing : this);
+		return new Scope(enclosing);
+	}
+
+	/**
+	 * Returns the remaining budget
+	 * @param unit The unit to return the budget in
+	 * @return the remaining budget, which is zero or negative once the deadline has expired
+	 */
+	public long remaining(final TimeUnit unit) {
+		return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Indicates if this deadline has expired
+	 * @return true if this deadline has expired
+	 */
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Returns an exception reporting that this deadline expired before or during the passed operation
+	 * @param what The abandoned operation
+	 * @return the exception
+	 */
+	DeadlineExceededException exceeded(final String what) {
+		return new DeadlineExceededException("Deadline exceeded by " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - deadlineNanos)
+			+ " us, abandoned " + what);
+	}
+
+	/**
+	 * Caps the timeout of the passed rpc at the remaining budget
+	 * @param rpc The rpc about to be sent
+	 * @return false if the deadline has expired and the rpc should not be sent, true otherwise
+	 */
+	boolean apply(final HBaseRpc rpc) {
+		final long remainingNanos = deadlineNanos - System.nanoTime();
+		if(remainingNanos <= 0) return false;
+		final long remainingMs = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+		final int timeout = rpc.getTimeout();
+		if(timeout <= 0 || timeout > remainingMs) {
+			rpc.setTimeout((int)Math.min(Integer.MAX_VALUE, remainingMs));
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "FiberDeadline [remaining=" + remaining(TimeUnit.MILLISECONDS) + " ms]";
+	}
+
+	/**
+	 * <p>Title: Scope</p>
+	 * <p>Description: Restores the enclosing deadline of the strand that entered a deadline when closed</p>
+	 * <p><code>org.hbase.async.FiberDeadline.Scope</code></p>
+	 */
+	public static final class Scope implements AutoCloseable {
+		/** The enclosing deadline */
+		private final FiberDeadline enclosing;
+
+		/**
+		 * Creates a new Scope
+		 * @param enclosing The enclosing deadline, or null if there was none
+		 */
+		Scope(final FiberDeadline enclosing) {
+			this.enclosing = enclosing;
+		}
+
+		@Override
+		public void close() {
+			if(enclosing==null) {
+				current.remove();
+			} else {
+				current.set(enclosing);
+			}
+		}
+	}
+}
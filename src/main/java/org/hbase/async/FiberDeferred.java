@@ -0,0 +1,187 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.FiberAsync;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.fibers.Suspendable;
+
+/**
+ * <p>Title: FiberDeferred</p>
+ * <p>Description: Waits on arbitrary asynchbase deferreds from fibers or threads.
+ * Unlike {@link FiberHBaseRPC}, which can only be run once, a new single use FiberAsync is created per wait.
+ * The callbacks added to the deferred pass the result through, so several strands can wait on the same deferred.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberDeferred</code></p>
+ */
+public final class FiberDeferred {
+
+	/**
+	 * Waits for the passed deferred to complete and returns its result.
+	 * Fibers suspend until the deferred is called back, threads block on it.
+	 * If the calling strand has a {@link FiberDeadline}, the wait is abandoned when it expires.
+	 * @param deferred The deferred to wait on
+	 * @return the deferred result
+	 * @throws HBaseException thrown if the deferred was called back with an HBaseException,
+	 * or a {@link DeadlineExceededException} if the deadline expired first
+	 */
+	@Suspendable
+	public static <T> T await(final Deferred<T> deferred) throws HBaseException {
+		final FiberDeadline deadline = FiberDeadline.current();
+		try {
+			if(deadline==null) {
+				if(Fiber.isCurrentFiber()) {
+					return new DeferredAsync<T>(deferred).run();
+				}
+				return block(deferred, -1L);
+			}
+			if(Fiber.isCurrentFiber()) {
+				return new DeferredAsync<T>(deferred).run(Math.max(1L, deadline.remaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS);
+			}
+			return block(deferred, Math.max(1L, deadline.remaining(TimeUnit.NANOSECONDS)));
+		} catch (TimeoutException tex) {
+			throw deadline.exceeded("wait on deferred");
+		} catch (SuspendExecution se) {
+			throw new AssertionError(se);
+		} catch (RuntimeException rex) {
+			throw rex;
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting on deferred", iex);
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Blocks the calling thread until the passed deferred completes.
+	 * Unlike <code>Deferred.join</code>, this waits without holding a monitor, so a virtual thread unmounts from its carrier.
+	 * @param deferred The deferred to wait on
+	 * @param timeoutNanos The maximum time to wait in nanos, or a negative value to wait indefinitely
+	 * @return the deferred result
+	 * @throws TimeoutException thrown if the timeout elapsed first
+	 * @throws Exception the exception the deferred was called back with, or InterruptedException if interrupted
+	 */
+	static <T> T block(final Deferred<T> deferred, final long timeoutNanos) throws Exception {
+		final CompletableFuture<T> future = toFuture(deferred);
+		try {
+			return timeoutNanos < 0 ? future.get() : future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (ExecutionException eex) {
+			final Throwable cause = eex.getCause();
+			if(cause instanceof Exception) throw (Exception)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw eex;
+		}
+	}
+
+	/**
+	 * Returns a future completed straight from the passed deferred's callbacks, without a fiber or a waiting thread.
+	 * Dependent stages that are not async run on the thread that completes the deferred, typically an asynchbase I/O thread.
+	 * The callbacks added to the deferred pass the result through.
+	 * @param deferred The deferred to adapt
+	 * @return the future
+	 */
+	public static <T> CompletableFuture<T> toFuture(final Deferred<T> deferred) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		deferred.addCallbacks(
+			new Callback<T, T>() {
+				@Override
+				public T call(final T result) throws Exception {
+					future.complete(result);
+					return result;
+				}
+			},
+			new Callback<Exception, Exception>() {
+				@Override
+				public Exception call(final Exception ex) throws Exception {
+					future.completeExceptionally(ex);
+					return ex;
+				}
+			}
+		);
+		return future;
+	}
+
+	/**
+	 * Returns a future already completed with the passed failure
+	 * @param error The failure
+	 * @return the failed future
+	 */
+	static <T> CompletableFuture<T> failed(final Throwable error) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	/**
+	 * <p>Title: DeferredAsync</p>
+	 * <p>Description: A single use FiberAsync completed by a deferred</p>
+	 * <p><code>org.hbase.async.FiberDeferred.DeferredAsync</code></p>
+	 * @param <T> The deferred result type
+	 */
+	static final class DeferredAsync<T> extends FiberAsync<T, Exception> {
+		/**  */
+		private static final long serialVersionUID = -6830624011329764468L;
+		/** The deferred to wait on */
+		private final transient Deferred<T> deferred;
+
+		/**
+		 * Creates a new DeferredAsync
+		 * @param deferred The deferred to wait on
+		 */
+		DeferredAsync(final Deferred<T> deferred) {
+			this.deferred = deferred;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see co.paralleluniverse.fibers.FiberAsync#requestAsync()
+		 */
+		@Override
+		protected void requestAsync() {
+			deferred.addCallbacks(
+				new Callback<T, T>() {
+					@Override
+					public T call(final T result) throws Exception {
+						asyncCompleted(result);
+						return result;	// pass through for other waiters
+					}
+				},
+				new Callback<Exception, Exception>() {
+					@Override
+					public Exception call(final Exception ex) throws Exception {
+						asyncFailed(ex);
+						return ex;	// pass through for other waiters
+					}
+				}
+			);
+		}
+	}
+
+	private FiberDeferred() {}
+}
@@ -0,0 +1,162 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberDeleteRequestBuilder</p>
+ * <p>Description: RPC builder for a DeleteRequest. Deletes the whole row, a family, or the qualifiers of a family.
+ * Cached copies of the row are invalidated once the delete is acknowledged.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberDeleteRequestBuilder</code></p>
+ */
+
+public class FiberDeleteRequestBuilder extends FiberHBaseRPCBuilder<FiberDeleteRequestBuilder, Object, DeleteRequest, FiberDeleteRequestBuilder.FiberDeleteRequest> {
+
+	/** The timestamp up to which cells are deleted. Defaults to {@link KeyValue#TIMESTAMP_NOW} */
+	long timestamp = KeyValue.TIMESTAMP_NOW;
+	/** Indicates if the delete should be written to the WAL */
+	boolean durable = true;
+
+
+	/**
+	 * Creates a new FiberDeleteRequestBuilder
+	 * @param fiberClient The fiber client to build rpcs for
+	 */
+	public FiberDeleteRequestBuilder(final HBaseFiberClient fiberClient) {
+		super(fiberClient);
+	}
+
+	@Override
+	public DeleteRequest buildRpc() {
+		if(table==null) throw new IllegalStateException("The table specifier is null");
+		if(key==null) throw new IllegalStateException("The key specifier is null");
+		final byte[][] quals = qualifiers!=null ? qualifiers : (qualifier!=null ? new byte[][]{qualifier} : null);
+		final DeleteRequest d;
+		if(family==null) {
+			if(quals!=null) throw new IllegalStateException("Qualifiers were specified without a family");
+			d = new DeleteRequest(table, key, timestamp);
+		} else if(quals==null) {
+			d = new DeleteRequest(table, key, family, timestamp);
+		} else {
+			d = new DeleteRequest(table, key, family, quals, timestamp);
+		}
+		super.apply(d);
+		apply(d);
+		return d;
+	}
+
+	@Override
+	public FiberDeleteRequest buildAsyncRpc() {
+		return new FiberDeleteRequest(fiberClient, buildRpc());
+	}
+
+	@Override
+	public FiberDeleteRequestBuilder reset() {
+		timestamp = KeyValue.TIMESTAMP_NOW;
+		durable = true;
+		return super.reset();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.hbase.async.FiberHBaseRPCBuilder#apply(org.hbase.async.HBaseRpc)
+	 */
+	@Override
+	DeleteRequest apply(final DeleteRequest d) {
+		d.setDurable(durable);
+		return d;
+	}
+
+	/**
+	 * Sets the timestamp up to which cells are deleted
+	 * @param timestamp the timestamp to set
+	 * @return this builder
+	 */
+	public FiberDeleteRequestBuilder timestamp(final long timestamp) {
+		this.timestamp = timestamp;
+		return this;
+	}
+
+	/**
+	 * Sets whether the delete should be written to the WAL
+	 * @param durable true to write to the WAL, false otherwise
+	 * @return this builder
+	 */
+	public FiberDeleteRequestBuilder durable(final boolean durable) {
+		this.durable = durable;
+		return this;
+	}
+
+	/**
+	 * Returns the timestamp up to which cells are deleted
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Indicates if the delete will be written to the WAL
+	 * @return true if the delete will be written to the WAL, false otherwise
+	 */
+	public boolean isDurable() {
+		return durable;
+	}
+
+	/**
+	 * <p>Title: FiberDeleteRequest</p>
+	 * <p>Description: A quasar fiber driven wrapper for a {@link DeleteRequest}</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.hbase.async.FiberDeleteRequestBuilder.FiberDeleteRequest</code></p>
+	 */
+	public static class FiberDeleteRequest extends FiberHBaseRPC<Object, DeleteRequest> {
+		/**  */
+		private static final long serialVersionUID = 4417934672012938265L;
+
+		/**
+		 * Creates a new FiberDeleteRequest
+		 * @param fiberClient The fiber client to execute with
+		 * @param hbDelete The delete request to execute
+		 */
+		FiberDeleteRequest(final HBaseFiberClient fiberClient, final DeleteRequest hbDelete) {
+			super(fiberClient, hbDelete);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#operation()
+		 */
+		@Override
+		protected String operation() {
+			return FiberClientMetrics.OP_DELETE;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#invoke(org.hbase.async.HBaseRpc)
+		 */
+		@Override
+		protected Deferred<Object> invoke(final DeleteRequest hbaseRpc) {
+			return fiberClient.invalidating(hbaseRpc.table(), hbaseRpc.key(), hbClient.delete(hbaseRpc));
+		}
+	}
+
+}
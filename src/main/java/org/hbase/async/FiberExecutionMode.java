@@ -0,0 +1,98 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.FiberScheduler;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+
+/**
+ * <p>Title: FiberExecutionMode</p>
+ * <p>Description: The kind of strand an {@link HBaseFiberClient} spawns its background tasks on, set with
+ * {@link HBaseFiberClient#CONFIG_EXECUTION_MODE}. Every operation also runs on whatever strand calls it:
+ * fibers suspend, threads block without holding monitors, so virtual threads unmount while they wait.
+ * In {@link #VIRTUAL_THREAD} mode no fiber scheduler is created and the Quasar agent is not needed,
+ * as long as the caller does not spawn fibers of its own.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberExecutionMode</code></p>
+ */
+public enum FiberExecutionMode {
+	/** Spawns Quasar fibers on the client's fiber scheduler. Requires the Quasar agent. */
+	FIBER,
+	/** Spawns JDK virtual threads. Requires Java 21 or later. */
+	VIRTUAL_THREAD;
+
+	/** The virtual thread factory, or null if this JVM does not support virtual threads */
+	private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+	/**
+	 * Decodes the passed execution mode name, case insensitive, with dashes or underscores
+	 * @param name The mode name, such as <code>fiber</code> or <code>virtual-thread</code>
+	 * @return the execution mode
+	 */
+	public static FiberExecutionMode decode(final String name) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed execution mode was null or empty");
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+
+	/**
+	 * Indicates if this mode can run in the current JVM
+	 * @return true if supported, false otherwise
+	 */
+	public boolean isSupported() {
+		return this==FIBER || VIRTUAL_THREADS!=null;
+	}
+
+	/**
+	 * Starts a new strand of this mode running the passed task
+	 * @param name The strand name
+	 * @param scheduler The scheduler to spawn fibers on, ignored for virtual threads
+	 * @param task The task to run
+	 * @return the started strand
+	 */
+	Strand start(final String name, final FiberScheduler scheduler, final SuspendableRunnable task) {
+		if(this==FIBER) {
+			return Strand.of(new Fiber<Void>(name, scheduler, task).start());
+		}
+		if(VIRTUAL_THREADS==null) throw new IllegalStateException("Virtual threads require Java 21 or later, this JVM is " + System.getProperty("java.version"));
+		final Thread thread = VIRTUAL_THREADS.newThread(Strand.toRunnable(task));
+		thread.setName(name);
+		thread.start();
+		return Strand.of(thread);
+	}
+
+	/**
+	 * Looks up the virtual thread factory reflectively, so this library still runs on Java 8
+	 * @return the factory, or null if this JVM does not support virtual threads
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			final Object builder = ofVirtual.invoke(null);
+			final Method factory = ofVirtual.getReturnType().getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
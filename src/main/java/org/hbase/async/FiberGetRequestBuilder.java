@@ -19,9 +19,14 @@ under the License.
 package org.hbase.async;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import com.stumbleupon.async.Deferred;
 
+import co.paralleluniverse.fibers.SuspendExecution;
+
 /**
  * <p>Title: FiberGetRequestBuilder</p>
  * <p>Description: RPC builder for a GetRequest</p> 
@@ -35,16 +40,33 @@ public class FiberGetRequestBuilder extends FiberHBaseRPCBuilder<FiberGetRequest
 	
 	/** The optional row lock for the get request to be built */
 	RowLock rowLock = null;
+	/** Indicates if the get should be served from, and populate, the client's row cache */
+	boolean cached = false;
+	/** The hedge delay in micros, {@link FiberHedger#ADAPTIVE} or {@link FiberHedger#NONE} */
+	long hedgeDelayMicros = FiberHedger.NONE;
+	/** Indicates if the get must be answered by its own rpc: never coalesced, hedged or served from the row cache */
+	boolean fresh = false;
 	
 	
 	
 	
 	/**
 	 * Creates a new FiberGetRequestBuilder
+	 * @param fiberClient The fiber client to build rpcs for
+	 */
+	public FiberGetRequestBuilder(final HBaseFiberClient fiberClient) {
+		super(fiberClient);
+	}
+	
+	/**
+	 * Creates a new FiberGetRequestBuilder executing through the passed asynchbase client, on Quasar's default scheduler.
+	 * The builder does not share the row cache, get coalescing, admission control or metrics of any {@link HBaseFiberClient}.
 	 * @param hbClient The asynchbase client that will execute the built rpc
+	 * @deprecated Use {@link HBaseFiberClient#newGetRequest()}, or {@link #FiberGetRequestBuilder(HBaseFiberClient)}
 	 */
+	@Deprecated
 	public FiberGetRequestBuilder(final HBaseClient hbClient) {
-		super(hbClient);
+		this(HBaseFiberClient.wrap(hbClient));
 	}
 	
 	
@@ -62,14 +84,73 @@ public class FiberGetRequestBuilder extends FiberHBaseRPCBuilder<FiberGetRequest
 	@Override
 	public FiberGetRequest buildAsyncRpc() {
 		final GetRequest g = buildRpc();
-		final FiberGetRequest f = new FiberGetRequest(hbClient, g);
+		final FiberGetRequest f = new FiberGetRequest(fiberClient, g);
+		f.coalesce = rowLock==null && !fresh;
+		f.hedgeDelayMicros = rowLock==null && !fresh ? hedgeDelayMicros : FiberHedger.NONE;
 		return f;
 	}
 
 	
+	/**
+	 * Executes the get. If {@link #cached(boolean) caching} is enabled and no row lock is set,
+	 * the result is served from the client's row cache when present, and cached otherwise.
+	 * @return the row's key-values
+	 * @throws HBaseException thrown if the get fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	@Override
+	public ArrayList<KeyValue> execute() throws HBaseException, SuspendExecution {
+		return retrying(new FiberRetrier.Attempt<ArrayList<KeyValue>>() {
+			@Override
+			public ArrayList<KeyValue> run() throws SuspendExecution {
+				asyncRpc = buildAsyncRpc();
+				return asyncRpc.get(cached && rowLock==null && !fresh);
+			}
+		});
+	}
+	
+	/**
+	 * Executes the get and returns a future completed straight from the asynchbase callback.
+	 * If {@link #cached(boolean) caching} is enabled and no row lock is set,
+	 * the future is completed from the client's row cache when present, and the result cached otherwise.
+	 * @return the future row's key-values
+	 * @see FiberHBaseRPC#getAsync()
+	 */
+	@Override
+	public CompletableFuture<ArrayList<KeyValue>> executeAsync() {
+		asyncRpc = buildAsyncRpc();
+		return asyncRpc.getAsync(cached && rowLock==null && !fresh);
+	}
+	
+	/**
+	 * Executes the get and returns a view over the row
+	 * @return the row view, which is empty if the row was not found
+	 * @throws HBaseException thrown if the get fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	public FiberRow executeRow() throws HBaseException, SuspendExecution {
+		return FiberRow.wrap(execute());
+	}
+	
+	/**
+	 * Prepares an immutable get template from this builder's table, family, qualifiers, timeout, failfast, caching and hedging settings.
+	 * The template can be executed any number of times, concurrently, with only the key varying.
+	 * @return the get template
+	 */
+	public FiberGetTemplate prepare() {
+		if(table==null) throw new IllegalStateException("The table specifier is null");
+		if(rowLock!=null) throw new IllegalStateException("Row locked gets cannot be prepared");
+		if(fresh) throw new IllegalStateException("Fresh gets cannot be prepared");
+		final byte[][] quals = qualifiers!=null ? qualifiers.clone() : (qualifier!=null ? new byte[][]{qualifier} : null);
+		return new FiberGetTemplate(fiberClient, table, family, quals, cached, rpcTimeout, failfast, hedgeDelayMicros);
+	}
+	
 	@Override
 	public FiberGetRequestBuilder reset() {
 		rowLock = null;
+		cached = false;
+		hedgeDelayMicros = FiberHedger.NONE;
+		fresh = false;
 		return super.reset();
 	}
 	
@@ -94,6 +175,77 @@ public class FiberGetRequestBuilder extends FiberHBaseRPCBuilder<FiberGetRequest
 		return g;
 	}
 	
+	/**
+	 * Makes the get send its own rpc, ignoring any caching or hedging settings, for reads that must see the
+	 * latest committed value, such as the read of a compare-and-set loop
+	 * @return this builder
+	 */
+	FiberGetRequestBuilder fresh() {
+		fresh = true;
+		return this;
+	}
+	
+	/**
+	 * Enables or disables the client's row cache for this get
+	 * @param cached true to serve from, and populate, the row cache
+	 * @return this builder
+	 */
+	public FiberGetRequestBuilder cached(final boolean cached) {
+		this.cached = cached;
+		return this;
+	}
+	
+	/**
+	 * Indicates if this get uses the client's row cache
+	 * @return true if the row cache is used, false otherwise
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * Hedges this get after the client's adaptive delay, a percentile of the recently observed get latencies
+	 * of the table: if it has not completed by then, a copy is sent and the first successful response wins.
+	 * Hedged gets are never coalesced, and row locked gets are never hedged.
+	 * @return this builder
+	 * @see FiberHedger
+	 */
+	public FiberGetRequestBuilder hedge() {
+		hedgeDelayMicros = FiberHedger.ADAPTIVE;
+		return this;
+	}
+	
+	/**
+	 * Hedges this get after a fixed delay: if it has not completed by then, a copy is sent and the first successful response wins.
+	 * Hedged gets are never coalesced, and row locked gets are never hedged.
+	 * @param delay The hedge delay
+	 * @param unit The unit of the delay
+	 * @return this builder
+	 * @see FiberHedger
+	 */
+	public FiberGetRequestBuilder hedge(final long delay, final TimeUnit unit) {
+		if(delay < 0) throw new IllegalArgumentException("Invalid hedge delay: " + delay);
+		hedgeDelayMicros = unit.toMicros(delay);
+		return this;
+	}
+	
+	/**
+	 * Disables hedging of this get
+	 * @return this builder
+	 */
+	public FiberGetRequestBuilder noHedge() {
+		hedgeDelayMicros = FiberHedger.NONE;
+		return this;
+	}
+	
+	/**
+	 * Indicates if this get is hedged
+	 * @return true if this get is hedged, false otherwise
+	 */
+	public boolean isHedged() {
+		return hedgeDelayMicros!=FiberHedger.NONE;
+	}
+	
 	/**
 	 * Returns the row lock
 	 * @return the row lock or null if one was not set
@@ -141,14 +293,27 @@ public class FiberGetRequestBuilder extends FiberHBaseRPCBuilder<FiberGetRequest
 	public static class FiberGetRequest extends FiberHBaseRPC<ArrayList<KeyValue>, GetRequest> {
 		/**  */
 		private static final long serialVersionUID = 4856609815364019935L;
+		/** Indicates if the get may share an identical in-flight get. Row locked and fresh gets are always sent */
+		boolean coalesce = true;
+		/** The hedge delay in micros, {@link FiberHedger#ADAPTIVE} or {@link FiberHedger#NONE} */
+		long hedgeDelayMicros = FiberHedger.NONE;
 		
 		/**
 		 * Creates a new FiberGetRequest
-		 * @param hbClient The asynchbase client to execute with
+		 * @param fiberClient The fiber client to execute with
 		 * @param hbGet The get request to execute
 		 */
-		FiberGetRequest(final HBaseClient hbClient, final GetRequest hbGet) {
-			super(hbClient, hbGet);
+		FiberGetRequest(final HBaseFiberClient fiberClient, final GetRequest hbGet) {
+			super(fiberClient, hbGet);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#operation()
+		 */
+		@Override
+		protected String operation() {
+			return FiberClientMetrics.OP_GET;
 		}
 		
 		/**
@@ -157,7 +322,68 @@ public class FiberGetRequestBuilder extends FiberHBaseRPCBuilder<FiberGetRequest
 		 */
 		@Override
 		protected Deferred<ArrayList<KeyValue>> invoke(final GetRequest hbaseRpc) {
-			return hbClient.get(hbaseRpc);
+			if(hedgeDelayMicros!=FiberHedger.NONE) {
+				return fiberClient.getHedger().get(hbaseRpc, hedgeDelayMicros);
+			}
+			if(!coalesce) {
+				return hbClient.get(hbaseRpc);
+			}
+			return fiberClient.getSingleFlight().get(hbaseRpc);
+		}
+		
+		/**
+		 * Executes the get without waiting. If requested, the future is completed from the client's row cache when present,
+		 * and the result cached otherwise.
+		 * @param cached true to use the row cache
+		 * @return the future row's key-values
+		 */
+		CompletableFuture<ArrayList<KeyValue>> getAsync(final boolean cached) {
+			if(!cached) {
+				return getAsync();
+			}
+			final FiberRowCache cache = fiberClient.getRowCache();
+			final byte[] table = hbaseRpc.table();
+			final byte[] key = hbaseRpc.key();
+			final byte[] family = hbaseRpc.family();
+			final byte[][] quals = hbaseRpc.qualifiers();
+			final ArrayList<KeyValue> kvs = cache.get(table, key, family, quals);
+			if(kvs!=null) {
+				return CompletableFuture.completedFuture(kvs);
+			}
+			final long generation = cache.generation(table, key);
+			return getAsync().thenApply(new Function<ArrayList<KeyValue>, ArrayList<KeyValue>>() {
+				@Override
+				public ArrayList<KeyValue> apply(final ArrayList<KeyValue> result) {
+					cache.put(table, key, family, quals, result, generation);
+					return result;
+				}
+			});
+		}
+		
+		/**
+		 * Executes the get. If requested, the result is served from the client's row cache when present, and cached otherwise.
+		 * @param cached true to use the row cache
+		 * @return the row's key-values
+		 * @throws HBaseException thrown if the get fails
+		 * @throws SuspendExecution Will not be thrown
+		 */
+		ArrayList<KeyValue> get(final boolean cached) throws HBaseException, SuspendExecution {
+			if(!cached) {
+				return get();
+			}
+			final FiberRowCache cache = fiberClient.getRowCache();
+			final byte[] table = hbaseRpc.table();
+			final byte[] key = hbaseRpc.key();
+			final byte[] family = hbaseRpc.family();
+			final byte[][] quals = hbaseRpc.qualifiers();
+			ArrayList<KeyValue> kvs = cache.get(table, key, family, quals);
+			if(kvs!=null) {
+				return kvs;
+			}
+			final long generation = cache.generation(table, key);
+			kvs = get();
+			cache.put(table, key, family, quals, kvs, generation);
+			return kvs;
 		}
 		
 
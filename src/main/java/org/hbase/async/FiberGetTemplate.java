@@ -0,0 +1,192 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.hbase.async.FiberGetRequestBuilder.FiberGetRequest;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * <p>Title: FiberGetTemplate</p>
+ * <p>Description: An immutable, prepared get for a fixed table, family, qualifiers, timeout, failfast and hedging policy, executed with only the key varying.
+ * Executing a template skips the builder entirely: the table, family and qualifiers are validated once when the template
+ * is prepared, and each execution allocates only the rpc itself. Templates are thread safe.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberGetTemplate</code></p>
+ * @see FiberGetRequestBuilder#prepare()
+ */
+public final class FiberGetTemplate {
+	/** The fiber client the gets are executed with */
+	private final HBaseFiberClient fiberClient;
+	/** The table */
+	private final byte[] table;
+	/** The family, or null for all families */
+	private final byte[] family;
+	/** The qualifiers, or null for all qualifiers */
+	private final byte[][] qualifiers;
+	/** Indicates if the gets use the client's row cache */
+	private final boolean cached;
+	/** The rpc timeout in ms, or -1 for the client default */
+	private final int rpcTimeout;
+	/** Indicates if the gets fail fast instead of being retried */
+	private final boolean failfast;
+	/** The hedge delay in micros, {@link FiberHedger#ADAPTIVE} or {@link FiberHedger#NONE} */
+	private final long hedgeDelayMicros;
+
+	/**
+	 * Creates a new FiberGetTemplate
+	 * @param fiberClient The fiber client the gets are executed with
+	 * @param table The validated table
+	 * @param family The validated family, or null for all families
+	 * @param qualifiers The validated qualifiers, or null for all qualifiers
+	 * @param cached true if the gets use the client's row cache
+	 * @param rpcTimeout The rpc timeout in ms, or -1 for the client default
+	 * @param failfast true if the gets fail fast instead of being retried
+	 * @param hedgeDelayMicros The hedge delay in micros, {@link FiberHedger#ADAPTIVE} or {@link FiberHedger#NONE}
+	 */
+	FiberGetTemplate(final HBaseFiberClient fiberClient, final byte[] table, final byte[] family, final byte[][] qualifiers, final boolean cached, final int rpcTimeout, final boolean failfast, final long hedgeDelayMicros) {
+		this.fiberClient = fiberClient;
+		this.table = table;
+		this.family = family;
+		this.qualifiers = qualifiers;
+		this.cached = cached;
+		this.rpcTimeout = rpcTimeout;
+		this.failfast = failfast;
+		this.hedgeDelayMicros = hedgeDelayMicros;
+	}
+
+	/**
+	 * Gets the row with the passed key. Unless the template fails fast, failures are retried through the client's {@link FiberRetrier}.
+	 * @param key The row key
+	 * @return the row's key-values
+	 * @throws HBaseException thrown if the get fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	public ArrayList<KeyValue> execute(final byte[] key) throws HBaseException, SuspendExecution {
+		KeyValue.checkKey(key);
+		if(failfast) {
+			return newRpc(key).get(cached);
+		}
+		return fiberClient.getRetrier().call(new FiberRetrier.Attempt<ArrayList<KeyValue>>() {
+			@Override
+			public ArrayList<KeyValue> run() throws SuspendExecution {
+				return newRpc(key).get(cached);
+			}
+		}, true);
+	}
+
+	/**
+	 * Gets the row with the passed key without waiting, for callers that are not fibers and should not block a thread.
+	 * The get is attempted once: it is not retried.
+	 * @param key The row key
+	 * @return the future row's key-values
+	 * @see FiberHBaseRPC#getAsync()
+	 */
+	public CompletableFuture<ArrayList<KeyValue>> executeAsync(final byte[] key) {
+		KeyValue.checkKey(key);
+		return newRpc(key).getAsync(cached);
+	}
+
+	/**
+	 * Gets the row with the passed key
+	 * @param key The row key
+	 * @return the row's key-values
+	 * @throws HBaseException thrown if the get fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	public ArrayList<KeyValue> execute(final String key) throws HBaseException, SuspendExecution {
+		return execute(key.getBytes());
+	}
+
+	/**
+	 * Gets the row with the passed key and returns a view over it
+	 * @param key The row key
+	 * @return the row view, which is empty if the row was not found
+	 * @throws HBaseException thrown if the get fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	public FiberRow executeRow(final byte[] key) throws HBaseException, SuspendExecution {
+		return FiberRow.wrap(execute(key));
+	}
+
+	/**
+	 * Builds the rpc for one key
+	 * @param key The row key
+	 * @return the rpc
+	 */
+	FiberGetRequest newRpc(final byte[] key) {
+		final GetRequest g = new GetRequest(table, key);
+		if(family!=null) {
+			g.family(family);
+		}
+		if(qualifiers!=null) {
+			g.qualifiers(qualifiers);
+		}
+		if(rpcTimeout > -1) {
+			g.setTimeout(rpcTimeout);
+		}
+		g.setFailfast(failfast);
+		final FiberGetRequest f = new FiberGetRequest(fiberClient, g);
+		f.hedgeDelayMicros = hedgeDelayMicros;
+		return f;
+	}
+
+	/**
+	 * Returns the table
+	 * @return the table bytes
+	 */
+	public byte[] getTable() {
+		return table;
+	}
+
+	/**
+	 * Returns the family
+	 * @return the family bytes, or null for all families
+	 */
+	public byte[] getFamily() {
+		return family;
+	}
+
+	/**
+	 * Indicates if the gets are hedged
+	 * @return true if the gets are hedged
+	 */
+	public boolean isHedged() {
+		return hedgeDelayMicros!=FiberHedger.NONE;
+	}
+
+	/**
+	 * Indicates if the gets fail fast instead of being retried
+	 * @return true if the gets fail fast
+	 */
+	public boolean isFailFast() {
+		return failfast;
+	}
+
+	/**
+	 * Indicates if the gets use the client's row cache
+	 * @return true if the row cache is used
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberHBaseOperations</p>
+ * <p>Description: The asynchbase operations an {@link HBaseFiberClient} issues. {@link HBaseClient} is final,
+ * so the fiber client goes through this interface, which is implemented by an adapter over a real
+ * HBaseClient and by the {@link InProcessHBaseClient} stand-in.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberHBaseOperations</code></p>
+ */
+public interface FiberHBaseOperations {
+	/**
+	 * Retrieves data from HBase
+	 * @param request The get request
+	 * @return a deferred list of key-values, empty if the row does not exist
+	 * @see HBaseClient#get(GetRequest)
+	 */
+	public Deferred<ArrayList<KeyValue>> get(GetRequest request);
+
+	/**
+	 * Stores data in HBase
+	 * @param request The put request
+	 * @return a deferred called back when the edit is acknowledged
+	 * @see HBaseClient#put(PutRequest)
+	 */
+	public Deferred<Object> put(PutRequest request);
+
+	/**
+	 * Atomically and durably increments a value in HBase
+	 * @param request The increment request
+	 * @return a deferred value after the increment
+	 * @see HBaseClient#atomicIncrement(AtomicIncrementRequest)
+	 */
+	public Deferred<Long> atomicIncrement(AtomicIncrementRequest request);
+
+	/**
+	 * Atomically applies the put if the current value of the cell matches the expected value
+	 * @param edit The put to apply
+	 * @param expected The expected current value, empty if the cell is expected not to exist
+	 * @return a deferred indicating if the put was applied
+	 * @see HBaseClient#compareAndSet(PutRequest, byte[])
+	 */
+	public Deferred<Boolean> compareAndSet(PutRequest edit, byte[] expected);
+
+	/**
+	 * Deletes data from HBase
+	 * @param request The delete request
+	 * @return a deferred called back when the delete is acknowledged
+	 * @see HBaseClient#delete(DeleteRequest)
+	 */
+	public Deferred<Object> delete(DeleteRequest request);
+
+	/**
+	 * Flushes all buffered edits
+	 * @return a deferred called back when all buffered edits have been acknowledged
+	 * @see HBaseClient#flush()
+	 */
+	public Deferred<Object> flush();
+
+	/**
+	 * Returns the locations of the regions of a table
+	 * @param table The table name bytes
+	 * @return a deferred list of region locations
+	 * @see HBaseClient#locateRegions(byte[])
+	 */
+	public Deferred<List<RegionLocation>> locateRegions(byte[] table);
+
+	/**
+	 * Creates a new scanner for a table. No rpc is sent until {@link #nextRows(Scanner)} is called.
+	 * @param table The table name
+	 * @return the new scanner
+	 * @see HBaseClient#newScanner(String)
+	 */
+	public Scanner newScanner(String table);
+
+	/**
+	 * Fetches the next batch of rows from a scanner created by {@link #newScanner(String)}
+	 * @param scanner The scanner
+	 * @return a deferred list of rows, or null when the scan is exhausted
+	 * @see Scanner#nextRows()
+	 */
+	public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows(Scanner scanner);
+
+	/**
+	 * Closes a scanner created by {@link #newScanner(String)}
+	 * @param scanner The scanner
+	 * @return a deferred called back when the scanner is closed
+	 * @see Scanner#close()
+	 */
+	public Deferred<Object> closeScanner(Scanner scanner);
+
+	/**
+	 * Flushes buffered edits and releases all resources
+	 * @return a deferred called back when shutdown is complete
+	 * @see HBaseClient#shutdown()
+	 */
+	public Deferred<Object> shutdown();
+}
@@ -18,17 +18,17 @@ under the License.
  */
 package org.hbase.async;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
 
-import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.FiberAsync;
-import co.paralleluniverse.fibers.FiberForkJoinScheduler;
-import co.paralleluniverse.fibers.FiberUtil;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.Suspendable;
-import co.paralleluniverse.strands.SettableFuture;
-import co.paralleluniverse.strands.SuspendableCallable;
 
 /**
  * <p>Title: FiberHBaseRPC</p>
@@ -43,31 +43,93 @@ import co.paralleluniverse.strands.SuspendableCallable;
 
 public abstract class FiberHBaseRPC<R, T extends HBaseRpc> extends FiberAsync<R, HBaseException> {
 
-	private static final FiberForkJoinScheduler fiberPool = new FiberForkJoinScheduler("FiberHBaseRPC", 12, MonitorType.JMX, true);
-	
-	/** The asynchbase client that will execute the built rpc */
-	protected final HBaseClient hbClient;
+	/** The fiber client this rpc was built for */
+	protected final HBaseFiberClient fiberClient;
+	/** The operations that will execute the built rpc */
+	protected final FiberHBaseOperations hbClient;
 	/** The fiber wrapped hbase rpc */
 	protected T hbaseRpc = null;
+	/** The admission of the rpc to its region server, released when the rpc completes */
+	private transient FiberAdmissionControl.Permit permit = null;
 
 	
 	
 	/**
 	 * Creates a new FiberHBaseRPC
-	 * @param hbClient The asynchbase client that will execute the built rpc
+	 * @param fiberClient The fiber client this rpc is built for
 	 * @param hbaseRpc The fiber wrapped hbase rpc
 	 */
-	public FiberHBaseRPC(final HBaseClient hbClient, final T hbaseRpc) {
-		this.hbClient = hbClient;
+	public FiberHBaseRPC(final HBaseFiberClient fiberClient, final T hbaseRpc) {
+		this.fiberClient = fiberClient;
+		this.hbClient = fiberClient.getOperations();
 		this.hbaseRpc = hbaseRpc;
 	}
 	
 	/**
-	 * Invokes the hbase rpc specific op against the asynchbase client
+	 * Invokes the hbase rpc specific op against the client operations
 	 * @param hbaseRpc The hbase rpc to execute
 	 * @return a deferred result
 	 */
 	protected abstract Deferred<R> invoke(T hbaseRpc);
+	
+	/**
+	 * Returns the operation type this rpc's metrics are recorded under
+	 * @return the operation type
+	 */
+	protected String operation() {
+		return hbaseRpc.getClass().getSimpleName();
+	}
+	
+	/**
+	 * Indicates if this rpc counts against its region server's admission limit.
+	 * Rpcs that are not sent on their own, such as buffered edits, are not admitted.
+	 * @return true if the rpc is admitted
+	 */
+	protected boolean admitted() {
+		return true;
+	}
+	
+	/**
+	 * Invokes the hbase rpc, recording its latency and result in the client's metrics.
+	 * If the calling strand has a {@link FiberDeadline}, the rpc's timeout is capped at the remaining budget,
+	 * and the rpc is not sent at all if the deadline has already expired.
+	 * @return a deferred result
+	 */
+	Deferred<R> dispatch() {
+		final FiberAdmissionControl.Permit p = permit;
+		permit = null;
+		final FiberDeadline deadline = FiberDeadline.current();
+		if(deadline!=null && !deadline.apply(hbaseRpc)) {
+			if(p!=null) p.release();
+			return Deferred.fromError(deadline.exceeded(operation()));
+		}
+		final FiberOperationMetrics metrics = fiberClient.getMetrics().get(operation(), hbaseRpc.table);
+		final long start = metrics==null ? 0L : metrics.start();
+		Deferred<R> d;
+		try {
+			d = invoke(hbaseRpc);
+		} catch (RuntimeException ex) {
+			if(p!=null) p.release();
+			throw ex;
+		}
+		if(p!=null) {
+			d = p.track(d);
+		}
+		return metrics==null ? d : metrics.track(start, d);
+	}
+
+	/**
+	 * Waits for admission to this rpc's region server if it is admitted, then dispatches it without waiting for the result
+	 * @return a deferred result
+	 * @throws CircuitOpenException thrown if the server's circuit breaker is open
+	 */
+	@Suspendable
+	Deferred<R> send() {
+		if(admitted()) {
+			permit = fiberClient.getAdmissionControl().acquire(hbaseRpc);
+		}
+		return dispatch();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -75,7 +137,7 @@ public abstract class FiberHBaseRPC<R, T extends HBaseRpc> extends FiberAsync<R,
 	 */
 	@Override
 	protected void requestAsync() {
-		invoke(hbaseRpc)
+		dispatch()
 			.addCallback( new Callback<Void, R>() {
 					@Override
 					public Void call(R resList) throws Exception {
@@ -95,58 +157,61 @@ public abstract class FiberHBaseRPC<R, T extends HBaseRpc> extends FiberAsync<R,
 	
 
 	/**
-	 * @return
-	 * @throws SuspendExecution
-	 * @throws HBaseException
+	 * Executes the rpc and returns the result.
+	 * When called from a fiber, the calling fiber suspends on this FiberAsync directly.
+	 * When called from a plain thread, the thread waits on the rpc's deferred without hopping onto a fiber.
+	 * The rpc first waits for admission to its region server if the server is at its in-flight limit.
+	 * If the calling strand has a {@link FiberDeadline}, the wait is abandoned when it expires.
+	 * @return the rpc result
+	 * @throws HBaseException thrown if the rpc fails
 	 */
 	@Suspendable
 	public R get() throws HBaseException {
-		
-		final FiberAsync<R, HBaseException> fa = this;
-		final SettableFuture<R> fut = new SettableFuture<R>();
+		final FiberDeadline deadline = FiberDeadline.current();
+		if(admitted()) {
+			permit = fiberClient.getAdmissionControl().acquire(hbaseRpc);
+		}
 		try {
-			FiberUtil.runInFiber(fiberPool, new SuspendableCallable<Void>() {
-				@Override
-				public Void run() throws SuspendExecution, InterruptedException {
-					try {
-						final R r = fa.run();
-						fut.set(r);
-					} catch (Throwable t) {
-						fut.setException(t);
-					}
-					return null;
+			if(deadline==null) {
+				if(Fiber.isCurrentFiber()) {
+					return run();
 				}
-			});
-			return fut.get();
+				return FiberDeferred.block(dispatch(), -1L);
+			}
+			if(Fiber.isCurrentFiber()) {
+				return run(Math.max(1L, deadline.remaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS);
+			}
+			return FiberDeferred.block(dispatch(), Math.max(1L, deadline.remaining(TimeUnit.NANOSECONDS)));
+		} catch (TimeoutException tex) {
+			throw deadline.exceeded(operation());
+		} catch (SuspendExecution se) {
+			throw new AssertionError(se);
+		} catch (HBaseException hex) {
+			throw hex;
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting on rpc", iex);
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
 	}
-	
-//	public R get() throws SuspendExecution, HBaseException {
-//		final FiberAsync<R, HBaseException> fa = this;
-//		if(!Fiber.isCurrentFiber()) {
-//			try {
-//				return fiberPool.newFiber(new SuspendableCallable<R>(){
-//					@Suspendable
-//					public R run() {							
-//						try {
-//							return fa.run();
-//						} catch (HBaseException | SuspendExecution | InterruptedException e) {
-//							throw new RuntimeException("FA Run failed", e);
-//						}
-//					}				
-//				}).start().get();
-//			} catch (ExecutionException | InterruptedException e) {
-//				throw new RuntimeException("Fiber Exec failed", e);
-//			}			
-//		}
-//		try {
-//			return run();
-//		} catch (InterruptedException e) {
-//			throw new RuntimeException("Exec failed", e);
-//		}
-//	}
+
+	/**
+	 * Executes the rpc and returns a future completed straight from the asynchbase callback,
+	 * without a fiber or a waiting thread. The rpc is counted against its region server's admission limit
+	 * but never waits for it, and fails fast if the server's circuit breaker is open.
+	 * @return the future rpc result
+	 */
+	public CompletableFuture<R> getAsync() {
+		try {
+			if(admitted()) {
+				permit = fiberClient.getAdmissionControl().admitNow(hbaseRpc);
+			}
+			return FiberDeferred.toFuture(dispatch());
+		} catch (RuntimeException ex) {
+			return FiberDeferred.failed(ex);
+		}
+	}
 
 	/**
 	 * Returns the underlying HBaseRpc
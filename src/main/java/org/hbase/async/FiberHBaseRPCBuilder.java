@@ -18,6 +18,8 @@ under the License.
  */
 package org.hbase.async;
 
+import java.util.concurrent.CompletableFuture;
+
 import co.paralleluniverse.fibers.SuspendExecution;
 
 /**
@@ -57,8 +59,10 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
 	/** The region the rpc to be built will go to */
 	RegionInfo region = null;
 	
-	/** The asynchbase client that will execute the built rpc */
-	protected final HBaseClient hbClient;
+	/** The fiber client this builder builds rpcs for */
+	protected final HBaseFiberClient fiberClient;
+	/** The operations that will execute the built rpc */
+	protected final FiberHBaseOperations hbClient;
 	
 	/** The most recently built FiberHBaseRpc */
 	protected volatile V asyncRpc = null;
@@ -69,10 +73,11 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
     
     /**
      * Creates a new FiberHBaseRPCBuilder
-     * @param hbClient The asynchbase client that will execute the built rpc
+     * @param fiberClient The fiber client to build rpcs for
      */
-    FiberHBaseRPCBuilder(final HBaseClient hbClient) {		
-		this.hbClient = hbClient;
+    FiberHBaseRPCBuilder(final HBaseFiberClient fiberClient) {		
+		this.fiberClient = fiberClient;
+		this.hbClient = fiberClient.getOperations();
 	}
 
 	/**
@@ -107,8 +112,7 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
      * @return the async fiber rpc instance's underlying HBaseRpc
      */
     public H getHBaseRpc() {
-    	if(asyncRpc==null) buildAsyncRpc();
-    	return asyncRpc.getHbaseRpc();
+    	return getFiberHBaseRpc().getHbaseRpc();
     }
     
     
@@ -120,16 +124,57 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
     
     
     /**
-     * If the async rpc is null, builds it, then executes the rpc and returns the result
-     * @return thge result of the async rpc invocation
+     * Builds a new async rpc from the current settings, executes it and returns the result.
+     * Since every execution builds its own rpc, a builder can be executed repeatedly, changing
+     * only the settings that vary (typically the key) or calling {@link #reset()} in between.
+     * Unless {@link #failFast(boolean) failfast} is set, failures are retried by the client's {@link FiberRetrier}.
+     * @return the result of the async rpc invocation
      * @throws HBaseException thrown if the actual HBaseRpc fails
      * @throws SuspendExecution Will not be thrown
      */
     public R execute() throws HBaseException, SuspendExecution {
-    	if(asyncRpc==null) {
-    		buildAsyncRpc();
+    	return retrying(new FiberRetrier.Attempt<R>() {
+    		@Override
+    		public R run() throws SuspendExecution {
+    	    	asyncRpc = buildAsyncRpc();
+    	    	return asyncRpc.get();
+    		}
+    	});
+    }
+    
+    /**
+     * Builds a new async rpc from the current settings, executes it and returns a future completed straight from
+     * the asynchbase callback, for callers that are not fibers and should not block a thread.
+     * The rpc is attempted once: it is not retried.
+     * @return the future result of the async rpc invocation
+     * @see FiberHBaseRPC#getAsync()
+     */
+    public CompletableFuture<R> executeAsync() {
+    	asyncRpc = buildAsyncRpc();
+    	return asyncRpc.getAsync();
+    }
+    
+    /**
+     * Runs the passed attempt once if failfast is set, otherwise through the client's retrier.
+     * Every attempt must build its own rpc.
+     * @param attempt The attempt to run
+     * @return the attempt result
+     * @throws HBaseException thrown if the last attempt fails
+     * @throws SuspendExecution Will not be thrown
+     */
+    R retrying(final FiberRetrier.Attempt<R> attempt) throws HBaseException, SuspendExecution {
+    	if(failfast) {
+    		return attempt.run();
     	}
-    	return asyncRpc.get();
+    	return fiberClient.getRetrier().call(attempt, idempotent());
+    }
+    
+    /**
+     * Indicates if the built rpc can safely be applied more than once, and so be retried after a timeout
+     * @return true if the rpc is idempotent
+     */
+    protected boolean idempotent() {
+    	return true;
     }
     
     /**
@@ -158,7 +203,7 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
      * @return the base options configured HBaseRpc
      */
     H apply(final H h) {
-    	h.setFailfast(true);
+    	h.setFailfast(failfast);
     	h.setProbe(probe);
     	h.setSuspendedProbe(suspended_probe);
     	if(rpcTimeout > -1) {
@@ -253,14 +298,12 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
 	}
 	
 	/**
-	 * Sets the table bytes
+	 * Sets the table bytes from the interned, pre-validated bytes of the table name
 	 * @param tableName the table name
 	 * @return this builder
 	 */
 	public T table(final String tableName) {
-		final byte[] table = tableName.getBytes();
-		KeyValue.checkTable(table);
-		this.table = table;
+		this.table = FiberNameDictionary.table(tableName);
 		return (T) this;
 	}
 	
@@ -300,14 +343,12 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
 	}
 	
 	/**
-	 * Sets the qualifier bytes
-	 * @param qualifierName the qualifierName bytes to set
+	 * Sets the qualifier bytes from the interned, pre-validated bytes of the qualifier name
+	 * @param qualifierName the qualifier name
 	 * @return this builder
 	 */
 	public T qualifier(final String qualifierName) {
-		final byte[] qualifier = qualifierName.getBytes();
-		KeyValue.checkQualifier(qualifier);
-		this.qualifier = qualifier;
+		this.qualifier = FiberNameDictionary.qualifier(qualifierName);
 		return (T) this;
 	}
 	
@@ -336,14 +377,12 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
 	}
 	
 	/**
-	 * Sets the family type name
-	 * @param familyName the family type namr to set
+	 * Sets the family type bytes from the interned, pre-validated bytes of the family name
+	 * @param familyName the family type name to set
 	 * @return this builder
 	 */
 	public T family(final String familyName) {
-		final byte[] family = familyName.getBytes();
-		KeyValue.checkFamily(family);
-		this.family = family;
+		this.family = FiberNameDictionary.family(familyName);
 		return (T)this;
 	}
 	
@@ -408,6 +447,7 @@ public abstract class FiberHBaseRPCBuilder<T extends FiberHBaseRPCBuilder<T, R,
 	
 	/**
 	 * Sets the timeout of the rpc to be built in millis.
+	 * Under a {@link FiberDeadline}, the timeout is further capped at the deadline's remaining budget when the rpc is sent.
 	 * @param timeout the timeout in millis. Set <b>0</b> for no timeout and <b>-1</b> for the "hbase.rpc.timeout" default 
 	 * @return this builder
 	 */
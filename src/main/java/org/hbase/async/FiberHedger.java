@@ -0,0 +1,407 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberHedger</p>
+ * <p>Description: Sends hedged gets. A hedged get that has not completed after its hedge delay is sent again,
+ * and the first successful response wins; the other one is ignored. A failure is only reported once every
+ * copy sent has failed. The delay is either fixed per get or adaptive, taken per table from a percentile of the
+ * recently observed get latencies. Hedges are capped at a configured percentage of hedged gets, so a slow
+ * cluster is not sent twice the load. With admission control enabled, a hedge is only sent if its region server
+ * is below its in-flight limit and its circuit breaker is closed, and it then counts like any other rpc.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberHedger</code></p>
+ */
+public final class FiberHedger {
+	/** Config key for the latency percentile used as the adaptive hedge delay. Defaults to 95 */
+	public static final String CONFIG_HEDGE_PERCENTILE = "hbase.fiber.hedge.percentile";
+	/** Config key for the maximum hedges sent, as a percentage of hedged gets. Defaults to 5 */
+	public static final String CONFIG_HEDGE_MAX_PERCENT = "hbase.fiber.hedge.max.percent";
+	/** Config key for the minimum adaptive hedge delay in microseconds. Defaults to 1000 */
+	public static final String CONFIG_HEDGE_MIN_DELAY_MICROS = "hbase.fiber.hedge.min.delay.micros";
+	/** Config key for the maximum adaptive hedge delay in microseconds, also used until enough latencies have been observed. Defaults to 50000 */
+	public static final String CONFIG_HEDGE_MAX_DELAY_MICROS = "hbase.fiber.hedge.max.delay.micros";
+
+	/** The hedge delay of gets that are not hedged */
+	static final long NONE = -2L;
+	/** The hedge delay of gets hedged after the adaptive delay */
+	static final long ADAPTIVE = -1L;
+
+	/** The number of latencies observed before the adaptive delay is used */
+	private static final int MIN_SAMPLES = 100;
+	/** The interval at which adaptive delays are recomputed, in nanos */
+	private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+	/** The hedges allowed in a burst */
+	private static final int MAX_BURST = 10;
+	/** Serial number factory for timer thread names */
+	private static final AtomicInteger threadSerial = new AtomicInteger(0);
+
+	/** The operations gets are sent through */
+	private final FiberHBaseOperations hbClient;
+	/** Admits the hedges to their region server */
+	private final FiberAdmissionControl admissionControl;
+	/** The latency percentile used as the adaptive hedge delay */
+	private final double percentile;
+	/** The minimum adaptive hedge delay in micros */
+	private final long minDelayMicros;
+	/** The maximum adaptive hedge delay in micros */
+	private final long maxDelayMicros;
+	/** Sends the hedges once their delay expires */
+	private final ScheduledThreadPoolExecutor timer;
+	/** The adaptive delays, keyed by table */
+	private final ConcurrentHashMap<String, AdaptiveDelay> delays = new ConcurrentHashMap<String, AdaptiveDelay>();
+	/** Caps the hedges sent at a percentage of hedged gets */
+	private final FiberBudget budget;
+	/** The number of hedged gets */
+	private final AtomicLong gets = new AtomicLong(0L);
+	/** The number of hedges sent */
+	private final AtomicLong hedges = new AtomicLong(0L);
+	/** The number of gets won by the hedge */
+	private final AtomicLong hedgeWins = new AtomicLong(0L);
+	/** The number of hedges not sent because the hedge budget was exhausted */
+	private final AtomicLong throttled = new AtomicLong(0L);
+	/** The number of hedges not sent because their region server could not take them */
+	private final AtomicLong rejected = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberHedger
+	 * @param hbClient The operations gets are sent through
+	 * @param admissionControl Admits the hedges to their region server
+	 * @param config The config to read the hedging options from
+	 */
+	FiberHedger(final FiberHBaseOperations hbClient, final FiberAdmissionControl admissionControl, final Config config) {
+		this.hbClient = hbClient;
+		this.admissionControl = admissionControl;
+		percentile = config.hasProperty(CONFIG_HEDGE_PERCENTILE) ? config.getDouble(CONFIG_HEDGE_PERCENTILE) : 95.0;
+		final int maxPercent = HBaseFiberClient.configInt(config, CONFIG_HEDGE_MAX_PERCENT, 5);
+		minDelayMicros = HBaseFiberClient.configInt(config, CONFIG_HEDGE_MIN_DELAY_MICROS, 1000);
+		maxDelayMicros = HBaseFiberClient.configInt(config, CONFIG_HEDGE_MAX_DELAY_MICROS, 50000);
+		if(percentile <= 0.0 || percentile >= 100.0) throw new IllegalArgumentException("Invalid hedge percentile: " + percentile);
+		if(minDelayMicros < 0 || maxDelayMicros < minDelayMicros) throw new IllegalArgumentException("Invalid hedge delay range: " + minDelayMicros + "-" + maxDelayMicros);
+		budget = new FiberBudget(maxPercent, MAX_BURST);
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "FiberHedger-" + threadSerial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Sends the passed get, and a copy of it if it has not completed after the hedge delay
+	 * @param get The get to send
+	 * @param delayMicros The hedge delay in micros, or {@link #ADAPTIVE}
+	 * @return the deferred key-values of the first successful response
+	 */
+	Deferred<ArrayList<KeyValue>> get(final GetRequest get, final long delayMicros) {
+		gets.incrementAndGet();
+		budget.earn();
+		final AdaptiveDelay adaptive = adaptiveDelay(get.table());
+		final Hedge hedge = new Hedge(get, adaptive);
+		final long delay = delayMicros==ADAPTIVE ? adaptive.delayMicros() : delayMicros;
+		hedge.send(get);
+		if(!hedge.done.get()) {
+			hedge.timeout = timer.schedule(hedge, delay, TimeUnit.MICROSECONDS);
+			if(hedge.done.get()) {
+				hedge.timeout.cancel(false);
+			}
+		}
+		return hedge.result;
+	}
+
+	/**
+	 * Returns the number of hedged gets
+	 * @return the number of hedged gets
+	 */
+	public long getGets() {
+		return gets.get();
+	}
+
+	/**
+	 * Returns the number of hedges sent
+	 * @return the number of hedges sent
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * Returns the number of gets won by the hedge
+	 * @return the number of hedge wins
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	/**
+	 * Returns the number of hedges not sent because the hedge rate cap was reached
+	 * @return the number of throttled hedges
+	 */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Returns the number of hedges not sent because their region server was at its in-flight limit or its circuit breaker was not closed
+	 * @return the number of rejected hedges
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the current adaptive hedge delay for the passed table
+	 * @param table The table name
+	 * @return the adaptive hedge delay in micros
+	 */
+	public long getAdaptiveDelayMicros(final String table) {
+		final AdaptiveDelay adaptive = delays.get(table);
+		return adaptive==null ? maxDelayMicros : adaptive.delayMicros();
+	}
+
+	/**
+	 * Stops sending hedges
+	 */
+	void close() {
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Returns the adaptive delay of the passed table, creating it if necessary
+	 * @param table The table name bytes
+	 * @return the adaptive delay
+	 */
+	private AdaptiveDelay adaptiveDelay(final byte[] table) {
+		final String name = new String(table);
+		AdaptiveDelay adaptive = delays.get(name);
+		if(adaptive==null) {
+			final AdaptiveDelay created = new AdaptiveDelay();
+			adaptive = delays.putIfAbsent(name, created);
+			if(adaptive==null) adaptive = created;
+		}
+		return adaptive;
+	}
+
+	/**
+	 * Copies a get so it can be sent while the original is in flight
+	 * @param get The get to copy
+	 * @return the copy
+	 */
+	private static GetRequest copy(final GetRequest get) {
+		final GetRequest g = new GetRequest(get.table(), get.key());
+		if(get.family()!=null) {
+			g.family(get.family());
+		}
+		if(get.qualifiers()!=null) {
+			g.qualifiers(get.qualifiers());
+		}
+		g.maxVersions(get.maxVersions());
+		if(get.getTimeout() > -1) {
+			g.setTimeout(get.getTimeout());
+		}
+		return g;
+	}
+
+	/**
+	 * <p>Title: Hedge</p>
+	 * <p>Description: One hedged get: completes its result with the first success, or the last failure,
+	 * and sends the hedge when its timer expires</p>
+	 * <p><code>org.hbase.async.FiberHedger.Hedge</code></p>
+	 */
+	private final class Hedge implements Runnable {
+		/** The get to hedge */
+		private final GetRequest get;
+		/** The adaptive delay of the get's table */
+		private final AdaptiveDelay adaptive;
+		/** The deferred result returned to the caller */
+		final Deferred<ArrayList<KeyValue>> result = new Deferred<ArrayList<KeyValue>>();
+		/** Indicates if the result has been called back */
+		final AtomicBoolean done = new AtomicBoolean(false);
+		/** The number of copies sent and not yet completed */
+		private final AtomicInteger pending = new AtomicInteger(0);
+		/** The hedge timer */
+		volatile ScheduledFuture<?> timeout = null;
+
+		/**
+		 * Creates a new Hedge
+		 * @param get The get to hedge
+		 * @param adaptive The adaptive delay of the get's table
+		 */
+		Hedge(final GetRequest get, final AdaptiveDelay adaptive) {
+			this.get = get;
+			this.adaptive = adaptive;
+		}
+
+		/**
+		 * Sends the hedge if the get has not completed yet, the hedge budget allows it and its region server can take it
+		 */
+		@Override
+		public void run() {
+			if(done.get()) return;
+			FiberAdmissionControl.Permit permit = null;
+			if(admissionControl.isEnabled()) {
+				permit = admissionControl.tryAdmit(get.table(), get.key());
+				if(permit==null) {
+					rejected.incrementAndGet();
+					return;
+				}
+			}
+			if(!budget.spend()) {
+				if(permit!=null) permit.release();
+				throttled.incrementAndGet();
+				return;
+			}
+			hedges.incrementAndGet();
+			final GetRequest hedge = copy(get);
+			Deferred<ArrayList<KeyValue>> d;
+			try {
+				d = hbClient.get(hedge);
+			} catch (RuntimeException ex) {
+				if(permit!=null) permit.release();
+				throw ex;
+			}
+			if(permit!=null) {
+				d = permit.track(d);
+			}
+			follow(d, true);
+		}
+
+		/**
+		 * Sends the original get
+		 * @param rpc The rpc to send
+		 */
+		void send(final GetRequest rpc) {
+			follow(hbClient.get(rpc), false);
+		}
+
+		/**
+		 * Follows one copy of the get that was sent, completing the result with the first success or the last failure
+		 * @param sent The deferred result of the copy
+		 * @param isHedge true if the copy is the hedge
+		 */
+		private void follow(final Deferred<ArrayList<KeyValue>> sent, final boolean isHedge) {
+			pending.incrementAndGet();
+			final long start = System.nanoTime();
+			sent.addCallbacks(
+				new Callback<Void, ArrayList<KeyValue>>() {
+					@Override
+					public Void call(final ArrayList<KeyValue> kvs) throws Exception {
+						pending.decrementAndGet();
+						adaptive.record(System.nanoTime() - start);
+						if(done.compareAndSet(false, true)) {
+							cancelTimeout();
+							if(isHedge) hedgeWins.incrementAndGet();
+							result.callback(kvs);
+						}
+						return null;
+					}
+				},
+				new Callback<Void, Exception>() {
+					@Override
+					public Void call(final Exception ex) throws Exception {
+						if(pending.decrementAndGet()==0 && done.compareAndSet(false, true)) {
+							cancelTimeout();
+							result.callback(ex);
+						}
+						return null;
+					}
+				}
+			);
+		}
+
+		/**
+		 * Cancels the hedge timer if it was scheduled
+		 */
+		private void cancelTimeout() {
+			final ScheduledFuture<?> t = timeout;
+			if(t!=null) {
+				t.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: AdaptiveDelay</p>
+	 * <p>Description: The adaptive hedge delay of one table, recomputed every second from the latencies observed since</p>
+	 * <p><code>org.hbase.async.FiberHedger.AdaptiveDelay</code></p>
+	 */
+	private final class AdaptiveDelay {
+		/** The latencies observed since the last refresh, in micros */
+		private final Recorder recorder = new Recorder(3);
+		/** The time of the next refresh */
+		private final AtomicLong nextRefresh = new AtomicLong(System.nanoTime() + REFRESH_NANOS);
+		/** The current delay in micros */
+		private volatile long delayMicros = maxDelayMicros;
+		/** The interval histogram recycled between refreshes */
+		private Histogram interval = null;
+
+		/**
+		 * Records the latency of a completed get
+		 * @param nanos The latency in nanos
+		 */
+		void record(final long nanos) {
+			recorder.recordValue(Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos)));
+		}
+
+		/**
+		 * Returns the current delay, recomputing it if the refresh interval has elapsed
+		 * @return the delay in micros
+		 */
+		long delayMicros() {
+			final long now = System.nanoTime();
+			final long next = nextRefresh.get();
+			if(now - next >= 0 && nextRefresh.compareAndSet(next, now + REFRESH_NANOS)) {
+				refresh();
+			}
+			return delayMicros;
+		}
+
+		/**
+		 * Recomputes the delay from the latencies observed since the last refresh.
+		 * The previous delay is kept if too few latencies were observed.
+		 */
+		private synchronized void refresh() {
+			interval = recorder.getIntervalHistogram(interval);
+			if(interval.getTotalCount() >= MIN_SAMPLES) {
+				final long p = interval.getValueAtPercentile(percentile);
+				delayMicros = Math.max(minDelayMicros, Math.min(maxDelayMicros, p));
+			}
+		}
+	}
+}
@@ -0,0 +1,481 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+
+/**
+ * <p>Title: FiberIncrementAggregator</p>
+ * <p>Description: Locally aggregates atomic increments for hot counters.
+ * Deltas for the same table/key/family/qualifier are summed in striped in-memory cells and
+ * periodically flushed by a strand spawned by the client as a single {@link AtomicIncrementRequest}.
+ * Callers that need the post-increment value join a per-counter batch that is resolved by the flush
+ * containing their delta, each with the value the counter had right after its own delta, as if the deltas
+ * of the flush had been applied one by one in arrival order. Deltas added without waiting are placed first.
+ * A counter found idle by a flush is dropped from memory. If a flush fails, its waiting callers fail,
+ * and the deltas added without waiting are added back to be flushed again.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberIncrementAggregator</code></p>
+ */
+final class FiberIncrementAggregator {
+	/** Config key for the aggregated increment flush interval in ms. Defaults to 100 */
+	public static final String CONFIG_FLUSH_INTERVAL = "hbase.fiber.increment.flush.interval";
+	/** Config key for the number of stripes per counter. Rounded up to a power of 2, defaults to the number of available cores */
+	public static final String CONFIG_STRIPES = "hbase.fiber.increment.stripes";
+	/** The default flush interval in ms */
+	public static final int DEFAULT_FLUSH_INTERVAL = 100;
+
+	/** The number of longs between stripes so each stripe sits on its own cache line */
+	static final int PAD = 8;
+
+	/** The fiber client increments are flushed through */
+	private final HBaseFiberClient fiberClient;
+	/** The flush interval in ms */
+	private final long flushInterval;
+	/** The number of stripes per counter */
+	private final int stripes;
+	/** The counter cells keyed by counter */
+	private final ConcurrentHashMap<CounterKey, CounterCell> cells = new ConcurrentHashMap<CounterKey, CounterCell>();
+	/** Indicates if the flusher fiber has been started */
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	/** Indicates if this aggregator has been closed */
+	private volatile boolean closed = false;
+	/** The number of flushed increment rpcs */
+	private final AtomicLong flushedRpcs = new AtomicLong(0L);
+	/** The number of aggregated increments */
+	private final AtomicLong aggregated = new AtomicLong(0L);
+	/** The number of flushed increment rpcs that failed */
+	private final AtomicLong failedRpcs = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberIncrementAggregator
+	 * @param fiberClient The fiber client increments are flushed through
+	 * @param config The config to read the aggregator options from
+	 */
+	FiberIncrementAggregator(final HBaseFiberClient fiberClient, final Config config) {
+		this.fiberClient = fiberClient;
+		flushInterval = HBaseFiberClient.configInt(config, CONFIG_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL);
+		if(flushInterval < 1) throw new IllegalArgumentException("Invalid increment flush interval: " + flushInterval);
+		final int requested = HBaseFiberClient.configInt(config, CONFIG_STRIPES, Runtime.getRuntime().availableProcessors());
+		stripes = Integer.highestOneBit(Math.max(1, requested) * 2 - 1);
+	}
+
+	/**
+	 * Adds a delta to a counter without waiting for it to be flushed
+	 * @param key The counter key
+	 * @param delta The delta to add
+	 */
+	void add(final CounterKey key, final long delta) {
+		addDelta(key, delta);
+		aggregated.incrementAndGet();
+	}
+
+	/**
+	 * Adds a delta to a counter's stripes, moving it to the counter's new cell if a flush retired the cell meanwhile
+	 * @param key The counter key
+	 * @param delta The delta to add
+	 */
+	private void addDelta(final CounterKey key, final long delta) {
+		long d = delta;
+		while(true) {
+			final CounterCell cell = cell(key);
+			if(cell.add(d)) return;
+			// whatever the retiring flush did not drain is still in the cell
+			d = cell.drain();
+			if(d==0L) return;
+		}
+	}
+
+	/**
+	 * Adds a delta to a counter, returning a deferred called back with the counter value
+	 * after the flush that includes this delta
+	 * @param key The counter key
+	 * @param delta The delta to add
+	 * @return the deferred post-increment value
+	 */
+	Deferred<Long> addAndGet(final CounterKey key, final long delta) {
+		Deferred<Long> d;
+		do {
+			d = cell(key).addAndGet(delta);
+		} while(d==null);
+		aggregated.incrementAndGet();
+		return d;
+	}
+
+	/**
+	 * Returns the cell for the passed counter, creating it and starting the flusher if necessary
+	 * @param key The counter key
+	 * @return the counter cell
+	 */
+	private CounterCell cell(final CounterKey key) {
+		if(closed) throw new IllegalStateException("The increment aggregator is closed");
+		CounterCell cell = cells.get(key);
+		if(cell==null) {
+			final CounterCell newCell = new CounterCell(key, stripes);
+			cell = cells.putIfAbsent(key, newCell);
+			if(cell==null) cell = newCell;
+			if(started.compareAndSet(false, true)) {
+				startFlusher();
+			}
+		}
+		return cell;
+	}
+
+	/**
+	 * Starts the flusher strand, a fiber on the client's scheduler or a virtual thread
+	 */
+	private void startFlusher() {
+		fiberClient.spawn("FiberIncrementAggregator", new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution, InterruptedException {
+				while(!closed) {
+					Strand.sleep(flushInterval);
+					flush();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Flushes the aggregated deltas of all counters
+	 */
+	void flush() {
+		for(final CounterCell cell: cells.values()) {
+			flush(cell);
+		}
+	}
+
+	/**
+	 * Flushes the aggregated deltas of one counter as a single increment.
+	 * A counter with nothing to flush is retired and removed, and a later delta creates a new cell.
+	 * @param cell The counter cell to flush
+	 */
+	private void flush(final CounterCell cell) {
+		ValueBatch batch = cell.sealBatch();
+		long drained = cell.drain();
+		if(drained==0L && batch==null) {
+			cells.remove(cell.key, cell);
+			// deltas added before the adders see the cell retired are flushed here, later ones move to a new cell
+			batch = cell.retire();
+			drained = cell.drain();
+			if(drained==0L && batch==null) return;
+		}
+		final ValueBatch sealed = batch;
+		final long submitted = drained;
+		final long delta = submitted + (sealed==null ? 0L : sealed.delta);
+		final CounterKey key = cell.key;
+		final AtomicIncrementRequest rpc = new AtomicIncrementRequest(key.table, key.key, key.family, key.qualifier, delta);
+		flushedRpcs.incrementAndGet();
+		final FiberOperationMetrics metrics = fiberClient.getMetrics().get(FiberClientMetrics.OP_INCREMENT, key.table);
+		final long start = metrics==null ? 0L : metrics.start();
+		Deferred<Long> increment = fiberClient.getOperations().atomicIncrement(rpc);
+		if(metrics!=null) {
+			increment = metrics.track(start, increment);
+		}
+		fiberClient.invalidating(key.table, key.key, increment).addCallbacks(
+			new Callback<Void, Long>() {
+				@Override
+				public Void call(final Long value) throws Exception {
+					if(sealed!=null) sealed.complete(value);
+					return null;
+				}
+			},
+			new Callback<Void, Exception>() {
+				@Override
+				public Void call(final Exception ex) throws Exception {
+					failedRpcs.incrementAndGet();
+					if(sealed!=null) sealed.fail(ex);
+					if(submitted!=0L && !closed) addDelta(key, submitted);
+					return null;
+				}
+			}
+		);
+	}
+
+	/**
+	 * Stops the flusher and flushes all outstanding deltas. Deltas of a final flush that fails are lost.
+	 */
+	void close() {
+		closed = true;
+		flush();
+	}
+
+	/**
+	 * Returns the number of increment rpcs flushed
+	 * @return the number of flushed rpcs
+	 */
+	long getFlushedRpcs() {
+		return flushedRpcs.get();
+	}
+
+	/**
+	 * Returns the number of increments aggregated
+	 * @return the number of aggregated increments
+	 */
+	long getAggregated() {
+		return aggregated.get();
+	}
+
+	/**
+	 * Returns the number of counters held in memory
+	 * @return the number of counter cells
+	 */
+	int getCounters() {
+		return cells.size();
+	}
+
+	/**
+	 * Returns the number of flushed increment rpcs that failed
+	 * @return the number of failed rpcs
+	 */
+	long getFailedRpcs() {
+		return failedRpcs.get();
+	}
+
+	/**
+	 * <p>Title: CounterKey</p>
+	 * <p>Description: Identifies a counter cell by table, key, family and qualifier</p>
+	 * <p><code>org.hbase.async.FiberIncrementAggregator.CounterKey</code></p>
+	 */
+	static final class CounterKey {
+		final byte[] table;
+		final byte[] key;
+		final byte[] family;
+		final byte[] qualifier;
+		private final int hashCode;
+
+		/**
+		 * Creates a new CounterKey
+		 * @param table The table
+		 * @param key The row key
+		 * @param family The family
+		 * @param qualifier The qualifier
+		 */
+		CounterKey(final byte[] table, final byte[] key, final byte[] family, final byte[] qualifier) {
+			this.table = table;
+			this.key = key;
+			this.family = family;
+			this.qualifier = qualifier;
+			int h = Arrays.hashCode(table);
+			h = 31 * h + Arrays.hashCode(key);
+			h = 31 * h + Arrays.hashCode(family);
+			hashCode = 31 * h + Arrays.hashCode(qualifier);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof CounterKey)) return false;
+			final CounterKey other = (CounterKey)obj;
+			return hashCode==other.hashCode
+				&& Arrays.equals(key, other.key)
+				&& Arrays.equals(qualifier, other.qualifier)
+				&& Arrays.equals(family, other.family)
+				&& Arrays.equals(table, other.table);
+		}
+	}
+
+	/**
+	 * <p>Title: CounterCell</p>
+	 * <p>Description: The striped accumulator for one counter, plus the batch of callers waiting on the next flushed value</p>
+	 * <p><code>org.hbase.async.FiberIncrementAggregator.CounterCell</code></p>
+	 */
+	static final class CounterCell {
+		final CounterKey key;
+		/** The padded stripes. Stripe <b>n</b> is at index <b>n * PAD</b> */
+		private final AtomicLongArray cells;
+		/** The stripe mask */
+		private final int mask;
+		/** The batch waiting callers join, {@link ValueBatch#RETIRED} once the cell is retired */
+		private final AtomicReference<ValueBatch> batch = new AtomicReference<ValueBatch>(new ValueBatch());
+		/** Indicates if a flush found this cell idle and removed it */
+		private volatile boolean retired = false;
+
+		/**
+		 * Creates a new CounterCell
+		 * @param key The counter key
+		 * @param stripes The number of stripes, a power of 2
+		 */
+		CounterCell(final CounterKey key, final int stripes) {
+			this.key = key;
+			cells = new AtomicLongArray(stripes * PAD);
+			mask = stripes - 1;
+		}
+
+		/**
+		 * Adds a delta to the calling thread's stripe
+		 * @param delta The delta to add
+		 * @return true if the delta will be flushed, false if the cell was retired and the delta may have to be moved
+		 */
+		boolean add(final long delta) {
+			final int stripe = (int)Thread.currentThread().getId() & mask;
+			cells.getAndAdd(stripe * PAD, delta);
+			return !retired;
+		}
+
+		/**
+		 * Adds a delta to the current waiting batch
+		 * @param delta The delta to add
+		 * @return the deferred post-increment value, or null if the cell was retired
+		 */
+		Deferred<Long> addAndGet(final long delta) {
+			while(true) {
+				final ValueBatch b = batch.get();
+				if(b==ValueBatch.RETIRED) return null;
+				final Deferred<Long> d = b.add(delta);
+				if(d!=null) return d;
+			}
+		}
+
+		/**
+		 * Atomically takes and zeroes the sum of all the stripes
+		 * @return the drained sum
+		 */
+		long drain() {
+			long sum = 0L;
+			for(int i = 0, len = cells.length(); i < len; i += PAD) {
+				if(cells.get(i)!=0L) {
+					sum += cells.getAndSet(i, 0L);
+				}
+			}
+			return sum;
+		}
+
+		/**
+		 * Replaces the current waiting batch if it has any waiters, and seals it
+		 * @return the sealed batch, or null if it had no waiters
+		 */
+		ValueBatch sealBatch() {
+			if(batch.get().isEmpty()) return null;
+			final ValueBatch b = batch.getAndSet(new ValueBatch());
+			b.seal();
+			return b;
+		}
+
+		/**
+		 * Retires this cell so no more callers can join its batch, and seals the current batch
+		 * @return the sealed batch, or null if it had no waiters
+		 */
+		ValueBatch retire() {
+			retired = true;
+			final ValueBatch b = batch.getAndSet(ValueBatch.RETIRED);
+			if(b.isEmpty()) return null;
+			b.seal();
+			return b;
+		}
+	}
+
+	/**
+	 * <p>Title: ValueBatch</p>
+	 * <p>Description: The deltas of callers waiting on the same flush, in arrival order</p>
+	 * <p><code>org.hbase.async.FiberIncrementAggregator.ValueBatch</code></p>
+	 */
+	static final class ValueBatch {
+		/** The batch of retired cells, which callers cannot join */
+		static final ValueBatch RETIRED = new ValueBatch();
+		static {
+			RETIRED.seal();
+		}
+
+		/** The deltas of the waiting callers */
+		private long[] deltas = new long[4];
+		/** The deferred post-increment values of the waiting callers */
+		private final ArrayList<Deferred<Long>> results = new ArrayList<Deferred<Long>>(4);
+		/** Indicates if this batch is sealed */
+		private boolean sealed = false;
+		/** The sealed delta */
+		long delta = 0L;
+
+		/**
+		 * Adds a delta to this batch
+		 * @param d The delta to add
+		 * @return the caller's deferred post-increment value, or null if this batch was already sealed
+		 */
+		synchronized Deferred<Long> add(final long d) {
+			if(sealed) return null;
+			final int size = results.size();
+			if(size==deltas.length) deltas = Arrays.copyOf(deltas, size * 2);
+			deltas[size] = d;
+			final Deferred<Long> result = new Deferred<Long>();
+			results.add(result);
+			return result;
+		}
+
+		/**
+		 * Indicates if no caller joined this batch
+		 * @return true if this batch has no waiters
+		 */
+		synchronized boolean isEmpty() {
+			return results.isEmpty();
+		}
+
+		/**
+		 * Seals this batch so no more deltas can be added
+		 */
+		synchronized void seal() {
+			sealed = true;
+			long sum = 0L;
+			for(int i = 0, size = results.size(); i < size; i++) {
+				sum += deltas[i];
+			}
+			delta = sum;
+		}
+
+		/**
+		 * Calls back each sealed waiter with the counter value right after its delta,
+		 * the flushed value less the deltas that arrived after it
+		 * @param value The counter value after the flush
+		 */
+		void complete(final long value) {
+			long v = value;
+			for(int i = results.size() - 1; i >= 0; i--) {
+				results.get(i).callback(v);
+				v -= deltas[i];
+			}
+		}
+
+		/**
+		 * Fails each sealed waiter
+		 * @param ex The exception the flush failed with
+		 */
+		void fail(final Exception ex) {
+			for(final Deferred<Long> result: results) {
+				result.callback(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.hbase.async.FiberIncrementAggregator.CounterKey;
+
+import com.stumbleupon.async.Deferred;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * <p>Title: FiberIncrementRequestBuilder</p>
+ * <p>Description: RPC builder for an AtomicIncrementRequest.
+ * When {@link #aggregate(boolean) aggregation} is enabled, increments of the same counter are summed
+ * locally by the client's {@link FiberIncrementAggregator} and flushed periodically as a single increment.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberIncrementRequestBuilder</code></p>
+ */
+
+public class FiberIncrementRequestBuilder extends FiberHBaseRPCBuilder<FiberIncrementRequestBuilder, Long, AtomicIncrementRequest, FiberIncrementRequestBuilder.FiberIncrementRequest> {
+
+	/** The amount to increment by */
+	long amount = 1L;
+	/** Indicates if increments should be aggregated locally before being sent */
+	boolean aggregate = false;
+
+
+	/**
+	 * Creates a new FiberIncrementRequestBuilder
+	 * @param fiberClient The fiber client to build rpcs for
+	 */
+	public FiberIncrementRequestBuilder(final HBaseFiberClient fiberClient) {
+		super(fiberClient);
+	}
+
+	@Override
+	public AtomicIncrementRequest buildRpc() {
+		validate();
+		final AtomicIncrementRequest a = new AtomicIncrementRequest(table, key, family, qualifier, amount);
+		super.apply(a);
+		return a;
+	}
+
+	@Override
+	public FiberIncrementRequest buildAsyncRpc() {
+		final AtomicIncrementRequest a = buildRpc();
+		final FiberIncrementRequest f = new FiberIncrementRequest(fiberClient, a);
+		return f;
+	}
+
+	/**
+	 * If aggregation is enabled, adds the increment to the local aggregate and waits for the flush that includes it,
+	 * otherwise sends the increment directly.
+	 * @return the counter value after the increment
+	 * @throws HBaseException thrown if the increment fails
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	@Override
+	public Long execute() throws HBaseException, SuspendExecution {
+		if(!aggregate) {
+			return super.execute();
+		}
+		validate();
+		return FiberDeferred.await(fiberClient.getIncrementAggregator().addAndGet(counterKey(), amount));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Increments are not idempotent, so they are not retried after a timeout or a connection reset.
+	 * @see org.hbase.async.FiberHBaseRPCBuilder#idempotent()
+	 */
+	@Override
+	protected boolean idempotent() {
+		return false;
+	}
+
+	/**
+	 * If aggregation is enabled, adds the increment to the local aggregate and returns a future completed by the flush
+	 * that includes it, otherwise sends the increment directly
+	 * @return the future counter value after the increment
+	 */
+	@Override
+	public CompletableFuture<Long> executeAsync() {
+		if(!aggregate) {
+			return super.executeAsync();
+		}
+		validate();
+		return FiberDeferred.toFuture(fiberClient.getIncrementAggregator().addAndGet(counterKey(), amount));
+	}
+
+	/**
+	 * Adds the increment to the local aggregate without waiting for it to be flushed.
+	 * The increment is aggregated regardless of the {@link #aggregate(boolean)} setting.
+	 */
+	public void submit() {
+		validate();
+		fiberClient.getIncrementAggregator().add(counterKey(), amount);
+	}
+
+	@Override
+	public FiberIncrementRequestBuilder reset() {
+		amount = 1L;
+		aggregate = false;
+		return super.reset();
+	}
+
+	@Override
+	AtomicIncrementRequest apply(final AtomicIncrementRequest a) {
+		return a;
+	}
+
+	/**
+	 * Validates that the counter is fully specified
+	 */
+	private void validate() {
+		if(table==null) throw new IllegalStateException("The table specifier is null");
+		if(key==null) throw new IllegalStateException("The key specifier is null");
+		if(family==null) throw new IllegalStateException("The family specifier is null");
+		if(qualifier==null) throw new IllegalStateException("The qualifier specifier is null");
+	}
+
+	/**
+	 * Creates the aggregation key for the counter
+	 * @return the counter key
+	 */
+	private CounterKey counterKey() {
+		return new CounterKey(table, key, family, qualifier);
+	}
+
+	/**
+	 * Sets the amount to increment by
+	 * @param amount the amount, which may be negative
+	 * @return this builder
+	 */
+	public FiberIncrementRequestBuilder amount(final long amount) {
+		this.amount = amount;
+		return this;
+	}
+
+	/**
+	 * Enables or disables local aggregation of increments for {@link #execute()}
+	 * @param aggregate true to aggregate, false to send each increment directly
+	 * @return this builder
+	 */
+	public FiberIncrementRequestBuilder aggregate(final boolean aggregate) {
+		this.aggregate = aggregate;
+		return this;
+	}
+
+	/**
+	 * Returns the amount to increment by
+	 * @return the amount
+	 */
+	public long getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Indicates if increments are aggregated locally
+	 * @return true if increments are aggregated, false otherwise
+	 */
+	public boolean isAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * <p>Title: FiberIncrementRequest</p>
+	 * <p>Description: A quasar fiber driven wrapper for an {@link AtomicIncrementRequest}</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.hbase.async.FiberIncrementRequestBuilder.FiberIncrementRequest</code></p>
+	 */
+	public static class FiberIncrementRequest extends FiberHBaseRPC<Long, AtomicIncrementRequest> {
+		/**  */
+		private static final long serialVersionUID = 6391004471537265511L;
+
+		/**
+		 * Creates a new FiberIncrementRequest
+		 * @param fiberClient The fiber client to execute with
+		 * @param hbIncrement The increment request to execute
+		 */
+		FiberIncrementRequest(final HBaseFiberClient fiberClient, final AtomicIncrementRequest hbIncrement) {
+			super(fiberClient, hbIncrement);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#operation()
+		 */
+		@Override
+		protected String operation() {
+			return FiberClientMetrics.OP_INCREMENT;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#invoke(org.hbase.async.HBaseRpc)
+		 */
+		@Override
+		protected Deferred<Long> invoke(final AtomicIncrementRequest hbaseRpc) {
+			return fiberClient.invalidating(hbaseRpc.table(), hbaseRpc.key(),
+				hbClient.atomicIncrement(hbaseRpc));
+		}
+	}
+
+}
@@ -2,101 +2,453 @@ package org.hbase.async;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutionException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import org.hbase.async.FiberGetRequestBuilder.FiberGetRequest;
 import org.hbase.async.GetRequest;
-import org.hbase.async.HBaseClient;
 import org.hbase.async.HBaseException;
 import org.hbase.async.KeyValue;
 
 import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
 
-import co.paralleluniverse.fibers.Fiber;
-import co.paralleluniverse.fibers.FiberAsync;
 import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.concurrent.CountDownLatch;
+import co.paralleluniverse.strands.concurrent.Semaphore;
 
 /**
  * Quasar-aware hbase multi-GET operation.
- * 
+ *
+ * Keys are grouped by region and the gets for each region are dispatched back to back,
+ * with at most {@link #setMaxConcurrency(int)} gets in flight. The calling strand suspends
+ * until every get has completed.
+ *
+ * Under a {@link FiberDeadline}, each get's timeout is capped at the remaining budget, no more gets
+ * are sent once it expires, and the keys not completed by then fail with a {@link DeadlineExceededException}.
+ * Each get also waits for admission to its region server, see {@link FiberAdmissionControl}.
+ * Keys hosted by a server whose circuit breaker is open fail fast with a {@link CircuitOpenException}.
+ *
  * NB: it's not thread-safe.
- * 
+ *
  * @author fabio
  *
  */
 public class FiberMultiGetRequest {
-	// reference to outer defined hbaseclient (do not close it)
-	private final HBaseClient hbClient;
-	
+	/** The default maximum number of gets in flight per multi-get */
+	public static final int DEFAULT_MAX_CONCURRENCY = 256;
+
+	// reference to outer defined fiber client (do not close it)
+	private final HBaseFiberClient fiberClient;
+
 	private final String table;
 	private final String[] keys;
-	
+
 	private String family;
 	private String[] qualifiers;
-	
-	protected FiberMultiGetRequest(HBaseClient hbClient, String table, String... keys) {
-		this.hbClient = hbClient;
+
+	private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+	protected FiberMultiGetRequest(HBaseFiberClient fiberClient, String table, String... keys) {
+		this.fiberClient = fiberClient;
 		this.table = table;
 		this.keys = keys;
 	}
-	
 
-	
+
+
 	/**
 	 * Set column filter for results.
-	 * 
+	 *
 	 * @param family - to specify column filter a family must be specified.
 	 * @param qualifiers - gets only specified column qualifier. Can be null when means all qualifiers.
-	 * @return
+	 * @return this instance
 	 */
 	public FiberMultiGetRequest setColumnsFilter(String family, String... qualifiers) {
 		this.family = family;
 		this.qualifiers = qualifiers;
-		
+
 		return this;
 	}
-	
+
+	/**
+	 * Set the maximum number of gets in flight.
+	 *
+	 * @param maxConcurrency the maximum number of gets in flight
+	 * @return this instance
+	 */
+	public FiberMultiGetRequest setMaxConcurrency(int maxConcurrency) {
+		if ( maxConcurrency < 1 )
+			throw new IllegalArgumentException("Invalid max concurrency: " + maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+		return this;
+	}
+
 	/**
 	 * GET operation.
-	 *  
-	 * @return list of asynchbase key-value
+	 *
+	 * @return one result per key, in key order
 	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
 	 */
-	public ArrayList<ArrayList<KeyValue>> get() throws SuspendExecution, HBaseException {
-		
-		Fiber<ArrayList<KeyValue>>[] singleGetArray = new Fiber[keys.length];
-		
-		// fiber creation loop
-		for (int i=0; i<keys.length ;++i) {
-			final int idx = i;
-			singleGetArray[idx] = new Fiber<ArrayList<KeyValue>>() {
-				/* (non-Javadoc)
-				 * @see co.paralleluniverse.fibers.Fiber#run()
-				 */
-				@Override
-				protected ArrayList<KeyValue> run() throws SuspendExecution, InterruptedException {
-					FiberGetRequest getReq = new FiberGetRequest(hbClient, null);
-//					if ( family!=null )
-//						getReq.setColumnsFilter(family, qualifiers);
-					return getReq.get();
+	public ArrayList<Result> get() throws SuspendExecution, HBaseException {
+		final byte[] tableBytes = table.getBytes();
+		// written from asynchbase callbacks, possibly while an expired deadline abandons the keys still pending
+		final AtomicReferenceArray<Result> results = new AtomicReferenceArray<Result>(keys.length);
+		final CountDownLatch latch = new CountDownLatch(keys.length);
+		final Semaphore permits = new Semaphore(maxConcurrency);
+		final FiberOperationMetrics metrics = fiberClient.getMetrics().get(FiberClientMetrics.OP_MULTI_GET, tableBytes);
+		final long start = metrics==null ? 0L : metrics.start();
+		final FiberDeadline deadline = FiberDeadline.current();
+		try {
+			sending:
+			for ( Map.Entry<RegionLocation, List<Integer>> group : groupByRegion(fiberClient.getRegionLocator().locate(tableBytes)).entrySet() ) {
+				final String server = group.getKey()==null ? null : FiberRegionLocator.server(group.getKey());
+				for ( final int idx : group.getValue() ) {
+					if ( !acquire(permits, deadline) )
+						break sending;
+					final FiberAdmissionControl.Permit admission;
+					try {
+						admission = server==null ? null : fiberClient.getAdmissionControl().acquire(server);
+					} catch (DeadlineExceededException e) {
+						permits.release();
+						break sending;
+					} catch (CircuitOpenException e) {
+						results.set(idx, new Result(keys[idx], null, e));
+						permits.release();
+						latch.countDown();
+						continue;
+					}
+					final String key = keys[idx];
+					Deferred<ArrayList<KeyValue>> sent;
+					try {
+						final GetRequest get = newGet(tableBytes, key.getBytes());
+						if ( deadline!=null && !deadline.apply(get) ) {
+							if ( admission!=null )
+								admission.release();
+							permits.release();
+							break sending;
+						}
+						sent = fiberClient.getSingleFlight().get(get);
+					} catch (RuntimeException e) {
+						// the get was never sent, so no callback will release its permits
+						if ( admission!=null )
+							admission.release();
+						results.set(idx, new Result(key, null, e));
+						permits.release();
+						latch.countDown();
+						continue;
+					}
+					if ( admission!=null )
+						sent = admission.track(sent);
+					sent
+						.addCallbacks(
+							new Callback<Void, ArrayList<KeyValue>>() {
+								@Override
+								public Void call(ArrayList<KeyValue> kvs) throws Exception {
+									results.compareAndSet(idx, null, new Result(key, kvs, null));
+									permits.release();
+									latch.countDown();
+									return null;
+								}
+							},
+							new Callback<Void, Exception>() {
+								@Override
+								public Void call(Exception ex) throws Exception {
+									results.compareAndSet(idx, null, new Result(key, null, ex));
+									permits.release();
+									latch.countDown();
+									return null;
+								}
+							});
 				}
-			}.start();
+			}
+			if ( deadline==null )
+				latch.await();
+			else
+				latch.await(Math.max(0L, deadline.remaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			if ( metrics!=null )
+				metrics.failure(start, e);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting on multi-get", e);
+		} catch (RuntimeException e) {
+			if ( metrics!=null )
+				metrics.failure(start, e);
+			throw e;
 		}
-		
-		// join loop
-		ArrayList<ArrayList<KeyValue>> mgetRes = new ArrayList<ArrayList<KeyValue>>();
-		for (int i=0; i<keys.length ;++i) {
-			ArrayList<KeyValue> getRes = null;
+		if ( deadline!=null )
+			abandon(results, deadline);
+		final Result[] snapshot = new Result[keys.length];
+		for ( int i=0; i<snapshot.length ;++i )
+			snapshot[i] = results.get(i);
+		if ( metrics!=null )
+			record(metrics, start, snapshot);
+		return new ArrayList<Result>(Arrays.asList(snapshot));
+	}
+
+
+	/**
+	 * Non-blocking GET operation, for callers that are not fibers and should not block a thread.
+	 * The gets are sent with at most {@link #setMaxConcurrency(int)} in flight, each completion sending the next one,
+	 * and the returned future is completed from the callback of the last get. Keys are grouped by region when the
+	 * table's regions are cached. Each get is counted against its region server's admission limit but never waits for it.
+	 *
+	 * @return the future results, one per key, in key order
+	 */
+	public CompletableFuture<ArrayList<Result>> getAsync() {
+		final byte[] tableBytes = table.getBytes();
+		final int[] order = new int[keys.length];
+		int i = 0;
+		for ( List<Integer> group : groupByRegion(fiberClient.getRegionLocator().cached(tableBytes)).values() )
+			for ( int idx : group )
+				order[i++] = idx;
+		final AsyncMultiGet multiGet = new AsyncMultiGet(tableBytes, order);
+		multiGet.pump();
+		return multiGet.future;
+	}
+
+	/**
+	 * A multi-GET sent without waiting: gets are sent from the calling thread and then from the completion callbacks.
+	 * Sending is serialized through a work-in-progress counter, so gets completed inline do not recurse.
+	 */
+	private final class AsyncMultiGet {
+		private final byte[] tableBytes;
+		private final int[] order;
+		private final Result[] results = new Result[keys.length];
+		private final CompletableFuture<ArrayList<Result>> future = new CompletableFuture<ArrayList<Result>>();
+		private final FiberOperationMetrics metrics;
+		private final long start;
+		private final FiberDeadline deadline = FiberDeadline.current();
+		/** Serializes sending */
+		private final AtomicInteger wip = new AtomicInteger(0);
+		/** The gets in flight */
+		private final AtomicInteger inFlight = new AtomicInteger(0);
+		/** The gets not completed yet */
+		private final AtomicInteger remaining = new AtomicInteger(keys.length);
+		/** The position in the send order of the next get to send, only accessed while sending */
+		private int next = 0;
+
+		AsyncMultiGet(byte[] tableBytes, int[] order) {
+			this.tableBytes = tableBytes;
+			this.order = order;
+			metrics = fiberClient.getMetrics().get(FiberClientMetrics.OP_MULTI_GET, tableBytes);
+			start = metrics==null ? 0L : metrics.start();
+			if ( keys.length==0 )
+				finish();
+		}
+
+		/**
+		 * Sends gets until the max concurrency is reached or every get was sent.
+		 */
+		void pump() {
+			if ( wip.getAndIncrement()!=0 )
+				return;
+			do {
+				while ( next < order.length && inFlight.get() < maxConcurrency ) {
+					inFlight.incrementAndGet();
+					send(order[next++]);
+				}
+			} while ( wip.decrementAndGet()!=0 );
+		}
+
+		/**
+		 * Sends the get of one key, or fails it if it cannot be sent.
+		 */
+		private void send(final int idx) {
+			final String key = keys[idx];
+			final GetRequest get;
+			try {
+				get = newGet(tableBytes, key.getBytes());
+			} catch (RuntimeException e) {
+				complete(idx, new Result(key, null, e));
+				return;
+			}
+			if ( deadline!=null && !deadline.apply(get) ) {
+				complete(idx, new Result(key, null, deadline.exceeded("multi-get of " + table)));
+				return;
+			}
+			Deferred<ArrayList<KeyValue>> sent;
+			FiberAdmissionControl.Permit admission = null;
 			try {
-				getRes = singleGetArray[i].get();
-			} catch (ExecutionException | InterruptedException e) {
-				e.printStackTrace();
+				admission = fiberClient.getAdmissionControl().admitNow(tableBytes, get.key());
+				sent = fiberClient.getSingleFlight().get(get);
+			} catch (RuntimeException e) {
+				if ( admission!=null )
+					admission.release();
+				complete(idx, new Result(key, null, e));
+				return;
 			}
-			mgetRes.add(getRes);
+			if ( admission!=null )
+				sent = admission.track(sent);
+			sent.addCallbacks(
+				new Callback<Void, ArrayList<KeyValue>>() {
+					@Override
+					public Void call(ArrayList<KeyValue> kvs) throws Exception {
+						complete(idx, new Result(key, kvs, null));
+						return null;
+					}
+				},
+				new Callback<Void, Exception>() {
+					@Override
+					public Void call(Exception ex) throws Exception {
+						complete(idx, new Result(key, null, ex));
+						return null;
+					}
+				});
+		}
+
+		/**
+		 * Records the result of one key, then sends the next get or completes the future.
+		 */
+		private void complete(int idx, Result result) {
+			results[idx] = result;
+			inFlight.decrementAndGet();
+			if ( remaining.decrementAndGet()==0 )
+				finish();
+			else
+				pump();
+		}
+
+		private void finish() {
+			if ( metrics!=null )
+				record(metrics, start, results);
+			future.complete(new ArrayList<Result>(Arrays.asList(results)));
+		}
+	}
+
+
+	/*
+	 * Utilities
+	 */
+
+	/**
+	 * Groups the key indexes by the region hosting each key, preserving key order within each region.
+	 */
+	private Map<RegionLocation, List<Integer>> groupByRegion(List<RegionLocation> regions) {
+		final Map<RegionLocation, List<Integer>> groups = new LinkedHashMap<RegionLocation, List<Integer>>();
+		for ( int i=0; i<keys.length ;++i ) {
+			final RegionLocation region = FiberRegionLocator.find(regions, keys[i].getBytes());
+			List<Integer> group = groups.get(region);
+			if ( group==null ) {
+				group = new ArrayList<Integer>();
+				groups.put(region, group);
+			}
+			group.add(i);
+		}
+		return groups;
+	}
+
+	/**
+	 * Acquires a send permit, waiting no longer than the deadline if there is one.
+	 * 
+	 * @return false if the deadline expired before a permit was acquired
+	 */
+	private static boolean acquire(Semaphore permits, FiberDeadline deadline) throws InterruptedException {
+		if ( deadline==null ) {
+			permits.acquire();
+			return true;
+		}
+		return !deadline.isExpired() && permits.tryAcquire(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Fails the keys that were not sent, or had not completed, when the deadline expired.
+	 * A key completing concurrently keeps its own result.
+	 */
+	private void abandon(AtomicReferenceArray<Result> results, FiberDeadline deadline) {
+		DeadlineExceededException exceeded = null;
+		for ( int i=0; i<results.length() ;++i ) {
+			if ( results.get(i)==null ) {
+				if ( exceeded==null )
+					exceeded = deadline.exceeded("multi-get of " + table);
+				results.compareAndSet(i, null, new Result(keys[i], null, exceeded));
+			}
+		}
+	}
+
+	/**
+	 * Records the multi-get in the client's metrics, as a failure if any key failed.
+	 */
+	private static void record(FiberOperationMetrics metrics, long start, Result[] results) {
+		Exception failure = null;
+		for ( Result r : results ) {
+			if ( r.isSuccess() )
+				metrics.count(r.keyValues);
+			else if ( failure==null )
+				failure = r.exception;
+		}
+		if ( failure==null )
+			metrics.success(start, null);
+		else
+			metrics.failure(start, failure);
+	}
+
+	/**
+	 * Builds the get for one key, applying the column filter.
+	 */
+	private GetRequest newGet(byte[] tableBytes, byte[] key) {
+		final GetRequest g = new GetRequest(tableBytes, key);
+		if ( family!=null ) {
+			g.family(family.getBytes());
+			if ( qualifiers!=null && qualifiers.length>0 ) {
+				final byte[][] quals = new byte[qualifiers.length][];
+				for ( int i=0; i<qualifiers.length ;++i )
+					quals[i] = qualifiers[i].getBytes();
+				g.qualifiers(quals);
+			}
+		}
+		return g;
+	}
+
+
+	/**
+	 * The outcome of the get for one key of a multi-GET.
+	 */
+	public static class Result {
+		private final String key;
+		private final ArrayList<KeyValue> keyValues;
+		private final Exception exception;
+
+		Result(String key, ArrayList<KeyValue> keyValues, Exception exception) {
+			this.key = key;
+			this.keyValues = keyValues;
+			this.exception = exception;
+		}
+
+		/**
+		 * @return the row key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return true if the get succeeded
+		 */
+		public boolean isSuccess() {
+			return exception==null;
+		}
+
+		/**
+		 * @return the key-values of the row, empty if the row does not exist
+		 * @throws IllegalStateException if the get failed, with the failure as the cause
+		 */
+		public ArrayList<KeyValue> getKeyValues() {
+			if ( exception!=null )
+				throw new IllegalStateException("Get failed for key [" + key + "]", exception);
+			return keyValues;
+		}
+
+		/**
+		 * @return the failure, or null if the get succeeded
+		 */
+		public Exception getException() {
+			return exception;
 		}
-		
-		return mgetRes;
 	}
-	
 
 }
@@ -0,0 +1,102 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Title: FiberNameDictionary</p>
+ * <p>Description: Interns the bytes of table, family and qualifier names, which are few and reused by every request.
+ * Each name is encoded and validated once. The returned arrays are shared and must not be modified.
+ * Each dictionary stops interning once it holds {@link #MAX_ENTRIES} names, so names built from row data
+ * cannot grow it without bound.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberNameDictionary</code></p>
+ */
+final class FiberNameDictionary {
+	/** The maximum number of names interned per dictionary */
+	static final int MAX_ENTRIES = 4096;
+
+	/** The interned table names */
+	private static final ConcurrentHashMap<String, byte[]> tables = new ConcurrentHashMap<String, byte[]>();
+	/** The interned family names */
+	private static final ConcurrentHashMap<String, byte[]> families = new ConcurrentHashMap<String, byte[]>();
+	/** The interned qualifier names */
+	private static final ConcurrentHashMap<String, byte[]> qualifiers = new ConcurrentHashMap<String, byte[]>();
+
+	/**
+	 * Returns the validated bytes of a table name
+	 * @param name The table name
+	 * @return the shared table name bytes
+	 */
+	static byte[] table(final String name) {
+		byte[] b = tables.get(name);
+		if(b==null) {
+			b = name.getBytes();
+			KeyValue.checkTable(b);
+			b = intern(tables, name, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the validated bytes of a family name
+	 * @param name The family name
+	 * @return the shared family name bytes
+	 */
+	static byte[] family(final String name) {
+		byte[] b = families.get(name);
+		if(b==null) {
+			b = name.getBytes();
+			KeyValue.checkFamily(b);
+			b = intern(families, name, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the validated bytes of a qualifier name
+	 * @param name The qualifier name
+	 * @return the shared qualifier name bytes
+	 */
+	static byte[] qualifier(final String name) {
+		byte[] b = qualifiers.get(name);
+		if(b==null) {
+			b = name.getBytes();
+			KeyValue.checkQualifier(b);
+			b = intern(qualifiers, name, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Interns validated name bytes unless the dictionary is full
+	 * @param dictionary The dictionary
+	 * @param name The name
+	 * @param bytes The validated name bytes
+	 * @return the interned bytes
+	 */
+	private static byte[] intern(final ConcurrentHashMap<String, byte[]> dictionary, final String name, final byte[] bytes) {
+		if(dictionary.size() >= MAX_ENTRIES) return bytes;
+		final byte[] existing = dictionary.putIfAbsent(name, bytes);
+		return existing==null ? bytes : existing;
+	}
+
+	private FiberNameDictionary() {}
+}
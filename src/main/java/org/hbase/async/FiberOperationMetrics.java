@@ -0,0 +1,265 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberOperationMetrics</p>
+ * <p>Description: Latency distribution, throughput and error counters for one operation type against one table.
+ * Recording is wait-free: latencies go to a concurrent HdrHistogram and counts to striped adders.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberOperationMetrics</code></p>
+ */
+public final class FiberOperationMetrics implements FiberOperationMetricsMBean {
+	/** The highest latency tracked with full precision, in microseconds */
+	private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(10);
+
+	/** The operation type */
+	private final String operation;
+	/** The table name */
+	private final String table;
+	/** The latencies in microseconds */
+	private final ConcurrentHistogram latencies = new ConcurrentHistogram(HIGHEST_TRACKABLE, 3);
+	/** The number of completed operations */
+	private final LongAdder count = new LongAdder();
+	/** The number of failed operations */
+	private final LongAdder errors = new LongAdder();
+	/** The number of timed out operations */
+	private final LongAdder timeouts = new LongAdder();
+	/** The number of key-values returned */
+	private final LongAdder keyValues = new LongAdder();
+	/** The number of bytes returned */
+	private final LongAdder bytes = new LongAdder();
+	/** The number of in-flight operations */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+
+	/**
+	 * Creates a new FiberOperationMetrics
+	 * @param operation The operation type
+	 * @param table The table name
+	 */
+	FiberOperationMetrics(final String operation, final String table) {
+		this.operation = operation;
+		this.table = table;
+		latencies.setAutoResize(true);
+	}
+
+	/**
+	 * Marks the start of an operation
+	 * @return the start timestamp to pass to {@link #success(long, Object)} or {@link #failure(long, Throwable)}
+	 */
+	long start() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the outcome of the passed deferred operation when it completes.
+	 * The deferred's result or failure is passed through unchanged.
+	 * @param startNanos The timestamp returned by {@link #start()}, taken before the operation was issued
+	 * @param deferred The deferred operation
+	 * @return the passed deferred
+	 */
+	<T> Deferred<T> track(final long startNanos, final Deferred<T> deferred) {
+		return deferred.addCallbacks(
+			new Callback<T, T>() {
+				@Override
+				public T call(final T result) throws Exception {
+					success(startNanos, result);
+					return result;
+				}
+			},
+			new Callback<Exception, Exception>() {
+				@Override
+				public Exception call(final Exception ex) throws Exception {
+					failure(startNanos, ex);
+					return ex;
+				}
+			}
+		);
+	}
+
+	/**
+	 * Records a successful operation
+	 * @param startNanos The timestamp returned by {@link #start()}
+	 * @param result The operation result, from which returned key-values are counted
+	 */
+	void success(final long startNanos, final Object result) {
+		record(startNanos);
+		count(result);
+	}
+
+	/**
+	 * Records a failed operation
+	 * @param startNanos The timestamp returned by {@link #start()}
+	 * @param error The failure
+	 */
+	void failure(final long startNanos, final Throwable error) {
+		record(startNanos);
+		errors.increment();
+		if(isTimeout(error)) {
+			timeouts.increment();
+		}
+	}
+
+	/**
+	 * Records the latency of a completed operation
+	 * @param startNanos The timestamp returned by {@link #start()}
+	 */
+	private void record(final long startNanos) {
+		inFlight.decrementAndGet();
+		count.increment();
+		latencies.recordValue(Math.max(0L, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)));
+	}
+
+	/**
+	 * Counts the key-values and bytes in a result, which may be a row, a list of rows or a scalar
+	 * @param result The result to count
+	 */
+	void count(final Object result) {
+		if(!(result instanceof List)) return;
+		final List<?> list = (List<?>)result;
+		long kvs = 0, size = 0;
+		for(int i = 0, len = list.size(); i < len; i++) {
+			final Object o = list.get(i);
+			if(o instanceof KeyValue) {
+				final KeyValue kv = (KeyValue)o;
+				kvs++;
+				size += kv.key().length + kv.family().length + kv.qualifier().length + kv.value().length;
+			} else if(o instanceof List) {
+				count(o);
+			}
+		}
+		if(kvs > 0) {
+			keyValues.add(kvs);
+			bytes.add(size);
+		}
+	}
+
+	/**
+	 * Determines if the passed failure is, or was caused by, a timeout
+	 * @param error The failure
+	 * @return true if the failure is a timeout
+	 */
+	static boolean isTimeout(final Throwable error) {
+		Throwable t = error;
+		for(int i = 0; t!=null && i < 8; i++, t = t.getCause()) {
+			if(t instanceof RpcTimedOutException) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+
+	@Override
+	public String getTable() {
+		return table;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getKeyValues() {
+		return keyValues.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getMeanLatency() {
+		return latencies.getMean();
+	}
+
+	@Override
+	public long getP50Latency() {
+		return latencies.getValueAtPercentile(50.0);
+	}
+
+	@Override
+	public long getP90Latency() {
+		return latencies.getValueAtPercentile(90.0);
+	}
+
+	@Override
+	public long getP99Latency() {
+		return latencies.getValueAtPercentile(99.0);
+	}
+
+	@Override
+	public long getP999Latency() {
+		return latencies.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getMaxLatency() {
+		return latencies.getMaxValue();
+	}
+
+	/**
+	 * Returns a copy of the latency histogram, in microseconds
+	 * @return the latency histogram
+	 */
+	public Histogram getLatencies() {
+		return latencies.copy();
+	}
+
+	@Override
+	public void reset() {
+		latencies.reset();
+		count.reset();
+		errors.reset();
+		timeouts.reset();
+		keyValues.reset();
+		bytes.reset();
+	}
+}
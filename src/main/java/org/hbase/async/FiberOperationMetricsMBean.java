@@ -0,0 +1,117 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+/**
+ * <p>Title: FiberOperationMetricsMBean</p>
+ * <p>Description: JMX interface for the metrics of one operation type against one table.
+ * Latencies are reported in microseconds.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberOperationMetricsMBean</code></p>
+ */
+public interface FiberOperationMetricsMBean {
+	/**
+	 * Returns the operation type
+	 * @return the operation type
+	 */
+	public String getOperation();
+
+	/**
+	 * Returns the table name
+	 * @return the table name
+	 */
+	public String getTable();
+
+	/**
+	 * Returns the number of completed operations, successful or not
+	 * @return the number of completed operations
+	 */
+	public long getCount();
+
+	/**
+	 * Returns the number of failed operations, including timeouts
+	 * @return the number of failed operations
+	 */
+	public long getErrors();
+
+	/**
+	 * Returns the number of operations that timed out
+	 * @return the number of timed out operations
+	 */
+	public long getTimeouts();
+
+	/**
+	 * Returns the number of operations currently in flight
+	 * @return the number of in-flight operations
+	 */
+	public int getInFlight();
+
+	/**
+	 * Returns the number of key-values returned
+	 * @return the number of key-values returned
+	 */
+	public long getKeyValues();
+
+	/**
+	 * Returns the number of key, family, qualifier and value bytes returned
+	 * @return the number of bytes returned
+	 */
+	public long getBytes();
+
+	/**
+	 * Returns the mean latency
+	 * @return the mean latency in microseconds
+	 */
+	public double getMeanLatency();
+
+	/**
+	 * Returns the median latency
+	 * @return the median latency in microseconds
+	 */
+	public long getP50Latency();
+
+	/**
+	 * Returns the 90th percentile latency
+	 * @return the 90th percentile latency in microseconds
+	 */
+	public long getP90Latency();
+
+	/**
+	 * Returns the 99th percentile latency
+	 * @return the 99th percentile latency in microseconds
+	 */
+	public long getP99Latency();
+
+	/**
+	 * Returns the 99.9th percentile latency
+	 * @return the 99.9th percentile latency in microseconds
+	 */
+	public long getP999Latency();
+
+	/**
+	 * Returns the maximum latency
+	 * @return the maximum latency in microseconds
+	 */
+	public long getMaxLatency();
+
+	/**
+	 * Resets the counters and the latency histogram. The in-flight gauge is not reset.
+	 */
+	public void reset();
+}
@@ -0,0 +1,267 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.Channels;
+import co.paralleluniverse.strands.channels.ReceivePort;
+import co.paralleluniverse.strands.concurrent.Semaphore;
+
+/**
+ * <p>Title: FiberParallelScan</p>
+ * <p>Description: Splits a {@link FiberScanRequest} at region boundaries and runs one scanner fiber per region,
+ * at most {@link #maxConcurrency(int)} at a time. Rows are delivered through a bounded channel, either
+ * unordered as soon as any region produces them, or in key order.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberParallelScan</code></p>
+ */
+public class FiberParallelScan {
+	/** The fiber client the region scans run on */
+	private final HBaseFiberClient fiberClient;
+	/** The scan providing the columns, filter, max rows and key range */
+	private final FiberScanRequest template;
+	/** The maximum number of concurrently running region scans */
+	private int maxConcurrency = Runtime.getRuntime().availableProcessors();
+	/** Indicates if rows should be delivered in key order */
+	private boolean ordered = false;
+	/** The number of rows buffered ahead of the consumer, per region when ordered */
+	private int bufferSize = FiberScanRequest.DEFAULT_STREAM_BUFFER;
+
+	/**
+	 * Creates a new FiberParallelScan
+	 * @param fiberClient The fiber client the region scans run on
+	 * @param template The scan providing the columns, filter, max rows and key range
+	 */
+	FiberParallelScan(final HBaseFiberClient fiberClient, final FiberScanRequest template) {
+		this.fiberClient = fiberClient;
+		this.template = template;
+	}
+
+	/**
+	 * Sets the maximum number of concurrently running region scans
+	 * @param maxConcurrency the maximum number of region scans
+	 * @return this builder
+	 */
+	public FiberParallelScan maxConcurrency(final int maxConcurrency) {
+		if(maxConcurrency < 1) throw new IllegalArgumentException("Invalid max concurrency: " + maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+		return this;
+	}
+
+	/**
+	 * Specifies if rows should be delivered in key order.
+	 * Unordered delivery has the highest throughput. Ordered delivery buffers each region's rows
+	 * until all the preceding regions have been delivered.
+	 * @param ordered true for key order, false otherwise
+	 * @return this builder
+	 */
+	public FiberParallelScan ordered(final boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows buffered ahead of the consumer, per region when ordered
+	 * @param bufferSize the buffer size
+	 * @return this builder
+	 */
+	public FiberParallelScan bufferSize(final int bufferSize) {
+		if(bufferSize < 1) throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * Starts the parallel scan.
+	 * The port returns null once all regions are exhausted, and throws a <code>ProducerException</code> if any region scan fails.
+	 * Closing the port stops all region scans.
+	 * @return the port to receive rows from
+	 */
+	public ReceivePort<ArrayList<KeyValue>> stream() {
+		final Channel<ArrayList<KeyValue>> out = Channels.newChannel(bufferSize, Channels.OverflowPolicy.BLOCK, false, true);
+		spawn("FiberParallelScan", new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution, InterruptedException {
+				try {
+					final List<FiberScanRequest> scans = split();
+					if(ordered) {
+						streamOrdered(scans, out);
+					} else {
+						streamUnordered(scans, out);
+					}
+				} catch (RuntimeException ex) {
+					out.close(ex);
+				} catch (InterruptedException ex) {
+					out.close(ex);
+				}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Splits the template scan's key range at the table's region boundaries
+	 * @return one scan per region overlapping the key range, in key order
+	 */
+	List<FiberScanRequest> split() throws SuspendExecution {
+		final byte[] start = template.getStartKey();
+		final byte[] stop = template.getStopKey();
+		final List<RegionLocation> regions = fiberClient.getRegionLocator().locate(template.getTable().getBytes());
+		final List<FiberScanRequest> scans = new ArrayList<FiberScanRequest>(regions.size());
+		for(final RegionLocation region: regions) {
+			final byte[] regionStart = region.startKey();
+			final byte[] regionStop = region.stopKey();
+			final byte[] rangeStart = Bytes.memcmp(regionStart, start) > 0 ? regionStart : start;
+			final byte[] rangeStop;
+			if(stop.length==0) {
+				rangeStop = regionStop;
+			} else if(regionStop.length==0) {
+				rangeStop = stop;
+			} else {
+				rangeStop = Bytes.memcmp(regionStop, stop) < 0 ? regionStop : stop;
+			}
+			if(rangeStop.length!=0 && Bytes.memcmp(rangeStart, rangeStop) >= 0) continue;
+			scans.add(template.forRange(rangeStart, rangeStop));
+		}
+		return scans;
+	}
+
+	/**
+	 * Runs the region scans, all sending into the output channel
+	 * @param scans The region scans
+	 * @param out The output channel
+	 */
+	private void streamUnordered(final List<FiberScanRequest> scans, final Channel<ArrayList<KeyValue>> out) throws SuspendExecution, InterruptedException {
+		if(scans.isEmpty()) {
+			out.close();
+			return;
+		}
+		final Semaphore permits = new Semaphore(maxConcurrency);
+		final AtomicInteger remaining = new AtomicInteger(scans.size());
+		for(final FiberScanRequest scan: scans) {
+			permits.acquire();
+			if(out.isClosed()) {
+				permits.release();
+				break;
+			}
+			spawn("FiberParallelScanRegion", new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution, InterruptedException {
+					try {
+						scan.produce(out);
+					} catch (RuntimeException ex) {
+						out.close(ex);
+					} catch (InterruptedException ex) {
+						out.close(ex);
+					} finally {
+						permits.release();
+						if(remaining.decrementAndGet()==0) {
+							out.close();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs the region scans, each sending into its own channel, and forwards the region channels
+	 * to the output channel in key order. Region scans are launched in key order, so the region being
+	 * forwarded always holds a permit.
+	 * @param scans The region scans
+	 * @param out The output channel
+	 */
+	private void streamOrdered(final List<FiberScanRequest> scans, final Channel<ArrayList<KeyValue>> out) throws SuspendExecution, InterruptedException {
+		final List<Channel<ArrayList<KeyValue>>> regionChannels = new ArrayList<Channel<ArrayList<KeyValue>>>(scans.size());
+		for(int i = 0; i < scans.size(); i++) {
+			final Channel<ArrayList<KeyValue>> ch = Channels.newChannel(bufferSize, Channels.OverflowPolicy.BLOCK, true, true);
+			regionChannels.add(ch);
+		}
+		spawn("FiberParallelScanLauncher", new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution, InterruptedException {
+				final Semaphore permits = new Semaphore(maxConcurrency);
+				int launched = 0;
+				try {
+					for(; launched < scans.size(); launched++) {
+						permits.acquire();
+						if(out.isClosed()) {
+							permits.release();
+							break;
+						}
+						final FiberScanRequest scan = scans.get(launched);
+						final Channel<ArrayList<KeyValue>> ch = regionChannels.get(launched);
+						spawn("FiberParallelScanRegion", new SuspendableRunnable() {
+							@Override
+							public void run() throws SuspendExecution, InterruptedException {
+								try {
+									scan.produce(ch);
+									ch.close();
+								} catch (RuntimeException ex) {
+									ch.close(ex);
+								} catch (InterruptedException ex) {
+									ch.close(ex);
+								} finally {
+									permits.release();
+								}
+							}
+						});
+					}
+				} finally {
+					// unblock the forwarder if the scan was abandoned before every region was launched
+					for(int i = launched; i < scans.size(); i++) {
+						regionChannels.get(i).close();
+					}
+				}
+			}
+		});
+		try {
+			forward:
+			for(final Channel<ArrayList<KeyValue>> ch: regionChannels) {
+				ArrayList<KeyValue> row;
+				while((row = ch.receive())!=null) {
+					out.send(row);
+					if(out.isClosed()) break forward;
+				}
+			}
+			out.close();
+		} catch (RuntimeException ex) {
+			out.close(ex);
+		} finally {
+			for(final Channel<ArrayList<KeyValue>> ch: regionChannels) {
+				ch.close();
+			}
+		}
+	}
+
+	/**
+	 * Starts a strand of the client's execution mode
+	 * @param name The strand name
+	 * @param runnable The strand body
+	 */
+	private void spawn(final String name, final SuspendableRunnable runnable) {
+		fiberClient.spawn(name, runnable);
+	}
+}
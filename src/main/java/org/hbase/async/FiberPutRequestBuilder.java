@@ -0,0 +1,277 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberPutRequestBuilder</p>
+ * <p>Description: RPC builder for a PutRequest. Bufferable puts (the default) are coalesced with puts from
+ * other fibers into per-region batches by the client's {@link FiberWriteBuffer}, and the executing fiber
+ * suspends until its batch is acknowledged.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberPutRequestBuilder</code></p>
+ */
+
+public class FiberPutRequestBuilder extends FiberHBaseRPCBuilder<FiberPutRequestBuilder, Object, PutRequest, FiberPutRequestBuilder.FiberPutRequest> {
+
+	/** The fixed per-edit overhead added to the estimated size of a put */
+	static final int EDIT_OVERHEAD = 64;
+
+	/** The single value to put */
+	byte[] value = null;
+	/** The multi values to put, one per qualifier */
+	byte[][] values = null;
+	/** The timestamp of the edit. Defaults to {@link KeyValue#TIMESTAMP_NOW} */
+	long timestamp = KeyValue.TIMESTAMP_NOW;
+	/** Indicates if the edit should be written to the WAL */
+	boolean durable = true;
+	/** Indicates if the edit can be buffered and batched with other edits */
+	boolean bufferable = true;
+
+
+	/**
+	 * Creates a new FiberPutRequestBuilder
+	 * @param fiberClient The fiber client to build rpcs for
+	 */
+	public FiberPutRequestBuilder(final HBaseFiberClient fiberClient) {
+		super(fiberClient);
+	}
+
+	@Override
+	public PutRequest buildRpc() {
+		if(table==null) throw new IllegalStateException("The table specifier is null");
+		if(key==null) throw new IllegalStateException("The key specifier is null");
+		if(family==null) throw new IllegalStateException("The family specifier is null");
+		final byte[][] quals = qualifiers!=null ? qualifiers : (qualifier!=null ? new byte[][]{qualifier} : null);
+		final byte[][] vals = values!=null ? values : (value!=null ? new byte[][]{value} : null);
+		if(quals==null) throw new IllegalStateException("The qualifier specifier is null");
+		if(vals==null) throw new IllegalStateException("The value specifier is null");
+		if(quals.length!=vals.length) throw new IllegalStateException("Qualifier count [" + quals.length + "] does not match value count [" + vals.length + "]");
+		final PutRequest p = new PutRequest(table, key, family, quals, vals, timestamp);
+		super.apply(p);
+		apply(p);
+		return p;
+	}
+
+	@Override
+	public FiberPutRequest buildAsyncRpc() {
+		final PutRequest p = buildRpc();
+		final FiberPutRequest f = new FiberPutRequest(fiberClient, p, estimateSize());
+		return f;
+	}
+
+	@Override
+	public FiberPutRequestBuilder reset() {
+		value = null;
+		values = null;
+		timestamp = KeyValue.TIMESTAMP_NOW;
+		durable = true;
+		bufferable = true;
+		return super.reset();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.hbase.async.FiberHBaseRPCBuilder#apply(org.hbase.async.HBaseRpc)
+	 */
+	@Override
+	PutRequest apply(final PutRequest p) {
+		p.setDurable(durable);
+		p.setBufferable(bufferable);
+		return p;
+	}
+
+	/**
+	 * Estimates the number of bytes the built put will occupy in the write buffer
+	 * @return the estimated size in bytes
+	 */
+	long estimateSize() {
+		long size = EDIT_OVERHEAD + key.length + family.length;
+		if(qualifiers!=null) {
+			for(final byte[] q: qualifiers) size += q.length;
+		} else if(qualifier!=null) {
+			size += qualifier.length;
+		}
+		if(values!=null) {
+			for(final byte[] v: values) size += v.length;
+		} else if(value!=null) {
+			size += value.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Sets the value bytes
+	 * @param value the value bytes to set
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder value(final byte[] value) {
+		KeyValue.checkValue(value);
+		this.value = value;
+		return this;
+	}
+
+	/**
+	 * Sets the value
+	 * @param value the value to set
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder value(final String value) {
+		return value(value.getBytes());
+	}
+
+	/**
+	 * Sets the multi values, one for each of the multi qualifiers
+	 * @param values the values bytes to set
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder values(final byte[]... values) {
+		for(final byte[] b: values) {
+			KeyValue.checkValue(b);
+		}
+		this.values = values;
+		return this;
+	}
+
+	/**
+	 * Sets the timestamp of the edit
+	 * @param timestamp the timestamp to set
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder timestamp(final long timestamp) {
+		KeyValue.checkTimestamp(timestamp);
+		this.timestamp = timestamp;
+		return this;
+	}
+
+	/**
+	 * Specifies if the edit should be written to the WAL
+	 * @param durable true to write to the WAL, false otherwise
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder durable(final boolean durable) {
+		this.durable = durable;
+		return this;
+	}
+
+	/**
+	 * Specifies if the edit can be buffered and batched with other edits
+	 * @param bufferable true to allow buffering, false to send the edit immediately
+	 * @return this builder
+	 */
+	public FiberPutRequestBuilder bufferable(final boolean bufferable) {
+		this.bufferable = bufferable;
+		return this;
+	}
+
+	/**
+	 * Returns the single value bytes
+	 * @return the value bytes
+	 */
+	public byte[] getValue() {
+		return value;
+	}
+
+	/**
+	 * Returns the multi value bytes
+	 * @return the multi value bytes
+	 */
+	public byte[][] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the timestamp of the edit
+	 * @return the timestamp of the edit
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Indicates if the edit will be written to the WAL
+	 * @return true if the edit will be written to the WAL, false otherwise
+	 */
+	public boolean isDurable() {
+		return durable;
+	}
+
+	/**
+	 * Indicates if the edit can be buffered and batched with other edits
+	 * @return true if the edit can be buffered, false otherwise
+	 */
+	public boolean isBufferable() {
+		return bufferable;
+	}
+
+	/**
+	 * <p>Title: FiberPutRequest</p>
+	 * <p>Description: A quasar fiber driven wrapper for a {@link PutRequest}</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.hbase.async.FiberPutRequestBuilder.FiberPutRequest</code></p>
+	 */
+	public static class FiberPutRequest extends FiberHBaseRPC<Object, PutRequest> {
+		/**  */
+		private static final long serialVersionUID = -2394846618723471935L;
+		/** The estimated size of the put in bytes */
+		private final long size;
+
+		/**
+		 * Creates a new FiberPutRequest
+		 * @param fiberClient The fiber client to execute with
+		 * @param hbPut The put request to execute
+		 * @param size The estimated size of the put in bytes
+		 */
+		FiberPutRequest(final HBaseFiberClient fiberClient, final PutRequest hbPut, final long size) {
+			super(fiberClient, hbPut);
+			this.size = size;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#operation()
+		 */
+		@Override
+		protected String operation() {
+			return FiberClientMetrics.OP_PUT;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * Buffered puts are sent in batches by the write buffer, so only unbuffered puts are admitted.
+		 * @see org.hbase.async.FiberHBaseRPC#admitted()
+		 */
+		@Override
+		protected boolean admitted() {
+			return !hbaseRpc.canBuffer();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.hbase.async.FiberHBaseRPC#invoke(org.hbase.async.HBaseRpc)
+		 */
+		@Override
+		protected Deferred<Object> invoke(final PutRequest hbaseRpc) {
+			return fiberClient.invalidating(hbaseRpc.table(), hbaseRpc.key(),
+				fiberClient.getWriteBuffer().put(hbaseRpc, size));
+		}
+	}
+
+}
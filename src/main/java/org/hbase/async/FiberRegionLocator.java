@@ -0,0 +1,163 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.paralleluniverse.fibers.Suspendable;
+
+/**
+ * <p>Title: FiberRegionLocator</p>
+ * <p>Description: Caches the region locations of tables, sorted by start key, so that keys and key ranges
+ * can be mapped to regions and region servers without a META lookup per operation.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRegionLocator</code></p>
+ */
+final class FiberRegionLocator {
+	/** Config key for the time in ms cached region locations are used before being refreshed. Defaults to 60000 */
+	public static final String CONFIG_CACHE_TTL = "hbase.fiber.region.cache.ttl";
+	/** The default region cache ttl in ms */
+	public static final int DEFAULT_CACHE_TTL = 60000;
+
+	/** Lossless charset used to key the cache by table name */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	/** Orders region locations by start key */
+	private static final Comparator<RegionLocation> START_KEY_ORDER = new Comparator<RegionLocation>() {
+		@Override
+		public int compare(final RegionLocation r1, final RegionLocation r2) {
+			return Bytes.memcmp(r1.startKey(), r2.startKey());
+		}
+	};
+
+	/** The operations used to locate regions */
+	private final FiberHBaseOperations hbClient;
+	/** The cache ttl in ms */
+	private final long ttl;
+	/** The cached region locations keyed by table name */
+	private final ConcurrentHashMap<String, CachedRegions> cache = new ConcurrentHashMap<String, CachedRegions>();
+
+	/**
+	 * Creates a new FiberRegionLocator
+	 * @param hbClient The operations used to locate regions
+	 * @param config The config to read the locator options from
+	 */
+	FiberRegionLocator(final FiberHBaseOperations hbClient, final Config config) {
+		this.hbClient = hbClient;
+		ttl = HBaseFiberClient.configInt(config, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL);
+	}
+
+	/**
+	 * Returns the region locations of the passed table sorted by start key, looking them up if not cached or expired
+	 * @param table The table name
+	 * @return the sorted region locations
+	 */
+	@Suspendable
+	List<RegionLocation> locate(final byte[] table) {
+		final String tableKey = new String(table, ISO_8859_1);
+		final CachedRegions cached = cache.get(tableKey);
+		if(cached!=null && cached.expiry > System.currentTimeMillis()) {
+			return cached.regions;
+		}
+		final List<RegionLocation> regions = new ArrayList<RegionLocation>(FiberDeferred.await(hbClient.locateRegions(table)));
+		Collections.sort(regions, START_KEY_ORDER);
+		final List<RegionLocation> sorted = Collections.unmodifiableList(regions);
+		cache.put(tableKey, new CachedRegions(sorted, System.currentTimeMillis() + ttl));
+		return sorted;
+	}
+
+	/**
+	 * Returns the cached location of the region hosting the passed key, without looking it up
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the region location or null if the table's regions are not cached
+	 */
+	RegionLocation cached(final byte[] table, final byte[] key) {
+		final CachedRegions cached = cache.get(new String(table, ISO_8859_1));
+		return cached==null ? null : find(cached.regions, key);
+	}
+
+	/**
+	 * Returns the cached region locations of the passed table, without looking them up, even if they have expired
+	 * @param table The table name
+	 * @return the sorted region locations, empty if the table's regions are not cached
+	 */
+	List<RegionLocation> cached(final byte[] table) {
+		final CachedRegions cached = cache.get(new String(table, ISO_8859_1));
+		return cached==null ? Collections.<RegionLocation>emptyList() : cached.regions;
+	}
+
+	/**
+	 * Finds the region hosting the passed key in a start key sorted list of regions
+	 * @param regions The sorted region locations
+	 * @param key The row key
+	 * @return the hosting region location, or null if the list is empty
+	 */
+	static RegionLocation find(final List<RegionLocation> regions, final byte[] key) {
+		int low = 0, high = regions.size() - 1;
+		RegionLocation found = null;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			final RegionLocation r = regions.get(mid);
+			if(Bytes.memcmp(r.startKey(), key) <= 0) {
+				found = r;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the <b>host:port</b> of the region server hosting the passed region
+	 * @param region The region location
+	 * @return the region server address
+	 */
+	static String server(final RegionLocation region) {
+		return region.getHostname() + ":" + region.getPort();
+	}
+
+	/**
+	 * Discards the cached region locations of the passed table
+	 * @param table The table name
+	 */
+	void invalidate(final byte[] table) {
+		cache.remove(new String(table, ISO_8859_1));
+	}
+
+	/**
+	 * <p>Title: CachedRegions</p>
+	 * <p>Description: A table's sorted region locations and their expiry time</p>
+	 * <p><code>org.hbase.async.FiberRegionLocator.CachedRegions</code></p>
+	 */
+	private static final class CachedRegions {
+		final List<RegionLocation> regions;
+		final long expiry;
+
+		CachedRegions(final List<RegionLocation> regions, final long expiry) {
+			this.regions = regions;
+			this.expiry = expiry;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+
+/**
+ * <p>Title: FiberRetrier</p>
+ * <p>Description: Retries failed operations with exponential backoff and jitter. Backoffs are
+ * {@link Strand#sleep(long, TimeUnit) strand sleeps}, so a retrying fiber holds no carrier thread.
+ * Failures are classified by exception type:</p><ul>
+ * <li>region moves, region opening or offline, server not running yet and {@link PleaseThrottleException}s are retried,
+ * since the rpc was rejected before it was applied</li>
+ * <li>connection resets and rpc timeouts are retried for idempotent operations only, since the rpc may have been applied</li>
+ * <li>everything else, including a {@link DeadlineExceededException}, is fatal</li>
+ * </ul><p>Additional exception classes can be declared retryable or fatal in the config. Retries are capped at
+ * a percentage of operations, so a failing cluster does not receive a retry storm, and no retry is attempted if its
+ * backoff would outlast the caller's {@link FiberDeadline}.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRetrier</code></p>
+ */
+public final class FiberRetrier {
+	/** Config key for the maximum attempts per operation, including the first one. Defaults to 3, 1 disables retries */
+	public static final String CONFIG_RETRY_MAX_ATTEMPTS = "hbase.fiber.retry.max.attempts";
+	/** Config key for the backoff before the first retry in ms, doubled for every further retry. Defaults to 10 */
+	public static final String CONFIG_RETRY_BASE_DELAY = "hbase.fiber.retry.base.delay.ms";
+	/** Config key for the maximum backoff in ms. Defaults to 1000 */
+	public static final String CONFIG_RETRY_MAX_DELAY = "hbase.fiber.retry.max.delay.ms";
+	/** Config key for the maximum retries, as a percentage of operations. Defaults to 10 */
+	public static final String CONFIG_RETRY_BUDGET_PERCENT = "hbase.fiber.retry.budget.percent";
+	/** Config key for a comma separated list of additional retryable exception class names */
+	public static final String CONFIG_RETRY_RETRYABLE = "hbase.fiber.retry.retryable";
+	/** Config key for a comma separated list of additional fatal exception class names, which take precedence */
+	public static final String CONFIG_RETRY_FATAL = "hbase.fiber.retry.fatal";
+
+	/** The retries allowed in a burst */
+	private static final int MAX_BURST = 10;
+
+	/** The maximum attempts per operation */
+	private final int maxAttempts;
+	/** The backoff before the first retry in ms */
+	private final long baseDelay;
+	/** The maximum backoff in ms */
+	private final long maxDelay;
+	/** Caps the retries at a percentage of operations */
+	private final FiberBudget budget;
+	/** The additional retryable exception types */
+	private final List<Class<?>> retryable;
+	/** The additional fatal exception types */
+	private final List<Class<?>> fatal;
+	/** The number of operations */
+	private final AtomicLong operations = new AtomicLong(0L);
+	/** The number of retries */
+	private final AtomicLong retries = new AtomicLong(0L);
+	/** The number of retries not attempted because the retry budget was exhausted */
+	private final AtomicLong throttled = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberRetrier
+	 * @param config The config to read the retry options from
+	 */
+	FiberRetrier(final Config config) {
+		maxAttempts = HBaseFiberClient.configInt(config, CONFIG_RETRY_MAX_ATTEMPTS, 3);
+		baseDelay = HBaseFiberClient.configInt(config, CONFIG_RETRY_BASE_DELAY, 10);
+		maxDelay = HBaseFiberClient.configInt(config, CONFIG_RETRY_MAX_DELAY, 1000);
+		if(maxAttempts < 1) throw new IllegalArgumentException("Invalid retry max attempts: " + maxAttempts);
+		if(baseDelay < 0 || maxDelay < baseDelay) throw new IllegalArgumentException("Invalid retry delays: " + baseDelay + "-" + maxDelay);
+		budget = new FiberBudget(HBaseFiberClient.configInt(config, CONFIG_RETRY_BUDGET_PERCENT, 10), MAX_BURST);
+		retryable = classes(config, CONFIG_RETRY_RETRYABLE);
+		fatal = classes(config, CONFIG_RETRY_FATAL);
+	}
+
+	/**
+	 * Runs the passed attempt, running it again after a backoff while it fails with a retryable exception
+	 * @param attempt The attempt, which must build a new rpc every time it is run
+	 * @param idempotent true if the operation can safely be applied more than once
+	 * @return the result of the first successful attempt
+	 * @throws HBaseException the failure of the last attempt
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	<R> R call(final Attempt<R> attempt, final boolean idempotent) throws HBaseException, SuspendExecution {
+		operations.incrementAndGet();
+		budget.earn();
+		for(int attempts = 1; ; attempts++) {
+			try {
+				return attempt.run();
+			} catch (RuntimeException ex) {
+				if(attempts >= maxAttempts || !isRetryable(ex, idempotent)) throw ex;
+				final long backoff = backoff(attempts);
+				final FiberDeadline deadline = FiberDeadline.current();
+				if(deadline!=null && deadline.remaining(TimeUnit.MILLISECONDS) <= backoff) throw ex;
+				if(!budget.spend()) {
+					throttled.incrementAndGet();
+					throw ex;
+				}
+				retries.incrementAndGet();
+				sleep(backoff);
+			}
+		}
+	}
+
+	/**
+	 * Determines if the passed failure is worth retrying
+	 * @param failure The failure
+	 * @param idempotent true if the failed operation can safely be applied more than once
+	 * @return true if the operation should be retried
+	 */
+	boolean isRetryable(final Throwable failure, final boolean idempotent) {
+		final Throwable error = unwrap(failure);
+		if(isInstance(fatal, error) || error instanceof DeadlineExceededException) return false;
+		if(isInstance(retryable, error)) return true;
+		if(error instanceof NotServingRegionException || error instanceof RegionOpeningException
+			|| error instanceof RegionOfflineException || error instanceof PleaseThrottleException) return true;
+		if(error instanceof ConnectionResetException || error instanceof RpcTimedOutException) return idempotent;
+		return false;
+	}
+
+	/**
+	 * Returns the first HBaseException in the cause chain of the passed failure
+	 * @param failure The failure, which may wrap the HBaseException
+	 * @return the HBaseException, or the failure itself if there is none
+	 */
+	private static Throwable unwrap(final Throwable failure) {
+		Throwable t = failure;
+		for(int i = 0; t!=null && i < 8; i++, t = t.getCause()) {
+			if(t instanceof HBaseException) return t;
+		}
+		return failure;
+	}
+
+	/**
+	 * Returns the number of operations run through this retrier
+	 * @return the number of operations
+	 */
+	public long getOperations() {
+		return operations.get();
+	}
+
+	/**
+	 * Returns the number of retries
+	 * @return the number of retries
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Returns the number of retries not attempted because the retry budget was exhausted
+	 * @return the number of throttled retries
+	 */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Returns the backoff before a retry: exponential, capped, with the upper half jittered
+	 * @param attempts The number of failed attempts
+	 * @return the backoff in ms
+	 */
+	long backoff(final int attempts) {
+		final long exp = Math.min(maxDelay, baseDelay << Math.min(30, attempts - 1));
+		final long half = exp / 2;
+		return half + (exp - half > 0 ? ThreadLocalRandom.current().nextLong(exp - half + 1) : 0L);
+	}
+
+	/**
+	 * Sleeps the current strand
+	 * @param millis The time to sleep in ms
+	 * @throws SuspendExecution Will not be thrown
+	 */
+	static void sleep(final long millis) throws SuspendExecution {
+		if(millis <= 0) return;
+		try {
+			Strand.sleep(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while backing off", iex);
+		}
+	}
+
+	/**
+	 * Determines if the passed failure is an instance of any of the passed types
+	 * @param types The exception types
+	 * @param error The failure
+	 * @return true if the failure is an instance of one of the types
+	 */
+	private static boolean isInstance(final List<Class<?>> types, final Throwable error) {
+		for(final Class<?> type: types) {
+			if(type.isInstance(error)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Loads the exception classes listed in a config property
+	 * @param config The config
+	 * @param key The config key of the comma separated class names
+	 * @return the exception classes
+	 */
+	private static List<Class<?>> classes(final Config config, final String key) {
+		final List<Class<?>> types = new ArrayList<Class<?>>();
+		if(!config.hasProperty(key)) return types;
+		for(final String name: config.getString(key).split(",")) {
+			final String className = name.trim();
+			if(className.isEmpty()) continue;
+			try {
+				types.add(Class.forName(className));
+			} catch (ClassNotFoundException ex) {
+				throw new IllegalArgumentException("Unknown exception class in " + key + ": " + className, ex);
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * <p>Title: Attempt</p>
+	 * <p>Description: One attempt of a retried operation</p>
+	 * <p><code>org.hbase.async.FiberRetrier.Attempt</code></p>
+	 * @param <R> The operation result type
+	 */
+	interface Attempt<R> {
+		/**
+		 * Runs the attempt
+		 * @return the attempt result
+		 * @throws SuspendExecution Will not be thrown
+		 */
+		R run() throws SuspendExecution;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <p>Title: FiberRow</p>
+ * <p>Description: A read-only view over the key-values of one row, as returned by a get or a scanner batch.
+ * Nothing is copied: columns are located by family and qualifier, using a binary search when the cells are in
+ * HBase order (as returned by a region server), and values are decoded straight from the value bytes.
+ * Names are compared as bytes, so callers should encode them once and reuse them.
+ * When a column has several versions, the first one returned (the most recent) is used.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRow</code></p>
+ */
+public final class FiberRow implements Iterable<KeyValue> {
+	/** The row's key-values */
+	private final List<KeyValue> kvs;
+	/** Indicates if the key-values are sorted by family and qualifier */
+	private final boolean sorted;
+
+	/**
+	 * Creates a new FiberRow
+	 * @param kvs The row's key-values
+	 */
+	private FiberRow(final List<KeyValue> kvs) {
+		this.kvs = kvs;
+		sorted = kvs instanceof RandomAccess && isSorted(kvs);
+	}
+
+	/**
+	 * Wraps the key-values of one row
+	 * @param kvs The row's key-values, which may be null or empty
+	 * @return the row view
+	 */
+	public static FiberRow wrap(final List<KeyValue> kvs) {
+		return new FiberRow(kvs==null ? Collections.<KeyValue>emptyList() : kvs);
+	}
+
+	/**
+	 * Returns a view over a batch of rows, such as one returned by a scanner.
+	 * Each row is wrapped when it is accessed.
+	 * @param rows The rows, which may be null
+	 * @return the row views
+	 */
+	public static List<FiberRow> rows(final List<? extends List<KeyValue>> rows) {
+		if(rows==null) return Collections.emptyList();
+		return new RowList(rows);
+	}
+
+	/**
+	 * Returns the row key
+	 * @return the row key, or null if the row is empty
+	 */
+	public byte[] key() {
+		return kvs.isEmpty() ? null : kvs.get(0).key();
+	}
+
+	/**
+	 * Returns the number of key-values in the row
+	 * @return the number of key-values
+	 */
+	public int size() {
+		return kvs.size();
+	}
+
+	/**
+	 * Indicates if the row has no key-values, meaning it was not found
+	 * @return true if the row is empty
+	 */
+	public boolean isEmpty() {
+		return kvs.isEmpty();
+	}
+
+	/**
+	 * Returns the wrapped key-values
+	 * @return the key-values
+	 */
+	public List<KeyValue> keyValues() {
+		return kvs;
+	}
+
+	@Override
+	public Iterator<KeyValue> iterator() {
+		return kvs.iterator();
+	}
+
+	/**
+	 * Returns the index of the most recent key-value of the passed column
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @return the index, or -1 if the row has no such column
+	 */
+	public int indexOf(final byte[] family, final byte[] qualifier) {
+		if(!sorted) {
+			for(int i = 0, len = kvs.size(); i < len; i++) {
+				if(compare(kvs.get(i), family, qualifier)==0) return i;
+			}
+			return -1;
+		}
+		int lo = 0, hi = kvs.size() - 1, found = -1;
+		while(lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int c = compare(kvs.get(mid), family, qualifier);
+			if(c < 0) {
+				lo = mid + 1;
+			} else {
+				if(c==0) found = mid;
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Indicates if the row has the passed column
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @return true if the column is present
+	 */
+	public boolean has(final byte[] family, final byte[] qualifier) {
+		return indexOf(family, qualifier)!=-1;
+	}
+
+	/**
+	 * Returns the most recent key-value of the passed column
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @return the key-value, or null if the row has no such column
+	 */
+	public KeyValue column(final byte[] family, final byte[] qualifier) {
+		final int index = indexOf(family, qualifier);
+		return index==-1 ? null : kvs.get(index);
+	}
+
+	/**
+	 * Returns the value of the passed column. The returned array is shared and must not be modified.
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @return the value, or null if the row has no such column
+	 */
+	public byte[] value(final byte[] family, final byte[] qualifier) {
+		final int index = indexOf(family, qualifier);
+		return index==-1 ? null : kvs.get(index).value();
+	}
+
+	/**
+	 * Indicates if the value of the passed column equals the passed bytes
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @param expected The expected value
+	 * @return true if the column is present and its value equals the expected bytes
+	 */
+	public boolean valueEquals(final byte[] family, final byte[] qualifier, final byte[] expected) {
+		final byte[] v = value(family, qualifier);
+		return v!=null && Bytes.equals(v, expected);
+	}
+
+	/**
+	 * Decodes the value of the passed column as a big-endian long, such as a counter
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @param defaultValue The value returned if the row has no such column
+	 * @return the decoded value
+	 * @throws IllegalArgumentException thrown if the value is not 8 bytes long
+	 */
+	public long getLong(final byte[] family, final byte[] qualifier, final long defaultValue) {
+		final byte[] v = value(family, qualifier);
+		if(v==null) return defaultValue;
+		checkLength(v, 8, family, qualifier);
+		return Bytes.getLong(v);
+	}
+
+	/**
+	 * Decodes the value of the passed column as a big-endian int
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @param defaultValue The value returned if the row has no such column
+	 * @return the decoded value
+	 * @throws IllegalArgumentException thrown if the value is not 4 bytes long
+	 */
+	public int getInt(final byte[] family, final byte[] qualifier, final int defaultValue) {
+		final byte[] v = value(family, qualifier);
+		if(v==null) return defaultValue;
+		checkLength(v, 4, family, qualifier);
+		return Bytes.getInt(v);
+	}
+
+	/**
+	 * Decodes the value of the passed column as the big-endian bits of a double
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @param defaultValue The value returned if the row has no such column
+	 * @return the decoded value
+	 * @throws IllegalArgumentException thrown if the value is not 8 bytes long
+	 */
+	public double getDouble(final byte[] family, final byte[] qualifier, final double defaultValue) {
+		final byte[] v = value(family, qualifier);
+		if(v==null) return defaultValue;
+		checkLength(v, 8, family, qualifier);
+		return Double.longBitsToDouble(Bytes.getLong(v));
+	}
+
+	@Override
+	public String toString() {
+		return "FiberRow [key=" + (kvs.isEmpty() ? "<empty>" : Bytes.pretty(key())) + ", size=" + kvs.size() + "]";
+	}
+
+	/**
+	 * Checks the length of a value to decode
+	 * @param value The value
+	 * @param length The expected length
+	 * @param family The family, for the error message
+	 * @param qualifier The qualifier, for the error message
+	 */
+	private static void checkLength(final byte[] value, final int length, final byte[] family, final byte[] qualifier) {
+		if(value.length!=length) {
+			throw new IllegalArgumentException("Value of " + Bytes.pretty(family) + ':' + Bytes.pretty(qualifier)
+				+ " is " + value.length + " bytes, expected " + length);
+		}
+	}
+
+	/**
+	 * Compares the column of a key-value to the passed column
+	 * @param kv The key-value
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @return a negative, zero or positive value as the key-value's column sorts before, equal to or after the passed column
+	 */
+	private static int compare(final KeyValue kv, final byte[] family, final byte[] qualifier) {
+		final int c = Bytes.memcmp(kv.family(), family);
+		return c!=0 ? c : Bytes.memcmp(kv.qualifier(), qualifier);
+	}
+
+	/**
+	 * Determines if the passed key-values are sorted by family and qualifier
+	 * @param kvs The key-values
+	 * @return true if they are sorted
+	 */
+	private static boolean isSorted(final List<KeyValue> kvs) {
+		for(int i = 1, len = kvs.size(); i < len; i++) {
+			final KeyValue prev = kvs.get(i - 1);
+			if(compare(prev, kvs.get(i).family(), kvs.get(i).qualifier()) > 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * <p>Title: RowList</p>
+	 * <p>Description: A list of row views over a batch of rows, wrapping each row when accessed</p>
+	 * <p><code>org.hbase.async.FiberRow.RowList</code></p>
+	 */
+	private static final class RowList extends AbstractList<FiberRow> implements RandomAccess {
+		/** The rows */
+		private final List<? extends List<KeyValue>> rows;
+
+		/**
+		 * Creates a new RowList
+		 * @param rows The rows
+		 */
+		RowList(final List<? extends List<KeyValue>> rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public FiberRow get(final int index) {
+			return new FiberRow(rows.get(index));
+		}
+
+		@Override
+		public int size() {
+			return rows.size();
+		}
+	}
+}
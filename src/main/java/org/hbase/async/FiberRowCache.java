@@ -0,0 +1,440 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberRowCache</p>
+ * <p>Description: Opt-in, client side read-through cache for gets. Entries are keyed by table, key, family and qualifiers,
+ * grouped by row so that a write through the same client invalidates every cached column selection of the row.
+ * The cache is split into segments, each an access ordered LRU bounded by its share of {@link #CONFIG_CACHE_BYTES}.
+ * Entries expire after the table's ttl, set with <b>hbase.fiber.cache.ttl.&lt;table&gt;</b> or {@link #setTableTtl(String, long)},
+ * falling back to {@link #CONFIG_CACHE_TTL}.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRowCache</code></p>
+ */
+public final class FiberRowCache {
+	/** Config key for the maximum number of bytes cached. Defaults to 32 MB */
+	public static final String CONFIG_CACHE_BYTES = "hbase.fiber.cache.bytes";
+	/** Config key for the default entry ttl in ms. Defaults to 60000 */
+	public static final String CONFIG_CACHE_TTL = "hbase.fiber.cache.ttl";
+	/** The default maximum number of bytes cached */
+	public static final int DEFAULT_CACHE_BYTES = 32 * 1024 * 1024;
+	/** The default entry ttl in ms */
+	public static final int DEFAULT_CACHE_TTL = 60000;
+	/** The number of cache segments */
+	static final int SEGMENTS = 16;
+	/** The fixed per-KeyValue overhead added to the estimated size of an entry */
+	static final int KV_OVERHEAD = 48;
+
+	/** Lossless charset used to key ttls by table name */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/** The config per-table ttls are read from */
+	private final Config config;
+	/** The default entry ttl in ms */
+	private final long defaultTtl;
+	/** The ms time source entries expire against */
+	private final LongSupplier clock;
+	/** The resolved ttls keyed by table name */
+	private final ConcurrentHashMap<String, Long> tableTtls = new ConcurrentHashMap<String, Long>();
+	/** The cache segments */
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private final AtomicLong hits = new AtomicLong(0L);
+	private final AtomicLong misses = new AtomicLong(0L);
+	private final AtomicLong evictions = new AtomicLong(0L);
+	private final AtomicLong expirations = new AtomicLong(0L);
+	private final AtomicLong invalidations = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberRowCache
+	 * @param config The config to read the cache options from
+	 */
+	FiberRowCache(final Config config) {
+		this(config, System::currentTimeMillis);
+	}
+
+	/**
+	 * Creates a new FiberRowCache
+	 * @param config The config to read the cache options from
+	 * @param clock The ms time source, {@link System#currentTimeMillis()} outside of tests
+	 */
+	FiberRowCache(final Config config, final LongSupplier clock) {
+		this.config = config;
+		this.clock = clock;
+		defaultTtl = HBaseFiberClient.configInt(config, CONFIG_CACHE_TTL, DEFAULT_CACHE_TTL);
+		final long maxBytes = HBaseFiberClient.configInt(config, CONFIG_CACHE_BYTES, DEFAULT_CACHE_BYTES);
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(maxBytes / SEGMENTS);
+		}
+	}
+
+	/**
+	 * Returns a copy of the cached key-values for the passed get
+	 * @param table The table
+	 * @param key The row key
+	 * @param family The family or null
+	 * @param qualifiers The qualifiers or null
+	 * @return the cached key-values or null on a miss
+	 */
+	ArrayList<KeyValue> get(final byte[] table, final byte[] key, final byte[] family, final byte[][] qualifiers) {
+		final RowKey rowKey = new RowKey(table, key);
+		final ArrayList<KeyValue> cached = segment(rowKey).get(rowKey, new ColumnsKey(family, qualifiers));
+		if(cached==null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new ArrayList<KeyValue>(cached);
+	}
+
+	/**
+	 * Returns the invalidation generation of the segment holding the passed row.
+	 * Capture it before fetching a row and pass it to {@link #put(byte[], byte[], byte[], byte[][], ArrayList, long)}
+	 * so a fetch that raced with a write is not cached.
+	 * @param table The table
+	 * @param key The row key
+	 * @return the current generation
+	 */
+	long generation(final byte[] table, final byte[] key) {
+		return segment(new RowKey(table, key)).generation;
+	}
+
+	/**
+	 * Caches the key-values fetched for the passed get, unless the row's segment was invalidated since the fetch started
+	 * @param table The table
+	 * @param key The row key
+	 * @param family The family or null
+	 * @param qualifiers The qualifiers or null
+	 * @param kvs The fetched key-values
+	 * @param generation The generation captured before the fetch
+	 */
+	void put(final byte[] table, final byte[] key, final byte[] family, final byte[][] qualifiers, final ArrayList<KeyValue> kvs, final long generation) {
+		final long ttl = ttl(table);
+		if(ttl <= 0) return;
+		long size = KV_OVERHEAD;
+		for(final KeyValue kv: kvs) {
+			size += KV_OVERHEAD + kv.key().length + kv.family().length + kv.qualifier().length + kv.value().length;
+		}
+		final RowKey rowKey = new RowKey(table, key);
+		segment(rowKey).put(rowKey, new ColumnsKey(family, qualifiers), new Entry(new ArrayList<KeyValue>(kvs), clock.getAsLong() + ttl, size), generation);
+	}
+
+	/**
+	 * Invalidates every cached column selection of the passed row
+	 * @param table The table
+	 * @param key The row key
+	 */
+	void invalidate(final byte[] table, final byte[] key) {
+		final RowKey rowKey = new RowKey(table, key);
+		if(segment(rowKey).invalidate(rowKey)) {
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Invalidates the passed row now and again once the passed write completes,
+	 * so a get that raced with the write is not served from the cache
+	 * @param table The table
+	 * @param key The row key
+	 * @param write The deferred write result
+	 * @return the deferred write result
+	 */
+	<T> Deferred<T> invalidating(final byte[] table, final byte[] key, final Deferred<T> write) {
+		invalidate(table, key);
+		return write.addBoth(new Callback<T, T>() {
+			@Override
+			public T call(final T result) throws Exception {
+				invalidate(table, key);
+				return result;	// pass through
+			}
+		});
+	}
+	
+	/**
+	 * Sets the entry ttl for a table, overriding the configured ttl
+	 * @param table The table name
+	 * @param ttl The ttl in ms. 0 disables caching for the table
+	 */
+	public void setTableTtl(final String table, final long ttl) {
+		tableTtls.put(table, ttl);
+	}
+
+	/**
+	 * Empties the cache
+	 */
+	public void clear() {
+		for(final Segment segment: segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Returns the ttl for the passed table
+	 * @param table The table
+	 * @return the ttl in ms
+	 */
+	private long ttl(final byte[] table) {
+		final String tableName = new String(table, ISO_8859_1);
+		Long ttl = tableTtls.get(tableName);
+		if(ttl==null) {
+			final String key = CONFIG_CACHE_TTL + "." + tableName;
+			ttl = config.hasProperty(key) ? config.getLong(key) : defaultTtl;
+			tableTtls.putIfAbsent(tableName, ttl);
+		}
+		return ttl;
+	}
+
+	private Segment segment(final RowKey rowKey) {
+		final int h = rowKey.hashCode;
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns the number of cache hits
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of cache misses
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of rows evicted to stay within the byte bound
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of expired entries dropped
+	 * @return the number of expirations
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * Returns the number of rows invalidated by writes
+	 * @return the number of invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the estimated number of bytes cached
+	 * @return the cached bytes
+	 */
+	public long getBytes() {
+		long bytes = 0L;
+		for(final Segment segment: segments) {
+			synchronized(segment) {
+				bytes += segment.bytes;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of cached rows
+	 * @return the number of rows
+	 */
+	public int getRows() {
+		int rows = 0;
+		for(final Segment segment: segments) {
+			synchronized(segment) {
+				rows += segment.rows.size();
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * <p>Title: Segment</p>
+	 * <p>Description: An access ordered, byte bounded LRU of rows</p>
+	 * <p><code>org.hbase.async.FiberRowCache.Segment</code></p>
+	 */
+	private final class Segment {
+		/** The cached rows in access order */
+		final LinkedHashMap<RowKey, Map<ColumnsKey, Entry>> rows = new LinkedHashMap<RowKey, Map<ColumnsKey, Entry>>(64, 0.75f, true);
+		/** The maximum number of bytes in this segment */
+		final long maxBytes;
+		/** The estimated number of bytes in this segment */
+		long bytes = 0L;
+		/** Incremented on every invalidation */
+		volatile long generation = 0L;
+
+		Segment(final long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized ArrayList<KeyValue> get(final RowKey rowKey, final ColumnsKey columnsKey) {
+			final Map<ColumnsKey, Entry> row = rows.get(rowKey);
+			if(row==null) return null;
+			final Entry entry = row.get(columnsKey);
+			if(entry==null) return null;
+			if(entry.expiry <= clock.getAsLong()) {
+				row.remove(columnsKey);
+				bytes -= entry.size;
+				if(row.isEmpty()) rows.remove(rowKey);
+				expirations.incrementAndGet();
+				return null;
+			}
+			return entry.kvs;
+		}
+
+		synchronized void put(final RowKey rowKey, final ColumnsKey columnsKey, final Entry entry, final long fetchGeneration) {
+			if(fetchGeneration!=generation || entry.size > maxBytes) return;
+			Map<ColumnsKey, Entry> row = rows.get(rowKey);
+			if(row==null) {
+				row = new HashMap<ColumnsKey, Entry>(4);
+				rows.put(rowKey, row);
+			}
+			final Entry prior = row.put(columnsKey, entry);
+			if(prior!=null) bytes -= prior.size;
+			bytes += entry.size;
+			final Iterator<Map<ColumnsKey, Entry>> iter = rows.values().iterator();
+			while(bytes > maxBytes && iter.hasNext()) {
+				final Map<ColumnsKey, Entry> eldest = iter.next();
+				if(eldest==row) continue;
+				for(final Entry e: eldest.values()) {
+					bytes -= e.size;
+				}
+				iter.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		synchronized boolean invalidate(final RowKey rowKey) {
+			generation++;
+			final Map<ColumnsKey, Entry> row = rows.remove(rowKey);
+			if(row==null) return false;
+			for(final Entry e: row.values()) {
+				bytes -= e.size;
+			}
+			return true;
+		}
+
+		synchronized void clear() {
+			generation++;
+			rows.clear();
+			bytes = 0L;
+		}
+	}
+
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: The cached key-values of one column selection of a row</p>
+	 * <p><code>org.hbase.async.FiberRowCache.Entry</code></p>
+	 */
+	private static final class Entry {
+		final ArrayList<KeyValue> kvs;
+		final long expiry;
+		final long size;
+
+		Entry(final ArrayList<KeyValue> kvs, final long expiry, final long size) {
+			this.kvs = kvs;
+			this.expiry = expiry;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * <p>Title: RowKey</p>
+	 * <p>Description: Identifies a row by table and key</p>
+	 * <p><code>org.hbase.async.FiberRowCache.RowKey</code></p>
+	 */
+	static final class RowKey {
+		final byte[] table;
+		final byte[] key;
+		final int hashCode;
+
+		RowKey(final byte[] table, final byte[] key) {
+			this.table = table;
+			this.key = key;
+			hashCode = 31 * Arrays.hashCode(table) + Arrays.hashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof RowKey)) return false;
+			final RowKey other = (RowKey)obj;
+			return hashCode==other.hashCode && Arrays.equals(key, other.key) && Arrays.equals(table, other.table);
+		}
+	}
+
+	/**
+	 * <p>Title: ColumnsKey</p>
+	 * <p>Description: Identifies the column selection of a get by family and qualifiers</p>
+	 * <p><code>org.hbase.async.FiberRowCache.ColumnsKey</code></p>
+	 */
+	static final class ColumnsKey {
+		final byte[] family;
+		final byte[][] qualifiers;
+		final int hashCode;
+
+		ColumnsKey(final byte[] family, final byte[][] qualifiers) {
+			this.family = family;
+			this.qualifiers = qualifiers;
+			hashCode = 31 * Arrays.hashCode(family) + Arrays.deepHashCode(qualifiers);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof ColumnsKey)) return false;
+			final ColumnsKey other = (ColumnsKey)obj;
+			return hashCode==other.hashCode && Arrays.equals(family, other.family) && Arrays.deepEquals(qualifiers, other.qualifiers);
+		}
+	}
+}
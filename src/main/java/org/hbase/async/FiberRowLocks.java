@@ -0,0 +1,112 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.paralleluniverse.fibers.Suspendable;
+import co.paralleluniverse.strands.concurrent.ReentrantLock;
+
+/**
+ * <p>Title: FiberRowLocks</p>
+ * <p>Description: Striped strand-aware locks that serialize the read-modify-writes of a row within this JVM,
+ * so local writers of a hot row take turns instead of failing each other's compare-and-sets.
+ * Fibers waiting on a lock suspend. Rows hashing to the same stripe share a lock.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRowLocks</code></p>
+ */
+final class FiberRowLocks {
+	/** The stripes, empty if disabled */
+	private final ReentrantLock[] stripes;
+	/** The number of lock acquisitions that had to wait */
+	private final AtomicLong contended = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberRowLocks
+	 * @param config The client config
+	 */
+	FiberRowLocks(final Config config) {
+		final int requested = HBaseFiberClient.configInt(config, FiberCompareAndSetRequestBuilder.CONFIG_CAS_LOCK_STRIPES, 256);
+		if(requested < 0) throw new IllegalArgumentException("Invalid lock stripe count: " + requested);
+		// rounded up to a power of two
+		int count = requested==0 ? 0 : 1;
+		while(count < requested) count <<= 1;
+		stripes = new ReentrantLock[count];
+		for(int i = 0; i < count; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Indicates if rows are locked
+	 * @return true if there is at least one stripe
+	 */
+	boolean isEnabled() {
+		return stripes.length > 0;
+	}
+
+	/**
+	 * Waits for the lock of the passed row
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the held lock, to unlock when done, or null if disabled
+	 * @throws DeadlineExceededException thrown if the caller's deadline expires while waiting
+	 */
+	@Suspendable
+	ReentrantLock lock(final byte[] table, final byte[] key) {
+		if(stripes.length==0) return null;
+		final ReentrantLock lock = stripes[stripe(table, key)];
+		if(lock.tryLock()) return lock;
+		contended.incrementAndGet();
+		final FiberDeadline deadline = FiberDeadline.current();
+		try {
+			if(deadline==null) {
+				lock.lockInterruptibly();
+			} else if(deadline.isExpired() || !lock.tryLock(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+				throw deadline.exceeded("wait for row lock");
+			}
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for row lock", iex);
+		}
+		return lock;
+	}
+
+	/**
+	 * Returns the number of lock acquisitions that had to wait for another writer of the same stripe
+	 * @return the contended acquisition count
+	 */
+	long getContended() {
+		return contended.get();
+	}
+
+	/**
+	 * Returns the stripe of the passed row
+	 * @param table The table name
+	 * @param key The row key
+	 * @return the stripe index
+	 */
+	private int stripe(final byte[] table, final byte[] key) {
+		int h = Arrays.hashCode(key) * 31 + Arrays.hashCode(table);
+		h ^= (h >>> 16);
+		return h & (stripes.length - 1);
+	}
+}
@@ -0,0 +1,50 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+/**
+ * <p>Title: FiberScanAggregator</p>
+ * <p>Description: Folds scanned rows into a result one row at a time, for {@link FiberScanRequest#aggregate(FiberScanAggregator)}.
+ * Rows must not be retained: each batch is dropped once folded. Aggregators are stateful and used by one scan only.
+ * See {@link FiberScanAggregators} for the built-in ones.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanAggregator</code></p>
+ * @param <R> The result type
+ */
+public interface FiberScanAggregator<R> {
+
+	/**
+	 * Folds one scanned row into the result
+	 * @param row The row, only valid for the duration of the call
+	 */
+	void add(FiberRow row);
+
+	/**
+	 * Returns the result of the rows added so far
+	 * @return the result
+	 */
+	R result();
+
+	/**
+	 * Returns a filter that cuts what the region servers send back without changing the result,
+	 * such as a key only filter when only rows are counted. Only applied to scans without a filter of their own.
+	 * @return the filter to push down, or null for none
+	 */
+	ScanFilter pushDown();
+}
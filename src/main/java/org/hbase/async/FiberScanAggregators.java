@@ -0,0 +1,232 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * <p>Title: FiberScanAggregators</p>
+ * <p>Description: The built-in {@link FiberScanAggregator}s. Numeric aggregators read the column as an 8 byte
+ * big-endian long, as written by atomic increments, and skip rows without the column.
+ * Each call returns a new aggregator for one scan.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanAggregators</code></p>
+ */
+public final class FiberScanAggregators {
+
+	/**
+	 * Counts the scanned rows. Pushes down a first key only, key only filter so region servers send one empty cell per row.
+	 * @return the row count aggregator
+	 */
+	public static FiberScanAggregator<Long> count() {
+		return new FiberScanAggregator<Long>() {
+			private long count = 0L;
+			@Override
+			public void add(final FiberRow row) {
+				count++;
+			}
+			@Override
+			public Long result() {
+				return count;
+			}
+			@Override
+			public ScanFilter pushDown() {
+				final List<ScanFilter> filters = new ArrayList<ScanFilter>(2);
+				filters.add(new FirstKeyOnlyFilter());
+				filters.add(new KeyOnlyFilter());
+				return new FilterList(filters);
+			}
+		};
+	}
+
+	/**
+	 * Sums a long column
+	 * @param family The column family
+	 * @param qualifier The column qualifier
+	 * @return the sum aggregator, 0 if no row has the column
+	 */
+	public static FiberScanAggregator<Long> sum(final String family, final String qualifier) {
+		return new ColumnAggregator<Long>(family, qualifier) {
+			private long sum = 0L;
+			@Override
+			void add(final long value) {
+				sum += value;
+			}
+			@Override
+			public Long result() {
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * Finds the minimum of a long column
+	 * @param family The column family
+	 * @param qualifier The column qualifier
+	 * @return the min aggregator, null if no row has the column
+	 */
+	public static FiberScanAggregator<Long> min(final String family, final String qualifier) {
+		return new ColumnAggregator<Long>(family, qualifier) {
+			private Long min = null;
+			@Override
+			void add(final long value) {
+				if(min==null || value < min) min = value;
+			}
+			@Override
+			public Long result() {
+				return min;
+			}
+		};
+	}
+
+	/**
+	 * Finds the maximum of a long column
+	 * @param family The column family
+	 * @param qualifier The column qualifier
+	 * @return the max aggregator, null if no row has the column
+	 */
+	public static FiberScanAggregator<Long> max(final String family, final String qualifier) {
+		return new ColumnAggregator<Long>(family, qualifier) {
+			private Long max = null;
+			@Override
+			void add(final long value) {
+				if(max==null || value > max) max = value;
+			}
+			@Override
+			public Long result() {
+				return max;
+			}
+		};
+	}
+
+	/**
+	 * Counts the rows per distinct value of a column. Only the distinct values and their counts are retained,
+	 * so this suits low cardinality columns.
+	 * @param family The column family
+	 * @param qualifier The column qualifier
+	 * @return the histogram aggregator, mapping each value to its row count in first seen order
+	 */
+	public static FiberScanAggregator<Map<String, Long>> histogram(final String family, final String qualifier) {
+		final byte[] f = FiberNameDictionary.family(family);
+		final byte[] q = FiberNameDictionary.qualifier(qualifier);
+		return new FiberScanAggregator<Map<String, Long>>() {
+			private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+			@Override
+			public void add(final FiberRow row) {
+				final byte[] v = row.value(f, q);
+				if(v==null) return;
+				final String value = new String(v);
+				final Long count = counts.get(value);
+				counts.put(value, count==null ? 1L : count + 1L);
+			}
+			@Override
+			public Map<String, Long> result() {
+				return counts;
+			}
+			@Override
+			public ScanFilter pushDown() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Aggregates the rows separately per row key prefix, each prefix with its own aggregator
+	 * @param prefixLength The number of leading row key bytes to group by
+	 * @param aggregator Creates the aggregator of each group
+	 * @return the group by aggregator, mapping each prefix to its group's result in key order
+	 */
+	public static <R> FiberScanAggregator<Map<String, R>> groupByPrefix(final int prefixLength, final Supplier<? extends FiberScanAggregator<R>> aggregator) {
+		if(prefixLength < 1) throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+		if(aggregator==null) throw new IllegalArgumentException("The passed aggregator supplier was null");
+		return new FiberScanAggregator<Map<String, R>>() {
+			private final Map<String, FiberScanAggregator<R>> groups = new LinkedHashMap<String, FiberScanAggregator<R>>();
+			@Override
+			public void add(final FiberRow row) {
+				final byte[] key = row.key();
+				final String prefix = new String(key, 0, Math.min(key.length, prefixLength));
+				FiberScanAggregator<R> group = groups.get(prefix);
+				if(group==null) {
+					group = aggregator.get();
+					groups.put(prefix, group);
+				}
+				group.add(row);
+			}
+			@Override
+			public Map<String, R> result() {
+				final Map<String, R> results = new LinkedHashMap<String, R>(groups.size());
+				for(final Map.Entry<String, FiberScanAggregator<R>> group: groups.entrySet()) {
+					results.put(group.getKey(), group.getValue().result());
+				}
+				return results;
+			}
+			@Override
+			public ScanFilter pushDown() {
+				return aggregator.get().pushDown();
+			}
+		};
+	}
+
+	/**
+	 * <p>Title: ColumnAggregator</p>
+	 * <p>Description: Base for aggregators of a long column</p>
+	 * <p><code>org.hbase.async.FiberScanAggregators.ColumnAggregator</code></p>
+	 * @param <R> The result type
+	 */
+	abstract static class ColumnAggregator<R> implements FiberScanAggregator<R> {
+		/** The column family */
+		private final byte[] family;
+		/** The column qualifier */
+		private final byte[] qualifier;
+
+		/**
+		 * Creates a new ColumnAggregator
+		 * @param family The column family
+		 * @param qualifier The column qualifier
+		 */
+		ColumnAggregator(final String family, final String qualifier) {
+			this.family = FiberNameDictionary.family(family);
+			this.qualifier = FiberNameDictionary.qualifier(qualifier);
+		}
+
+		/**
+		 * Folds the column value of one row
+		 * @param value The value
+		 */
+		abstract void add(long value);
+
+		@Override
+		public void add(final FiberRow row) {
+			if(row.has(family, qualifier)) {
+				add(row.getLong(family, qualifier, 0L));
+			}
+		}
+
+		@Override
+		public ScanFilter pushDown() {
+			return null;
+		}
+	}
+
+	private FiberScanAggregators() {}
+}
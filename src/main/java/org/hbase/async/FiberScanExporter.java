@@ -0,0 +1,237 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * <p>Title: FiberScanExporter</p>
+ * <p>Description: Writes scanned rows to a local file through a sliding memory-mapped window, copying the key-value
+ * bytes straight into the mapping. Use {@link FiberScanRequest#export(Path)} to export a whole scan,
+ * and {@link FiberScanFileReader} to read the file back.</p>
+ * <p>The file starts with a {@value #HEADER_SIZE} byte header: the magic <code>FSX1</code>, the format version (int),
+ * the row count (long) and the end offset of the rows (long), written last on {@link #close()}: a file whose export
+ * failed or was {@link #abort() aborted} has no magic. Each row follows as:</p>
+ * <pre>
+ * int   row length, excluding this field
+ * short key length, key bytes
+ * int   cell count, then per cell:
+ *   byte family length, family bytes
+ *   int  qualifier length, qualifier bytes
+ *   long timestamp
+ *   int  value length, value bytes
+ * </pre>
+ * <p>All numbers are big-endian. Not thread-safe.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanExporter</code></p>
+ */
+public final class FiberScanExporter implements Closeable {
+	/** The file magic, <code>FSX1</code> */
+	static final int MAGIC = 0x46535831;
+	/** The file format version */
+	static final int VERSION = 1;
+	/** The size of the file header in bytes */
+	static final int HEADER_SIZE = 24;
+	/** The default size of the mapped window in bytes */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** The file */
+	private final Path file;
+	/** The file channel */
+	private final FileChannel channel;
+	/** The size of the mapped window */
+	private final int windowSize;
+	/** The mapped window rows are written to, null until the first row */
+	private MappedByteBuffer window = null;
+	/** The file offset the next row is written at */
+	private long position = HEADER_SIZE;
+	/** The number of rows written */
+	private long rows = 0L;
+	/** Set once closed */
+	private boolean closed = false;
+
+	/**
+	 * Creates a new FiberScanExporter with the default window size, replacing the passed file
+	 * @param file The file to write
+	 * @throws IOException thrown if the file cannot be opened
+	 */
+	public FiberScanExporter(final Path file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a new FiberScanExporter, replacing the passed file
+	 * @param file The file to write
+	 * @param windowSize The size of the mapped window in bytes. Rows larger than the window get a window of their own.
+	 * @throws IOException thrown if the file cannot be opened
+	 */
+	public FiberScanExporter(final Path file, final int windowSize) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The passed file was null");
+		if(windowSize < 4096) throw new IllegalArgumentException("Invalid window size: " + windowSize);
+		this.windowSize = windowSize;
+		this.file = file;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Appends a row
+	 * @param row The key-values of the row, all with the same key. Empty rows are skipped.
+	 * @throws IOException thrown if the window cannot be mapped
+	 */
+	public void write(final List<KeyValue> row) throws IOException {
+		if(closed) throw new IllegalStateException("The exporter is closed");
+		if(row.isEmpty()) return;
+		final byte[] key = row.get(0).key();
+		int length = 2 + key.length + 4;
+		for(int i = 0, n = row.size(); i < n; i++) {
+			final KeyValue kv = row.get(i);
+			length += 1 + kv.family().length + 4 + kv.qualifier().length + 8 + 4 + kv.value().length;
+		}
+		ensure(4 + length);
+		window.putInt(length);
+		window.putShort((short)key.length);
+		window.put(key);
+		window.putInt(row.size());
+		for(int i = 0, n = row.size(); i < n; i++) {
+			final KeyValue kv = row.get(i);
+			window.put((byte)kv.family().length);
+			window.put(kv.family());
+			window.putInt(kv.qualifier().length);
+			window.put(kv.qualifier());
+			window.putLong(kv.timestamp());
+			window.putInt(kv.value().length);
+			window.put(kv.value());
+		}
+		position += 4 + length;
+		rows++;
+	}
+
+	/**
+	 * Returns the number of rows written so far
+	 * @return the row count
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of bytes written so far, including the header
+	 * @return the byte count
+	 */
+	public long getBytes() {
+		return position;
+	}
+
+	/**
+	 * Trims the file to the written rows, writes the header and closes it.
+	 * The header is written last so the file is only readable if every step succeeded.
+	 * @throws IOException thrown if the file cannot be trimmed or the header cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		try {
+			if(window!=null) {
+				window.force();
+				unmap(window);
+				window = null;
+			}
+			// the file cannot be truncated while a window is mapped on Windows
+			channel.truncate(position);
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(rows).putLong(position);
+			channel.write(ByteBuffer.wrap(header.array()), 0L);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Discards a failed export: closes the file without writing the header and deletes it.
+	 * If the file cannot be deleted it is left without a magic, so {@link FiberScanFileReader} rejects it.
+	 */
+	public void abort() {
+		if(closed) return;
+		closed = true;
+		if(window!=null) {
+			unmap(window);
+			window = null;
+		}
+		try {
+			channel.close();
+			Files.deleteIfExists(file);
+		} catch (IOException ex) {
+			// the header was never written
+		}
+	}
+
+	/**
+	 * Maps a new window at the current position unless the current one has the passed bytes left
+	 * @param bytes The number of bytes about to be written
+	 * @throws IOException thrown if the window cannot be mapped
+	 */
+	private void ensure(final int bytes) throws IOException {
+		if(window!=null && window.remaining() >= bytes) return;
+		if(window!=null) unmap(window);
+		window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(windowSize, bytes));
+	}
+
+	/**
+	 * Unmaps a window now rather than when it is garbage collected, through <code>Unsafe.invokeCleaner</code>
+	 * on Java 9+ or the buffer's cleaner on Java 8. The window must not be used afterwards.
+	 * If neither is available the window stays mapped until it is collected.
+	 * @param buffer The window to unmap
+	 */
+	static void unmap(final MappedByteBuffer buffer) {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = null;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException ex) {
+				// Java 8
+			}
+			if(invokeCleaner!=null) {
+				final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} else {
+				final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if(cleaner!=null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception ex) {
+			// left to the garbage collector
+		}
+	}
+}
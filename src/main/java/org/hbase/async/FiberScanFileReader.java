@@ -0,0 +1,326 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Title: FiberScanFileReader</p>
+ * <p>Description: Reads a file written by {@link FiberScanExporter} through a sliding read-only memory-mapped window.
+ * A cursor over rows and, within each row, over cells: {@link #next()} moves to the next row and {@link #nextCell()}
+ * to its next cell. The key, family, qualifier and value accessors return views of the mapped file without copying,
+ * valid until the cursor moves on and never after the reader is closed, since closing unmaps the file.
+ * Only {@link #keyValue()} copies, for callers that need asynchbase key-values.</p>
+ * <pre>
+ * try(FiberScanFileReader reader = new FiberScanFileReader(file)) {
+ *	while(reader.next()) {
+ *		while(reader.nextCell()) {
+ *			ByteBuffer value = reader.value();
+ *		}
+ *	}
+ * }
+ * </pre>
+ * <p>Not thread-safe.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanFileReader</code></p>
+ */
+public final class FiberScanFileReader implements Closeable {
+	/** The file channel */
+	private final FileChannel channel;
+	/** The size of the mapped window */
+	private final int windowSize;
+	/** The number of rows in the file */
+	private final long rows;
+	/** The end offset of the rows */
+	private final long end;
+	/** The mapped window, null until the first row */
+	private MappedByteBuffer window = null;
+	/** The file offset of the window */
+	private long windowStart = 0L;
+	/** The file offset of the next row */
+	private long position = FiberScanExporter.HEADER_SIZE;
+
+	/** The window offset of the current row's key, -1 before the first row */
+	private int keyOffset = -1;
+	/** The current row's key length */
+	private int keyLength;
+	/** The current row's cell count */
+	private int cells;
+	/** The number of cells of the current row not visited yet */
+	private int cellsLeft;
+	/** The window offset of the next cell */
+	private int nextCellOffset;
+	/** The window offset of the current cell's family, -1 before the row's first cell */
+	private int familyOffset = -1;
+	/** The current cell's family length */
+	private int familyLength;
+	/** The window offset of the current cell's qualifier */
+	private int qualifierOffset;
+	/** The current cell's qualifier length */
+	private int qualifierLength;
+	/** The current cell's timestamp */
+	private long timestamp;
+	/** The window offset of the current cell's value */
+	private int valueOffset;
+	/** The current cell's value length */
+	private int valueLength;
+
+	/**
+	 * Creates a new FiberScanFileReader with the default window size
+	 * @param file The file to read
+	 * @throws IOException thrown if the file cannot be opened or is not a complete export
+	 */
+	public FiberScanFileReader(final Path file) throws IOException {
+		this(file, FiberScanExporter.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a new FiberScanFileReader
+	 * @param file The file to read
+	 * @param windowSize The size of the mapped window in bytes. Rows larger than the window get a window of their own.
+	 * @throws IOException thrown if the file cannot be opened or is not a complete export
+	 */
+	public FiberScanFileReader(final Path file, final int windowSize) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The passed file was null");
+		if(windowSize < 4096) throw new IllegalArgumentException("Invalid window size: " + windowSize);
+		this.windowSize = windowSize;
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(FiberScanExporter.HEADER_SIZE);
+			while(header.hasRemaining()) {
+				if(channel.read(header, header.position()) < 0) throw new IOException("Truncated header in " + file);
+			}
+			if(header.getInt(0)!=FiberScanExporter.MAGIC) throw new IOException("Not a scan export: " + file);
+			final int version = header.getInt(4);
+			if(version!=FiberScanExporter.VERSION) throw new IOException("Unsupported scan export version " + version + " in " + file);
+			rows = header.getLong(8);
+			end = header.getLong(16);
+			if(end < FiberScanExporter.HEADER_SIZE || end > channel.size()) throw new IOException("Incomplete scan export: " + file);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns the number of rows in the file
+	 * @return the row count
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * Moves to the next row
+	 * @return true if there is a next row, false at the end of the file
+	 * @throws IOException thrown if the window cannot be mapped
+	 */
+	public boolean next() throws IOException {
+		if(position >= end) {
+			keyOffset = -1;
+			return false;
+		}
+		ensure(4);
+		final int length = window.getInt((int)(position - windowStart));
+		ensure(4 + length);
+		int offset = (int)(position - windowStart) + 4;
+		keyLength = window.getShort(offset);
+		keyOffset = offset + 2;
+		offset = keyOffset + keyLength;
+		cells = window.getInt(offset);
+		cellsLeft = cells;
+		nextCellOffset = offset + 4;
+		familyOffset = -1;
+		position += 4 + length;
+		return true;
+	}
+
+	/**
+	 * Moves to the next cell of the current row
+	 * @return true if the row has a next cell, false once all its cells were visited
+	 */
+	public boolean nextCell() {
+		checkRow();
+		if(cellsLeft==0) {
+			familyOffset = -1;
+			return false;
+		}
+		cellsLeft--;
+		int offset = nextCellOffset;
+		familyLength = window.get(offset);
+		familyOffset = offset + 1;
+		offset = familyOffset + familyLength;
+		qualifierLength = window.getInt(offset);
+		qualifierOffset = offset + 4;
+		offset = qualifierOffset + qualifierLength;
+		timestamp = window.getLong(offset);
+		valueLength = window.getInt(offset + 8);
+		valueOffset = offset + 12;
+		nextCellOffset = valueOffset + valueLength;
+		return true;
+	}
+
+	/**
+	 * Returns the current row's key
+	 * @return a read-only view of the key
+	 */
+	public ByteBuffer key() {
+		checkRow();
+		return view(keyOffset, keyLength);
+	}
+
+	/**
+	 * Returns the current row's number of cells
+	 * @return the cell count
+	 */
+	public int cellCount() {
+		checkRow();
+		return cells;
+	}
+
+	/**
+	 * Returns the current cell's family
+	 * @return a read-only view of the family
+	 */
+	public ByteBuffer family() {
+		checkCell();
+		return view(familyOffset, familyLength);
+	}
+
+	/**
+	 * Returns the current cell's qualifier
+	 * @return a read-only view of the qualifier
+	 */
+	public ByteBuffer qualifier() {
+		checkCell();
+		return view(qualifierOffset, qualifierLength);
+	}
+
+	/**
+	 * Returns the current cell's timestamp
+	 * @return the timestamp
+	 */
+	public long timestamp() {
+		checkCell();
+		return timestamp;
+	}
+
+	/**
+	 * Returns the current cell's value
+	 * @return a read-only view of the value
+	 */
+	public ByteBuffer value() {
+		checkCell();
+		return view(valueOffset, valueLength);
+	}
+
+	/**
+	 * Returns the current cell's value length, without creating a view
+	 * @return the value length in bytes
+	 */
+	public int valueLength() {
+		checkCell();
+		return valueLength;
+	}
+
+	/**
+	 * Reads the current cell's value as an 8 byte big-endian long, without creating a view
+	 * @return the value
+	 */
+	public long valueAsLong() {
+		checkCell();
+		if(valueLength!=8) throw new IllegalStateException("Value is " + valueLength + " bytes, expected 8");
+		return window.getLong(valueOffset);
+	}
+
+	/**
+	 * Copies the current cell into an asynchbase key-value
+	 * @return the key-value
+	 */
+	public KeyValue keyValue() {
+		checkCell();
+		return new KeyValue(copy(keyOffset, keyLength), copy(familyOffset, familyLength),
+			copy(qualifierOffset, qualifierLength), timestamp, copy(valueOffset, valueLength));
+	}
+
+	/**
+	 * Unmaps and closes the file, so it can be deleted or replaced right away
+	 * @throws IOException thrown if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if(window!=null) {
+			FiberScanExporter.unmap(window);
+			window = null;
+		}
+		channel.close();
+	}
+
+	/**
+	 * Maps a new window at the current position unless the current one covers the passed bytes
+	 * @param bytes The number of bytes about to be read
+	 * @throws IOException thrown if the window cannot be mapped
+	 */
+	private void ensure(final int bytes) throws IOException {
+		if(window!=null && position + bytes <= windowStart + window.capacity()) return;
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(end - position, Math.max(windowSize, bytes)));
+	}
+
+	/**
+	 * Returns a read-only view of a window range
+	 * @param offset The window offset
+	 * @param length The length
+	 * @return the view
+	 */
+	private ByteBuffer view(final int offset, final int length) {
+		final ByteBuffer view = window.asReadOnlyBuffer();
+		((Buffer)view).limit(offset + length);
+		((Buffer)view).position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * Copies a window range
+	 * @param offset The window offset
+	 * @param length The length
+	 * @return the copied bytes
+	 */
+	private byte[] copy(final int offset, final int length) {
+		final byte[] bytes = new byte[length];
+		view(offset, length).get(bytes);
+		return bytes;
+	}
+
+	private void checkRow() {
+		if(keyOffset < 0) throw new IllegalStateException("No current row");
+	}
+
+	private void checkCell() {
+		checkRow();
+		if(familyOffset < 0) throw new IllegalStateException("No current cell");
+	}
+}
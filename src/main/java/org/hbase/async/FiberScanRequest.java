@@ -1,60 +1,66 @@
 package org.hbase.async;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.hbase.async.GetRequest;
 import org.hbase.async.HBaseClient;
 import org.hbase.async.HBaseException;
 import org.hbase.async.KeyValue;
 import org.hbase.async.ScanFilter;
 import org.hbase.async.Scanner;
 
-import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
 
-import co.paralleluniverse.fibers.FiberAsync;
 import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.Channels;
+import co.paralleluniverse.strands.channels.ReceivePort;
 
 /**
- * Quasar-aware hbase GET operation.
+ * Quasar-aware hbase SCAN operation.
  * 
  * NB: it's not thread-safe.
  * 
  * @author fabio
  *
  */
-public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>, HBaseException > {
+public class FiberScanRequest {
+	/** The default number of rows buffered between a streaming scan and its consumer */
+	public static final int DEFAULT_STREAM_BUFFER = 1024;
+	
+	// an empty start or stop key means the start or end of the table
+	static final byte[] EMPTY_KEY = new byte[0];
+	
+	// reference to outer defined fiber client (do not close it)
+	private final HBaseFiberClient fiberClient;
+	
+	private final String table;
+	
 	private Scanner hbScanner;
 	
+	// the scan spec, retained so the scan can be split into ranges
+	private ScanFilter filter = null;
+	private int maxNumRows = -1;
+	private byte[] startKey = EMPTY_KEY;
+	private byte[] stopKey = EMPTY_KEY;
+	
 	// maps family (the key) to qualifiers array (the value)
 	private Map<String,String[]> hbColumsMap;
 	
-	protected FiberScanRequest(HBaseClient hbClient, String table) {
-		this.hbScanner = hbClient.newScanner(table);
-		this.hbColumsMap = new HashMap<String, String[]>();
-	}
+	// true once the columns filter has been applied to the scanner
+	private boolean columnsFilterApplied = false;
 	
-	@Override
-	protected void requestAsync() {
-		_setColumnsFilter();
-		hbScanner.nextRows()
-			.addCallback( new Callback<Void, ArrayList<ArrayList<KeyValue>>>() {
-					@Override
-					public Void call(ArrayList<ArrayList<KeyValue>> resList) throws Exception {
-						asyncCompleted( resList );
-						return null;	// void
-					}
-				}
-			)
-			.addErrback( new Callback<Void, Exception>() {
-				@Override
-				public Void call(Exception ex) throws Exception {
-					asyncFailed( ex );
-					return null; // void
-				}
-			});
+	protected FiberScanRequest(HBaseFiberClient fiberClient, String table) {
+		this.fiberClient = fiberClient;
+		this.table = table;
+		this.hbScanner = fiberClient.getOperations().newScanner(table);
+		this.hbColumsMap = new HashMap<String, String[]>();
 	}
 	
 	
@@ -66,6 +72,7 @@ public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>
 	 */
 	public FiberScanRequest setMaxNumRows(int n) {
 		hbScanner.setMaxNumRows(n);
+		maxNumRows = n;
 		return this;
 	}
 	
@@ -78,6 +85,31 @@ public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>
 	 */
 	public FiberScanRequest setFilter(ScanFilter filter) {
 		hbScanner.setFilter(filter);
+		this.filter = filter;
+		return this;
+	}
+	
+	/**
+	 * Set the first row key to scan (inclusive).
+	 * 
+	 * @param key the start key. An empty key starts at the beginning of the table.
+	 * @return this instance
+	 */
+	public FiberScanRequest setStartKey(byte[] key) {
+		hbScanner.setStartKey(key);
+		startKey = key;
+		return this;
+	}
+	
+	/**
+	 * Set the row key to stop scanning at (exclusive).
+	 * 
+	 * @param key the stop key. An empty key scans to the end of the table.
+	 * @return this instance
+	 */
+	public FiberScanRequest setStopKey(byte[] key) {
+		hbScanner.setStopKey(key);
+		stopKey = key;
 		return this;
 	}
 	
@@ -94,18 +126,250 @@ public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>
 	}
 	
 	/**
-	 * GET operation.
+	 * Fetches the next batch of rows. Can be called repeatedly until the scan is exhausted.
 	 *  
-	 * @return list of asynchbase key-value
+	 * @return list of rows, each a list of asynchbase key-value, or null when the scan is exhausted
 	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
 	 */
 	public ArrayList<ArrayList<KeyValue>> nextRows() throws SuspendExecution, HBaseException {
+		_setColumnsFilter();
+		return FiberDeferred.await(_admitNextRows());
+	}
+	
+	/**
+	 * Fetches the next batch of rows without waiting, for callers that are not fibers and should not block a thread.
+	 * The returned future is completed straight from the asynchbase callback. Call again once it completes
+	 * to fetch the following batch.
+	 * 
+	 * @return the future list of rows, each a list of asynchbase key-value, or null when the scan is exhausted
+	 */
+	public CompletableFuture<ArrayList<ArrayList<KeyValue>>> nextRowsAsync() {
+		_setColumnsFilter();
 		try {
-			return this.run();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			final FiberAdmissionControl.Permit admission = fiberClient.getAdmissionControl().admitNow(table.getBytes(), _currentKey());
+			if ( admission==null )
+				return FiberDeferred.toFuture(_nextRows());
+			try {
+				return FiberDeferred.toFuture(admission.trackBatch(_nextRows()));
+			} catch (RuntimeException e) {
+				admission.release();
+				throw e;
+			}
+		} catch (RuntimeException e) {
+			return FiberDeferred.failed(e);
 		}
-		return new ArrayList<ArrayList<KeyValue>>();
+	}
+	
+	/**
+	 * Fetches the next batch of rows as row views. Can be called repeatedly until the scan is exhausted.
+	 * 
+	 * @return list of row views over the fetched key-values, or null when the scan is exhausted
+	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
+	 */
+	public List<FiberRow> nextRowViews() throws SuspendExecution, HBaseException {
+		final ArrayList<ArrayList<KeyValue>> rows = nextRows();
+		return rows==null ? null : FiberRow.rows(rows);
+	}
+	
+	/**
+	 * Folds every scanned row into the passed aggregator as each batch arrives, then drops the batch,
+	 * so only the aggregate is retained. The next batch is fetched while the current one is folded.
+	 * If this scan has no filter and was not started yet, the aggregator's push down filter is applied,
+	 * e.g. a key only filter when counting. The scanner is closed on return.
+	 *
+	 * @param aggregator the aggregator, see {@link FiberScanAggregators}
+	 * @return the aggregate of all the scanned rows
+	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
+	 */
+	public <R> R aggregate(FiberScanAggregator<R> aggregator) throws SuspendExecution, HBaseException {
+		if ( filter==null && !columnsFilterApplied ) {
+			final ScanFilter pushDown = aggregator.pushDown();
+			if ( pushDown!=null )
+				hbScanner.setFilter(pushDown);
+		}
+		_setColumnsFilter();
+		try {
+			Deferred<ArrayList<ArrayList<KeyValue>>> pending = _admitNextRows();
+			while(true) {
+				final ArrayList<ArrayList<KeyValue>> rows = FiberDeferred.await(pending);
+				if ( rows==null )
+					break;
+				// fetch the next batch while this one is folded
+				pending = _admitNextRows();
+				for ( ArrayList<KeyValue> row : rows )
+					aggregator.add(FiberRow.wrap(row));
+			}
+		} finally {
+			close();
+		}
+		return aggregator.result();
+	}
+
+	/**
+	 * Exports every scanned row to a local file in the {@link FiberScanExporter} format, copying each batch
+	 * into the memory-mapped file as it arrives. The next batch is fetched while the current one is written.
+	 * Read the file back with {@link FiberScanFileReader}. The scanner is closed on return, and the file is deleted
+	 * if the scan fails.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @return the number of rows exported
+	 * @throws IOException if the file cannot be written
+	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
+	 */
+	public long export(Path file) throws IOException, SuspendExecution, HBaseException {
+		_setColumnsFilter();
+		final FiberScanExporter exporter = new FiberScanExporter(file);
+		boolean scanned = false;
+		try {
+			Deferred<ArrayList<ArrayList<KeyValue>>> pending = _admitNextRows();
+			while(true) {
+				final ArrayList<ArrayList<KeyValue>> rows = FiberDeferred.await(pending);
+				if ( rows==null )
+					break;
+				// fetch the next batch while this one is written
+				pending = _admitNextRows();
+				for ( ArrayList<KeyValue> row : rows )
+					exporter.write(row);
+			}
+			scanned = true;
+		} finally {
+			try {
+				// a failed scan must not leave a file that reads as a complete export
+				if ( !scanned )
+					exporter.abort();
+			} finally {
+				close();
+			}
+		}
+		exporter.close();
+		return exporter.getRows();
+	}
+
+	/**
+	 * Streams the scanned rows through a channel with the default buffer size.
+	 * 
+	 * @return the port to receive rows from
+	 * @see #stream(int)
+	 */
+	public ReceivePort<ArrayList<KeyValue>> stream() {
+		return stream(DEFAULT_STREAM_BUFFER);
+	}
+	
+	/**
+	 * Streams the scanned rows through a bounded channel fed by a strand spawned by the client.
+	 * While the consumer drains one batch, the next batch is already being fetched.
+	 * The port returns null once the scan is exhausted, and throws a <code>ProducerException</code> if the scan fails.
+	 * Closing the port stops the scan and closes the scanner.
+	 * 
+	 * @param bufferSize the maximum number of rows buffered ahead of the consumer
+	 * @return the port to receive rows from
+	 */
+	public ReceivePort<ArrayList<KeyValue>> stream(final int bufferSize) {
+		_setColumnsFilter();
+		final Channel<ArrayList<KeyValue>> channel = Channels.newChannel(bufferSize, Channels.OverflowPolicy.BLOCK, true, true);
+		fiberClient.spawn("FiberScanRequest", new SuspendableRunnable() {
+			@Override
+			public void run() throws SuspendExecution, InterruptedException {
+				try {
+					produce(channel);
+					channel.close();
+				} catch (RuntimeException ex) {
+					channel.close(ex);
+				} catch (InterruptedException ex) {
+					channel.close(ex);
+				}
+			}
+		});
+		return channel;
+	}
+	
+	/**
+	 * Scans in parallel, one scanner per region of the table within this scan's key range.
+	 * The returned builder inherits this scan's columns, filter, max rows and key range.
+	 * 
+	 * @return the parallel scan builder
+	 */
+	public FiberParallelScan parallel() {
+		return new FiberParallelScan(fiberClient, this);
+	}
+	
+	/**
+	 * Sends every scanned row to the passed channel, keeping the next batch in flight while the current one is sent,
+	 * until the scan is exhausted or the channel is closed. The scanner is closed on return. The channel is not.
+	 * 
+	 * @param channel the channel to send rows to
+	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
+	 * @throws InterruptedException if interrupted while sending
+	 */
+	void produce(final Channel<ArrayList<KeyValue>> channel) throws SuspendExecution, InterruptedException {
+		_setColumnsFilter();
+		try {
+			Deferred<ArrayList<ArrayList<KeyValue>>> pending = _admitNextRows();
+			while(true) {
+				final ArrayList<ArrayList<KeyValue>> rows = FiberDeferred.await(pending);
+				if(rows==null || channel.isClosed()) break;
+				// prefetch the next batch while the consumer drains this one
+				pending = _admitNextRows();
+				for(final ArrayList<KeyValue> row: rows) {
+					channel.send(row);
+				}
+			}
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Creates a new scan with this scan's columns, filter and max rows, over the passed key range.
+	 * 
+	 * @param start the start key (inclusive)
+	 * @param stop the stop key (exclusive)
+	 * @return the new scan
+	 */
+	FiberScanRequest forRange(byte[] start, byte[] stop) {
+		final FiberScanRequest scan = new FiberScanRequest(fiberClient, table);
+		scan.hbColumsMap.putAll(hbColumsMap);
+		if ( filter!=null )
+			scan.setFilter(filter);
+		if ( maxNumRows > 0 )
+			scan.setMaxNumRows(maxNumRows);
+		return scan.setStartKey(start).setStopKey(stop);
+	}
+	
+	/**
+	 * Returns the table name.
+	 * 
+	 * @return the table name
+	 */
+	String getTable() {
+		return table;
+	}
+	
+	/**
+	 * Returns the first row key to scan.
+	 * 
+	 * @return the start key, empty for the beginning of the table
+	 */
+	byte[] getStartKey() {
+		return startKey;
+	}
+	
+	/**
+	 * Returns the row key to stop scanning at.
+	 * 
+	 * @return the stop key, empty for the end of the table
+	 */
+	byte[] getStopKey() {
+		return stopKey;
+	}
+	
+	/**
+	 * Closes the underlying scanner.
+	 * 
+	 * @return a deferred called back when the scanner is closed
+	 */
+	public Deferred<Object> close() {
+		return fiberClient.getOperations().closeScanner(hbScanner);
 	}
 	
 	
@@ -114,10 +378,56 @@ public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>
 	 * Utilities
 	 */
 	
+	/**
+	 * Requests the next batch of rows once the region server hosting the scanner's current region admits it.
+	 * 
+	 * @throws SuspendExecution  never thrown, used only to instruments method with quasar fiber.
+	 */
+	private Deferred<ArrayList<ArrayList<KeyValue>>> _admitNextRows() throws SuspendExecution {
+		final FiberAdmissionControl.Permit admission = fiberClient.getAdmissionControl().acquire(table.getBytes(), _currentKey());
+		if ( admission==null )
+			return _nextRows();
+		try {
+			return admission.trackBatch(_nextRows());
+		} catch (RuntimeException e) {
+			admission.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the start key of the region the scanner is currently reading, which asynchbase moves forward
+	 * as the scan crosses into the next region, so each batch is admitted by the server that serves it.
+	 * 
+	 * @return the scanner's current start key, or the scan's start key if the scanner does not know it
+	 */
+	private byte[] _currentKey() {
+		final byte[] key = hbScanner.startKey();
+		return key!=null ? key : startKey;
+	}
+	
+	/**
+	 * Requests the next batch of rows, recording its latency and size in the client's metrics.
+	 * No batch is requested once the calling strand's deadline has expired.
+	 */
+	private Deferred<ArrayList<ArrayList<KeyValue>>> _nextRows() {
+		final FiberDeadline deadline = FiberDeadline.current();
+		if ( deadline!=null && deadline.isExpired() )
+			return Deferred.fromError(deadline.exceeded("scan of " + table));
+		final FiberOperationMetrics metrics = fiberClient.getMetrics().get(FiberClientMetrics.OP_SCAN, table.getBytes());
+		if ( metrics==null )
+			return fiberClient.getOperations().nextRows(hbScanner);
+		final long start = metrics.start();
+		return metrics.track(start, fiberClient.getOperations().nextRows(hbScanner));
+	}
+	
 	/**
 	 * Sets columns (families and qualifiers) to scans.
 	 */
 	private  void _setColumnsFilter() {
+		if ( columnsFilterApplied )
+			return;
+		columnsFilterApplied = true;
 		int numFam = hbColumsMap.size();
 		if ( numFam==0 )
 			return;
@@ -137,6 +447,7 @@ public class FiberScanRequest extends FiberAsync< ArrayList<ArrayList<KeyValue>>
 				for(int qualIdx = 0; qualIdx<quals.length ;++qualIdx)
 					qualifiers[famIdx][qualIdx] = quals[qualIdx].getBytes();
 			}
+			famIdx++;
 		}
 		
 		hbScanner.setFamilies(families, qualifiers);
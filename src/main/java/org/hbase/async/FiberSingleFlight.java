@@ -0,0 +1,285 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberSingleFlight</p>
+ * <p>Description: Coalesces concurrent identical gets. The first get for a table/key/family/qualifiers/versions
+ * is sent, and identical gets issued while it is in flight wait on it instead of sending their own rpc.
+ * Every waiter is called back with its own copy of the result list; the key-values in it are shared and must not be modified.</p>
+ * <p>A get only joins a flight started since the last write to its row was sent. Writes bump a striped per-row
+ * generation through {@link #invalidate(byte[], byte[])}, so a caller whose write was acknowledged never joins a get
+ * that may have read the row before the write.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberSingleFlight</code></p>
+ */
+public final class FiberSingleFlight {
+	/** Config key for enabling get coalescing. Defaults to false */
+	public static final String CONFIG_COALESCE_GETS = "hbase.fiber.get.coalesce";
+
+	/** The number of row write generation stripes, a power of 2 */
+	static final int GENERATION_STRIPES = 1024;
+
+	/** The operations gets are sent through */
+	private final FiberHBaseOperations hbClient;
+	/** Indicates if gets are coalesced */
+	private final boolean enabled;
+	/** The in-flight gets */
+	private final ConcurrentHashMap<GetKey, Flight> flights = new ConcurrentHashMap<GetKey, Flight>();
+	/** The write generations of the rows, striped by row hash */
+	private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+	/** The number of gets sent */
+	private final AtomicLong sent = new AtomicLong(0L);
+	/** The number of gets that waited on an in-flight get */
+	private final AtomicLong coalesced = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberSingleFlight
+	 * @param hbClient The operations gets are sent through
+	 * @param config The config to read the coalescing options from
+	 */
+	FiberSingleFlight(final FiberHBaseOperations hbClient, final Config config) {
+		this.hbClient = hbClient;
+		enabled = config.hasProperty(CONFIG_COALESCE_GETS) ? config.getBoolean(CONFIG_COALESCE_GETS) : false;
+	}
+
+	/**
+	 * Sends the passed get, or joins an identical get already in flight
+	 * @param get The get to send
+	 * @return the deferred key-values
+	 */
+	Deferred<ArrayList<KeyValue>> get(final GetRequest get) {
+		if(!enabled) {
+			sent.incrementAndGet();
+			return hbClient.get(get);
+		}
+		final GetKey key = new GetKey(get);
+		final int stripe = key.rowHash & (GENERATION_STRIPES - 1);
+		final Flight flight = new Flight(generations.get(stripe));
+		final Flight inFlight = flights.putIfAbsent(key, flight);
+		if(inFlight!=null) {
+			if(inFlight.generation==generations.get(stripe)) {
+				final Deferred<ArrayList<KeyValue>> d = inFlight.join();
+				if(d!=null) {
+					coalesced.incrementAndGet();
+					return d;
+				}
+			} else if(flights.replace(key, inFlight, flight)) {
+				// a write to the row was sent after the in-flight get: lead a new flight in its place
+				return send(key, flight, get);
+			}
+			// the in-flight get completed, or was replaced, while we were joining: send our own
+			sent.incrementAndGet();
+			return hbClient.get(get);
+		}
+		return send(key, flight, get);
+	}
+
+	/**
+	 * Sends the get leading a flight
+	 * @param key The flight key
+	 * @param flight The flight
+	 * @param get The get to send
+	 * @return the leader's deferred key-values
+	 */
+	private Deferred<ArrayList<KeyValue>> send(final GetKey key, final Flight flight, final GetRequest get) {
+		final Deferred<ArrayList<KeyValue>> d = flight.join();
+		sent.incrementAndGet();
+		hbClient.get(get).addCallbacks(
+			new Callback<Void, ArrayList<KeyValue>>() {
+				@Override
+				public Void call(final ArrayList<KeyValue> kvs) throws Exception {
+					flights.remove(key, flight);
+					flight.complete(kvs);
+					return null;
+				}
+			},
+			new Callback<Void, Exception>() {
+				@Override
+				public Void call(final Exception ex) throws Exception {
+					flights.remove(key, flight);
+					flight.complete(ex);
+					return null;
+				}
+			}
+		);
+		return d;
+	}
+
+	/**
+	 * Detaches the in-flight gets of a row from later callers, which send a new get instead of joining them.
+	 * Called when a write to the row is sent, before it can be acknowledged.
+	 * @param table The table
+	 * @param key The row key
+	 */
+	void invalidate(final byte[] table, final byte[] key) {
+		if(enabled) {
+			generations.incrementAndGet(GetKey.rowHash(table, key) & (GENERATION_STRIPES - 1));
+		}
+	}
+
+	/**
+	 * Returns the number of gets sent
+	 * @return the number of gets sent
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * Returns the number of gets that waited on an identical in-flight get instead of being sent
+	 * @return the number of coalesced gets
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Returns the number of gets currently in flight with waiters that could be coalesced
+	 * @return the number of in-flight gets
+	 */
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	/**
+	 * Indicates if gets are coalesced
+	 * @return true if gets are coalesced, false otherwise
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * <p>Title: Flight</p>
+	 * <p>Description: One in-flight get and the deferreds waiting on it</p>
+	 * <p><code>org.hbase.async.FiberSingleFlight.Flight</code></p>
+	 */
+	private static final class Flight {
+		/** The write generation of the row when the get was sent */
+		final long generation;
+		/** The waiting deferreds, null once completed */
+		private List<Deferred<ArrayList<KeyValue>>> waiters = new ArrayList<Deferred<ArrayList<KeyValue>>>(2);
+
+		/**
+		 * Creates a new Flight
+		 * @param generation The write generation of the row when the get is sent
+		 */
+		Flight(final long generation) {
+			this.generation = generation;
+		}
+
+		/**
+		 * Adds a waiter to this flight
+		 * @return the waiter's deferred, or null if this flight has already completed
+		 */
+		synchronized Deferred<ArrayList<KeyValue>> join() {
+			if(waiters==null) return null;
+			final Deferred<ArrayList<KeyValue>> d = new Deferred<ArrayList<KeyValue>>();
+			waiters.add(d);
+			return d;
+		}
+
+		/**
+		 * Completes this flight, calling back every waiter
+		 * @param result The key-values or the exception the get failed with
+		 */
+		@SuppressWarnings("unchecked")
+		void complete(final Object result) {
+			final List<Deferred<ArrayList<KeyValue>>> ws;
+			synchronized(this) {
+				ws = waiters;
+				waiters = null;
+			}
+			for(int i = 0, len = ws.size(); i < len; i++) {
+				if(i > 0 && result instanceof ArrayList) {
+					ws.get(i).callback(new ArrayList<KeyValue>((ArrayList<KeyValue>)result));
+				} else {
+					ws.get(i).callback(result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: GetKey</p>
+	 * <p>Description: Identifies identical gets by table, key, family, qualifiers and max versions</p>
+	 * <p><code>org.hbase.async.FiberSingleFlight.GetKey</code></p>
+	 */
+	static final class GetKey {
+		final byte[] table;
+		final byte[] key;
+		final byte[] family;
+		final byte[][] qualifiers;
+		final int maxVersions;
+		final int rowHash;
+		final int hashCode;
+
+		GetKey(final GetRequest get) {
+			table = get.table();
+			key = get.key();
+			family = get.family();
+			qualifiers = get.qualifiers();
+			maxVersions = get.maxVersions();
+			rowHash = rowHash(table, key);
+			int h = 31 * rowHash + Arrays.hashCode(family);
+			h = 31 * h + Arrays.deepHashCode(qualifiers);
+			hashCode = 31 * h + maxVersions;
+		}
+
+		/**
+		 * Hashes a row, spreading the high bits so the low bits can pick a stripe
+		 * @param table The table
+		 * @param key The row key
+		 * @return the row hash
+		 */
+		static int rowHash(final byte[] table, final byte[] key) {
+			final int h = 31 * Arrays.hashCode(table) + Arrays.hashCode(key);
+			return h ^ (h >>> 16);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof GetKey)) return false;
+			final GetKey other = (GetKey)obj;
+			return hashCode==other.hashCode
+				&& maxVersions==other.maxVersions
+				&& Arrays.equals(key, other.key)
+				&& Arrays.equals(table, other.table)
+				&& Arrays.equals(family, other.family)
+				&& Arrays.deepEquals(qualifiers, other.qualifiers);
+		}
+	}
+}
@@ -0,0 +1,508 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+
+/**
+ * <p>Title: FiberWorkloadDriver</p>
+ * <p>Description: Load generator for sizing fibers and schedulers. Runs a configurable mix of gets, multi-gets,
+ * scans and puts from a fixed number of fibers, either as fast as possible or at a target rate, and prints
+ * latency percentiles per operation. At a target rate, every operation has an intended start time and its
+ * response time is measured from that time, so a stalled operation is charged for the operations queued behind it
+ * (no coordinated omission). Service time, measured from the actual start, is reported alongside.</p>
+ * <p>Options are passed as <code>--name=value</code>. Run with <code>--help</code> for the list.
+ * <code>--fake</code> runs against an {@link InProcessHBaseClient} so no cluster is needed.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberWorkloadDriver</code></p>
+ */
+public class FiberWorkloadDriver {
+	/** The option names, defaults and descriptions */
+	private static final String[][] OPTIONS = {
+		{"quorum", "localhost:2181", "the zookeeper quorum"},
+		{"fake", "false", "run against an in-process fake client instead of a cluster"},
+		{"fake-latency-micros", "500", "the latency of every fake client operation"},
+		{"table", "fiberbench", "the table to run against"},
+		{"family", "f", "the column family"},
+		{"qualifier", "q", "the column qualifier written by puts"},
+		{"mix", "get:80,put:10,mget:5,scan:5", "the operation mix, as op:weight pairs"},
+		{"keys", "100000", "the number of distinct row keys"},
+		{"distribution", "uniform", "the key distribution, uniform or zipfian"},
+		{"zipf-exponent", "0.99", "the zipfian exponent"},
+		{"mget-size", "10", "the number of keys per multi-get"},
+		{"scan-rows", "100", "the maximum number of rows per scan"},
+		{"value-size", "64", "the size in bytes of the values written by puts"},
+		{"mode", "fiber", "the execution mode, fiber or virtual-thread"},
+		{"fibers", "64", "the number of concurrent fibers or virtual threads"},
+		{"rate", "0", "the target rate in ops/s across all fibers, 0 to run unthrottled"},
+		{"duration", "60", "the measured run time in seconds"},
+		{"warmup", "10", "the unmeasured warmup time in seconds"},
+		{"report-interval", "10", "the interval between interim reports in seconds, 0 to disable"},
+		{"jmxmp", "0", "the port of a JMXMP server to start, 0 to disable"},
+	};
+
+	/** The operation types */
+	enum Op {
+		GET, MGET, SCAN, PUT;
+	}
+
+	/** The parsed options */
+	private final Map<String, String> options;
+	/** The client under load */
+	private final HBaseFiberClient client;
+	/** The table */
+	private final String table;
+	/** The column family */
+	private final String family;
+	/** The qualifier written by puts */
+	private final String qualifier;
+	/** The operation picked for each of 100 weight slots */
+	private final Op[] mix;
+	/** Generates the row keys */
+	private final KeyGenerator keys;
+	/** The number of keys per multi-get */
+	private final int mgetSize;
+	/** The maximum number of rows per scan */
+	private final int scanRows;
+	/** The value written by puts */
+	private final byte[] value;
+	/** The number of concurrent fibers */
+	private final int fibers;
+	/** The interval between the intended starts of each fiber's operations in nanos, 0 when unthrottled */
+	private final long intervalNanos;
+	/** The response time recorders, measured from the intended start, in microseconds */
+	private final Map<Op, Recorder> responseTimes = new LinkedHashMap<Op, Recorder>();
+	/** The service time recorders, measured from the actual start, in microseconds */
+	private final Map<Op, Recorder> serviceTimes = new LinkedHashMap<Op, Recorder>();
+	/** The error counters */
+	private final Map<Op, LongAdder> errors = new LinkedHashMap<Op, LongAdder>();
+	/** Set when the fibers should stop */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a new FiberWorkloadDriver
+	 * @param options The parsed options
+	 */
+	FiberWorkloadDriver(final Map<String, String> options) {
+		this.options = options;
+		table = options.get("table");
+		family = options.get("family");
+		qualifier = options.get("qualifier");
+		mix = parseMix(options.get("mix"));
+		final int keyCount = intOption("keys");
+		keys = "zipfian".equalsIgnoreCase(options.get("distribution"))
+			? new ZipfianKeyGenerator(keyCount, Double.parseDouble(options.get("zipf-exponent")))
+			: new KeyGenerator(keyCount);
+		mgetSize = intOption("mget-size");
+		scanRows = intOption("scan-rows");
+		value = new byte[intOption("value-size")];
+		Arrays.fill(value, (byte)'v');
+		fibers = intOption("fibers");
+		if(fibers < 1) throw new IllegalArgumentException("Invalid fiber count: " + fibers);
+		final long rate = Long.parseLong(options.get("rate"));
+		intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * fibers / rate : 0L;
+		for(final Op op: Op.values()) {
+			responseTimes.put(op, new Recorder(3));
+			serviceTimes.put(op, new Recorder(3));
+			errors.put(op, new LongAdder());
+		}
+		final Config config = new Config();
+		config.overrideConfig("hbase.zookeeper.quorum", options.get("quorum"));
+		config.overrideConfig(HBaseFiberClient.CONFIG_EXECUTION_MODE, FiberExecutionMode.decode(options.get("mode")).name());
+		if(Boolean.parseBoolean(options.get("fake"))) {
+			config.overrideConfig(InProcessHBaseClient.CONFIG_LATENCY_MICROS, options.get("fake-latency-micros"));
+			client = new HBaseFiberClient(config, new InProcessHBaseClient(config));
+		} else {
+			client = new HBaseFiberClient(config);
+		}
+	}
+
+	/**
+	 * Runs the workload and prints the report
+	 * @param out The stream to print the report to
+	 * @throws InterruptedException thrown if interrupted while waiting on the fibers
+	 */
+	void run(final PrintStream out) throws InterruptedException {
+		final long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup"));
+		final long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration"));
+		final long reportNanos = TimeUnit.SECONDS.toNanos(intOption("report-interval"));
+		out.println("Running " + Arrays.toString(mixSummary()) + " on " + table + " with " + fibers
+			+ (client.getExecutionMode()==FiberExecutionMode.FIBER ? " fibers" : " virtual threads")
+			+ (intervalNanos > 0 ? " at " + options.get("rate") + " ops/s" : " unthrottled")
+			+ ", " + options.get("distribution") + " keys, " + options.get("warmup") + "s warmup, " + options.get("duration") + "s run");
+		final List<Strand> running = new ArrayList<Strand>(fibers);
+		final long origin = System.nanoTime();
+		for(int i = 0; i < fibers; i++) {
+			final long firstStart = origin + (intervalNanos * i / fibers);
+			running.add(client.spawn("FiberWorkload-" + i, new SuspendableRunnable() {
+				@Override
+				public void run() throws SuspendExecution, InterruptedException {
+					drive(firstStart);
+				}
+			}));
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(warmupNanos);
+			final Map<Op, Histogram> totalResponse = new LinkedHashMap<Op, Histogram>();
+			final Map<Op, Histogram> totalService = new LinkedHashMap<Op, Histogram>();
+			final Map<Op, Long> baseErrors = new LinkedHashMap<Op, Long>();
+			for(final Op op: Op.values()) {
+				responseTimes.get(op).reset();
+				serviceTimes.get(op).reset();
+				totalResponse.put(op, new Histogram(3));
+				totalService.put(op, new Histogram(3));
+				baseErrors.put(op, errors.get(op).sum());
+			}
+			final long measureStart = System.nanoTime();
+			final long measureEnd = measureStart + durationNanos;
+			long intervalStart = measureStart;
+			while(true) {
+				final long now = System.nanoTime();
+				if(now >= measureEnd) break;
+				final long next = reportNanos > 0 ? Math.min(measureEnd, intervalStart + reportNanos) : measureEnd;
+				TimeUnit.NANOSECONDS.sleep(next - now);
+				final long intervalEnd = System.nanoTime();
+				final Map<Op, Histogram> interval = new LinkedHashMap<Op, Histogram>();
+				for(final Op op: Op.values()) {
+					final Histogram h = responseTimes.get(op).getIntervalHistogram();
+					totalResponse.get(op).add(h);
+					totalService.get(op).add(serviceTimes.get(op).getIntervalHistogram());
+					interval.put(op, h);
+				}
+				if(reportNanos > 0 && intervalEnd < measureEnd) {
+					out.println(String.format("--- interval %.1fs - %.1fs", (intervalStart - measureStart) / 1e9, (intervalEnd - measureStart) / 1e9));
+					print(out, interval, null, intervalEnd - intervalStart);
+				}
+				intervalStart = intervalEnd;
+			}
+			final long elapsed = System.nanoTime() - measureStart;
+			stopped = true;
+			for(final Strand s: running) {
+				s.join();
+			}
+			final Map<Op, Long> runErrors = new LinkedHashMap<Op, Long>();
+			for(final Op op: Op.values()) {
+				runErrors.put(op, errors.get(op).sum() - baseErrors.get(op));
+			}
+			out.println("=== response time (from intended start) in microseconds");
+			print(out, totalResponse, runErrors, elapsed);
+			out.println("=== service time (from actual start) in microseconds");
+			print(out, totalService, runErrors, elapsed);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("Workload fiber failed", ex.getCause());
+		} finally {
+			stopped = true;
+			client.close();
+		}
+	}
+
+	/**
+	 * The body of each workload fiber: issues operations until stopped, pacing them at the target rate if one is set
+	 * @param firstStart The intended start of the fiber's first operation
+	 */
+	void drive(final long firstStart) throws SuspendExecution, InterruptedException {
+		long intended = firstStart;
+		while(!stopped) {
+			if(intervalNanos > 0) {
+				final long wait = intended - System.nanoTime();
+				if(wait > 0) {
+					Strand.sleep(wait, TimeUnit.NANOSECONDS);
+				}
+			}
+			final Op op = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+			final long start = System.nanoTime();
+			try {
+				execute(op);
+			} catch (RuntimeException ex) {
+				errors.get(op).increment();
+			}
+			final long end = System.nanoTime();
+			serviceTimes.get(op).recordValue(TimeUnit.NANOSECONDS.toMicros(end - start));
+			if(intervalNanos > 0) {
+				responseTimes.get(op).recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0L, end - intended)));
+				intended += intervalNanos;
+			} else {
+				responseTimes.get(op).recordValue(TimeUnit.NANOSECONDS.toMicros(end - start));
+			}
+		}
+	}
+
+	/**
+	 * Executes one operation
+	 * @param op The operation type
+	 */
+	private void execute(final Op op) throws SuspendExecution {
+		switch(op) {
+		case GET:
+			client.newGetRequest().table(table).key(keys.next()).family(family).execute();
+			break;
+		case MGET:
+			final String[] batch = new String[mgetSize];
+			for(int i = 0; i < mgetSize; i++) {
+				batch[i] = keys.next();
+			}
+			client.newMGetRequest(table, batch).setColumnsFilter(family).get();
+			break;
+		case SCAN:
+			final FiberScanRequest scan = client.newScanRequest(table)
+				.setStartKey(keys.next().getBytes())
+				.setMaxNumRows(scanRows)
+				.addColumnFamilyFilter(family);
+			try {
+				scan.nextRows();
+			} finally {
+				scan.close();
+			}
+			break;
+		case PUT:
+			client.newPutRequest().table(table).key(keys.next()).family(family).qualifier(qualifier).value(value).execute();
+			break;
+		}
+	}
+
+	/**
+	 * Prints one line of percentiles per operation type that ran
+	 * @param out The stream to print to
+	 * @param histograms The latency histograms per operation type
+	 * @param errorCounts The error counts per operation type, or null to omit them
+	 * @param elapsedNanos The time the histograms cover
+	 */
+	private static void print(final PrintStream out, final Map<Op, Histogram> histograms, final Map<Op, Long> errorCounts, final long elapsedNanos) {
+		out.println(String.format("%-6s %10s %10s %8s %8s %8s %8s %8s %8s", "op", "count", "ops/s", "errors", "p50", "p90", "p99", "p99.9", "max"));
+		for(final Map.Entry<Op, Histogram> e: histograms.entrySet()) {
+			final Histogram h = e.getValue();
+			if(h.getTotalCount()==0) continue;
+			out.println(String.format("%-6s %10d %10.1f %8s %8d %8d %8d %8d %8d",
+				e.getKey().name().toLowerCase(), h.getTotalCount(), h.getTotalCount() * 1e9 / elapsedNanos,
+				errorCounts==null ? "-" : String.valueOf(errorCounts.get(e.getKey())),
+				h.getValueAtPercentile(50.0), h.getValueAtPercentile(90.0), h.getValueAtPercentile(99.0),
+				h.getValueAtPercentile(99.9), h.getMaxValue()));
+		}
+	}
+
+	/**
+	 * Parses an operation mix such as <code>get:80,put:20</code> into 100 weighted slots
+	 * @param spec The mix spec
+	 * @return the operation for each slot
+	 */
+	static Op[] parseMix(final String spec) {
+		final Map<Op, Integer> weights = new LinkedHashMap<Op, Integer>();
+		int total = 0;
+		for(final String part: spec.split(",")) {
+			final String[] pair = part.trim().split(":");
+			final Op op = Op.valueOf(pair[0].trim().toUpperCase());
+			final int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+			if(weight < 0) throw new IllegalArgumentException("Invalid weight for " + op + ": " + weight);
+			weights.put(op, weight);
+			total += weight;
+		}
+		if(total==0) throw new IllegalArgumentException("Empty operation mix: " + spec);
+		final Op[] slots = new Op[total];
+		int i = 0;
+		for(final Map.Entry<Op, Integer> e: weights.entrySet()) {
+			for(int w = 0; w < e.getValue(); w++) {
+				slots[i++] = e.getKey();
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Summarizes the operation mix in percent
+	 * @return one op:percent entry per operation type
+	 */
+	private String[] mixSummary() {
+		final Map<Op, Integer> counts = new LinkedHashMap<Op, Integer>();
+		for(final Op op: mix) {
+			final Integer c = counts.get(op);
+			counts.put(op, c==null ? 1 : c + 1);
+		}
+		final String[] summary = new String[counts.size()];
+		int i = 0;
+		for(final Map.Entry<Op, Integer> e: counts.entrySet()) {
+			summary[i++] = e.getKey().name().toLowerCase() + ":" + (e.getValue() * 100 / mix.length) + "%";
+		}
+		return summary;
+	}
+
+	/**
+	 * Reads an int option
+	 * @param name The option name
+	 * @return the option value
+	 */
+	private int intOption(final String name) {
+		return Integer.parseInt(options.get(name));
+	}
+
+	/**
+	 * Parses <code>--name=value</code> and <code>--flag</code> arguments over the defaults
+	 * @param args The command line arguments
+	 * @return the options, or null if help was requested
+	 */
+	static Map<String, String> parseOptions(final String[] args) {
+		final Map<String, String> parsed = new LinkedHashMap<String, String>();
+		for(final String[] option: OPTIONS) {
+			parsed.put(option[0], option[1]);
+		}
+		for(final String arg: args) {
+			if(!arg.startsWith("--")) throw new IllegalArgumentException("Invalid argument: " + arg);
+			final int eq = arg.indexOf('=');
+			final String name = eq==-1 ? arg.substring(2) : arg.substring(2, eq);
+			if("help".equals(name)) return null;
+			if(!parsed.containsKey(name)) throw new IllegalArgumentException("Unknown option: " + arg);
+			parsed.put(name, eq==-1 ? "true" : arg.substring(eq + 1));
+		}
+		return parsed;
+	}
+
+	/**
+	 * Prints the usage
+	 * @param out The stream to print to
+	 */
+	static void usage(final PrintStream out) {
+		out.println("Usage: FiberWorkloadDriver [--name=value ...]");
+		for(final String[] option: OPTIONS) {
+			out.println(String.format("  --%-22s %s (default: %s)", option[0], option[2], option[1]));
+		}
+	}
+
+	/**
+	 * Runs the workload driver
+	 * @param args The options, as <code>--name=value</code>
+	 */
+	public static void main(final String[] args) {
+		final Map<String, String> options;
+		try {
+			options = parseOptions(args);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			usage(System.err);
+			System.exit(1);
+			return;
+		}
+		if(options==null) {
+			usage(System.out);
+			return;
+		}
+		final int jmxPort = Integer.parseInt(options.get("jmxmp"));
+		if(jmxPort > 0) {
+			JMXHelper.fireUpJMXMPServer(jmxPort);
+		}
+		try {
+			new FiberWorkloadDriver(options).run(System.out);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * <p>Title: KeyGenerator</p>
+	 * <p>Description: Generates uniformly distributed row keys</p>
+	 * <p><code>org.hbase.async.FiberWorkloadDriver.KeyGenerator</code></p>
+	 */
+	static class KeyGenerator {
+		/** The number of distinct keys */
+		final int count;
+
+		KeyGenerator(final int count) {
+			if(count < 1) throw new IllegalArgumentException("Invalid key count: " + count);
+			this.count = count;
+		}
+
+		/**
+		 * Returns the next key
+		 * @return the next key
+		 */
+		String next() {
+			return key(ThreadLocalRandom.current().nextInt(count));
+		}
+
+		/**
+		 * Maps a key index to a row key. Indexes are scrambled so that adjacent indexes,
+		 * such as the hottest zipfian keys, are spread across the table's regions.
+		 * @param index The key index
+		 * @return the row key
+		 */
+		static String key(final long index) {
+			long h = index * 0x9E3779B97F4A7C15L;
+			h ^= (h >>> 32);
+			return String.format("%016x", h);
+		}
+	}
+
+	/**
+	 * <p>Title: ZipfianKeyGenerator</p>
+	 * <p>Description: Generates zipfian distributed row keys, using the method of Gray et al,
+	 * "Quickly Generating Billion-Record Synthetic Databases"</p>
+	 * <p><code>org.hbase.async.FiberWorkloadDriver.ZipfianKeyGenerator</code></p>
+	 */
+	static final class ZipfianKeyGenerator extends KeyGenerator {
+		private final double theta;
+		private final double alpha;
+		private final double zetan;
+		private final double eta;
+
+		ZipfianKeyGenerator(final int count, final double theta) {
+			super(count);
+			if(theta <= 0 || theta >= 1) throw new IllegalArgumentException("Invalid zipfian exponent: " + theta);
+			this.theta = theta;
+			double zeta = 0;
+			for(int i = 1; i <= count; i++) {
+				zeta += 1.0 / Math.pow(i, theta);
+			}
+			zetan = zeta;
+			final double zeta2 = 1.0 + 1.0 / Math.pow(2, theta);
+			alpha = 1.0 / (1.0 - theta);
+			eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta2 / zetan);
+		}
+
+		@Override
+		String next() {
+			final double u = ThreadLocalRandom.current().nextDouble();
+			final double uz = u * zetan;
+			final long rank;
+			if(uz < 1.0) {
+				rank = 0;
+			} else if(uz < 1.0 + Math.pow(0.5, theta)) {
+				rank = 1;
+			} else {
+				rank = Math.min(count - 1, (long)(count * Math.pow(eta * u - eta + 1, alpha)));
+			}
+			return key(rank);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberWriteBuffer</p>
+ * <p>Description: Client side write coalescing for puts issued by many fibers.
+ * Bufferable puts are handed to asynchbase, which batches them per region and flushes each batch
+ * when it reaches <b>hbase.rpcs.batch.size</b> edits or every <b>hbase.rpcs.buffered_flush_interval</b> ms.
+ * This buffer adds a byte threshold on top: once the puts buffered since the last flush reach
+ * {@link #CONFIG_BUFFER_BYTES} bytes, all regions are flushed and the count starts over, so every
+ * {@link #CONFIG_BUFFER_BYTES} bytes of puts trigger a flush even while earlier flushes are still in flight.
+ * The bytes of puts sent but not acknowledged yet are tracked separately.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberWriteBuffer</code></p>
+ */
+final class FiberWriteBuffer {
+	/** Config key for the number of buffered bytes that triggers a flush. Defaults to 2 MB. A value of 0 disables the byte threshold */
+	public static final String CONFIG_BUFFER_BYTES = "hbase.fiber.write.buffer.bytes";
+	/** The default flush byte threshold */
+	public static final int DEFAULT_BUFFER_BYTES = 2 * 1024 * 1024;
+
+	/** The operations puts are buffered in */
+	private final FiberHBaseOperations hbClient;
+	/** The number of buffered bytes that triggers a flush */
+	private final long maxBufferedBytes;
+	/** The estimated number of bytes of puts buffered since the last flush */
+	private final AtomicLong pendingBytes = new AtomicLong(0L);
+	/** The estimated number of bytes of buffered puts not acknowledged yet */
+	private final AtomicLong bufferedBytes = new AtomicLong(0L);
+	/** The number of flushes triggered by the byte threshold */
+	private final AtomicLong byteFlushes = new AtomicLong(0L);
+
+	/**
+	 * Creates a new FiberWriteBuffer
+	 * @param hbClient The operations puts are buffered in
+	 * @param config The config to read the buffer options from
+	 */
+	FiberWriteBuffer(final FiberHBaseOperations hbClient, final Config config) {
+		this.hbClient = hbClient;
+		this.maxBufferedBytes = HBaseFiberClient.configInt(config, CONFIG_BUFFER_BYTES, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Sends a put, flushing the client's buffered edits if the byte threshold has been reached
+	 * @param put The put to send
+	 * @param size The estimated size of the put in bytes
+	 * @return the deferred put result, called back once the put's batch is acknowledged
+	 */
+	Deferred<Object> put(final PutRequest put, final long size) {
+		final Deferred<Object> d = hbClient.put(put);
+		if(maxBufferedBytes > 0 && put.canBuffer()) {
+			bufferedBytes.addAndGet(size);
+			d.addBoth(new Callback<Object, Object>() {
+				@Override
+				public Object call(final Object result) throws Exception {
+					bufferedBytes.addAndGet(-size);
+					return result;	// pass through
+				}
+			});
+			long pending = pendingBytes.addAndGet(size);
+			while(pending >= maxBufferedBytes) {
+				// only the put that resets the count flushes
+				if(pendingBytes.compareAndSet(pending, 0L)) {
+					byteFlushes.incrementAndGet();
+					hbClient.flush();
+					break;
+				}
+				pending = pendingBytes.get();
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Flushes all buffered edits
+	 * @return a deferred called back when all the buffered edits have been acknowledged
+	 */
+	Deferred<Object> flush() {
+		pendingBytes.set(0L);
+		return hbClient.flush();
+	}
+
+	/**
+	 * Returns the estimated number of bytes of puts buffered since the last flush
+	 * @return the estimated number of bytes towards the next byte threshold flush
+	 */
+	long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/**
+	 * Returns the estimated number of bytes of buffered puts not acknowledged yet
+	 * @return the estimated number of buffered bytes
+	 */
+	long getBufferedBytes() {
+		return bufferedBytes.get();
+	}
+
+	/**
+	 * Returns the number of flushes triggered by the byte threshold
+	 * @return the number of byte threshold flushes
+	 */
+	long getByteFlushes() {
+		return byteFlushes.get();
+	}
+}
@@ -1,17 +1,15 @@
 package org.hbase.async;
 
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.heliosapm.utils.jmx.JMXHelper;
-import com.heliosapm.utils.lang.StringHelper;
-import com.heliosapm.utils.time.SystemClock;
+import com.stumbleupon.async.Deferred;
 
 import co.paralleluniverse.common.monitoring.MonitorType;
-import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.DefaultFiberScheduler;
 import co.paralleluniverse.fibers.FiberForkJoinScheduler;
-import co.paralleluniverse.fibers.SuspendExecution;
-import co.paralleluniverse.fibers.Suspendable;
+import co.paralleluniverse.fibers.FiberScheduler;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
 
 
 
@@ -26,97 +24,404 @@ import co.paralleluniverse.fibers.Suspendable;
 public class HBaseFiberClient {
 	//private final static Logger logger = LoggerFactory.getLogger(HbaseClient.class);
 	
+	/** Config key for the parallelism of the client owned fiber scheduler. Defaults to the number of available cores */
+	public static final String CONFIG_SCHEDULER_PARALLELISM = "hbase.fiber.scheduler.parallelism";
+	/** Config key for the {@link MonitorType} of the client owned fiber scheduler. Defaults to {@link MonitorType#JMX} */
+	public static final String CONFIG_SCHEDULER_MONITOR = "hbase.fiber.scheduler.monitor";
+	/** Config key for enabling detailed fiber info on the client owned fiber scheduler. Defaults to true */
+	public static final String CONFIG_SCHEDULER_DETAILED_INFO = "hbase.fiber.scheduler.detailedinfo";
+	/** Config key for the {@link FiberExecutionMode} of the strands spawned by the client. Defaults to {@link FiberExecutionMode#FIBER} */
+	public static final String CONFIG_EXECUTION_MODE = "hbase.fiber.execution.mode";
+	
+	/** Serial number factory for client owned scheduler names */
+	private static final AtomicInteger schedulerSerial = new AtomicInteger(0);
+	/** Serial number factory for client names */
+	private static final AtomicInteger clientSerial = new AtomicInteger(0);
+	
 	private HBaseClient hbClient = null;
+	/** The operations all rpcs issued through this client are sent with */
+	private final FiberHBaseOperations ops;
+	/** The kind of strand this client spawns */
+	private final FiberExecutionMode executionMode;
+	/** The scheduler fibers spawned by this client run on, null in virtual thread mode */
+	private final FiberScheduler scheduler;
+	/** The scheduler created by, and shut down with, this client, null if the scheduler was passed in */
+	private final FiberForkJoinScheduler ownedScheduler;
+	/** Coalesces puts issued through this client */
+	private final FiberWriteBuffer writeBuffer;
+	/** Aggregates increments issued through this client */
+	private final FiberIncrementAggregator incrementAggregator;
+	/** Caches region locations for operations that are split or grouped by region */
+	private final FiberRegionLocator regionLocator;
+	/** Caches rows for gets that opt in */
+	private final FiberRowCache rowCache;
+	/** Coalesces identical in-flight gets */
+	private final FiberSingleFlight singleFlight;
+	/** Sends hedged gets */
+	private final FiberHedger hedger;
+	/** Bounds the rpcs in flight per region server */
+	private final FiberAdmissionControl admissionControl;
+	/** Retries failed operations */
+	private final FiberRetrier retrier;
+	/** Serializes the read-modify-writes of a row within this client */
+	private final FiberRowLocks rowLocks;
+	/** Records per operation latencies and counts */
+	private final FiberClientMetrics metrics;
 	
 	 
 	
 	public HBaseFiberClient(String quorum) {
-		hbClient = new HBaseClient(quorum);
+		this(quorumConfig(quorum));
 	}
-
 	
-	public static void log(Object obj) {
-		System.out.println(obj);
+	/**
+	 * Creates a new HBaseFiberClient with its own fiber scheduler sized from the passed config,
+	 * or without one in virtual thread mode
+	 * @param config The asynchbase client config
+	 */
+	public HBaseFiberClient(final Config config) {
+		this(config, null, null, newScheduler(config));
 	}
 	
-	public static void main(String[] args) {
-		log("Test");
-		JMXHelper.fireUpJMXMPServer(4923);
-		go();
-//		try {
-//			if(!Fiber.isCurrentFiber()) {
-//				fiberPool.newFiber(new SuspendableCallable<Void>(){
-//					@Suspendable
-//					public Void run() {
-//						go();							
-//						return null;
-//					}				
-//				}).start();
-//			} else {
-//				go();
-//			}
-//		} catch (Exception ex) {
-//			ex.printStackTrace(System.err);
-//		}
-		SystemClock.sleep(5000);
-	}
-	
-	@Suspendable
-	private static void go() {
-		HBaseFiberClient fc = null;
-		try {
-			fc = new HBaseFiberClient("localhost:2181");
-			log("Connected");
-			for(int i = 0; i < 10000; i++) {
-				final ArrayList<KeyValue> rowKeys = fc
-					.newGetRequest()
-					.table("tsdb-uid")
-					.key("host")
-					.getFiberHBaseRpc()
-					.get();
-				log("Count:" + rowKeys.size());
-				int cnt = 1;
-				for(KeyValue kv: rowKeys) {
-					final StringBuilder b = new StringBuilder("KV#").append(cnt).append(" : ").append(new Date(kv.timestamp()));
-					b.append("\n\tKey: [").append(StringHelper.bytesToHex(kv.key())).append("]");
-					b.append("\n\tValue: [").append(StringHelper.bytesToHex(kv.value())).append("]");
-					log(b);
-				}
-				try {
-					Fiber.sleep(500);
-				} catch (InterruptedException | SuspendExecution e) {
-					e.printStackTrace(System.err);
-				}				
-			}
-			
-		} catch (Exception e) {			
-			e.printStackTrace(System.err);
-		} finally {
-			if(fc!=null) try { fc.close(); } catch (Exception x) {/* No Op */}
+	/**
+	 * Creates a new HBaseFiberClient that spawns fibers on the passed scheduler.
+	 * The scheduler is not shut down when this client is closed.
+	 * @param config The asynchbase client config
+	 * @param scheduler The scheduler to spawn fibers on
+	 */
+	public HBaseFiberClient(final Config config, final FiberScheduler scheduler) {
+		this(config, null, scheduler, null);
+	}
+	
+	/**
+	 * Creates a new HBaseFiberClient that sends its rpcs with the passed operations, such as an {@link InProcessHBaseClient},
+	 * with its own fiber scheduler sized from the passed config, or without one in virtual thread mode
+	 * @param config The fiber client config
+	 * @param ops The operations to send rpcs with
+	 */
+	public HBaseFiberClient(final Config config, final FiberHBaseOperations ops) {
+		this(config, ops, null, newScheduler(config));
+	}
+	
+	/**
+	 * Creates a new HBaseFiberClient that sends its rpcs with the passed operations and spawns fibers on the passed scheduler.
+	 * The scheduler is not shut down when this client is closed.
+	 * @param config The fiber client config
+	 * @param ops The operations to send rpcs with
+	 * @param scheduler The scheduler to spawn fibers on
+	 */
+	public HBaseFiberClient(final Config config, final FiberHBaseOperations ops, final FiberScheduler scheduler) {
+		this(config, ops, scheduler, null);
+	}
+	
+	private HBaseFiberClient(final Config config, final FiberHBaseOperations ops, final FiberScheduler scheduler, final FiberForkJoinScheduler ownedScheduler) {
+		executionMode = executionMode(config);
+		if(!executionMode.isSupported()) throw new IllegalStateException("Execution mode " + executionMode + " is not supported by this JVM, version " + System.getProperty("java.version"));
+		if(scheduler==null && ownedScheduler==null && executionMode==FiberExecutionMode.FIBER) throw new IllegalArgumentException("The passed scheduler was null");
+		if(ops==null) {
+			hbClient = new HBaseClient(config);
+			this.ops = new AsyncHBaseOperations(hbClient);
+		} else {
+			this.ops = ops;
 		}
-		
+		this.scheduler = ownedScheduler!=null ? ownedScheduler : scheduler;
+		this.ownedScheduler = ownedScheduler;
+		metrics = new FiberClientMetrics("HBaseFiberClient-" + clientSerial.incrementAndGet(), config);
+		writeBuffer = new FiberWriteBuffer(this.ops, config);
+		incrementAggregator = new FiberIncrementAggregator(this, config);
+		regionLocator = new FiberRegionLocator(this.ops, config);
+		admissionControl = new FiberAdmissionControl(regionLocator, config);
+		rowCache = new FiberRowCache(config);
+		singleFlight = new FiberSingleFlight(this.ops, config);
+		hedger = new FiberHedger(this.ops, admissionControl, config);
+		retrier = new FiberRetrier(config);
+		rowLocks = new FiberRowLocks(config);
+	}
+	
+	/**
+	 * Creates a default config with the passed zookeeper quorum
+	 * @param quorum The zookeeper quorum spec
+	 * @return the config
+	 */
+	private static Config quorumConfig(final String quorum) {
+		final Config config = new Config();
+		config.overrideConfig("hbase.zookeeper.quorum", quorum);
+		return config;
+	}
+	
+	/**
+	 * Creates a fiber client sending its rpcs through the passed asynchbase client, for the deprecated
+	 * constructors that take one. It spawns fibers on Quasar's default scheduler and does not register metrics,
+	 * so it holds no resources of its own and does not need to be closed.
+	 * @param hbClient The asynchbase client
+	 * @return the fiber client
+	 */
+	static HBaseFiberClient wrap(final HBaseClient hbClient) {
+		if(hbClient==null) throw new IllegalArgumentException("The passed asynchbase client was null");
+		final Config config = new Config(hbClient.getConfig());
+		config.overrideConfig(FiberClientMetrics.CONFIG_METRICS_ENABLED, "false");
+		final HBaseFiberClient fiberClient = new HBaseFiberClient(config, new AsyncHBaseOperations(hbClient), DefaultFiberScheduler.getInstance(), null);
+		fiberClient.hbClient = hbClient;
+		return fiberClient;
+	}
+	
+	/**
+	 * Reads the execution mode from the passed config
+	 * @param config The config to read from
+	 * @return the configured execution mode, {@link FiberExecutionMode#FIBER} by default
+	 */
+	private static FiberExecutionMode executionMode(final Config config) {
+		return config.hasProperty(CONFIG_EXECUTION_MODE)
+			? FiberExecutionMode.decode(config.getString(CONFIG_EXECUTION_MODE))
+			: FiberExecutionMode.FIBER;
+	}
+	
+	/**
+	 * Creates a new fiber scheduler configured from the passed config
+	 * @param config The config to read the scheduler options from
+	 * @return the new scheduler, or null in virtual thread mode
+	 */
+	private static FiberForkJoinScheduler newScheduler(final Config config) {
+		if(executionMode(config)!=FiberExecutionMode.FIBER) return null;
+		final int parallelism = configInt(config, CONFIG_SCHEDULER_PARALLELISM, Runtime.getRuntime().availableProcessors());
+		final MonitorType monitorType = config.hasProperty(CONFIG_SCHEDULER_MONITOR)
+			? MonitorType.valueOf(config.getString(CONFIG_SCHEDULER_MONITOR).trim().toUpperCase())
+			: MonitorType.JMX;
+		final boolean detailedInfo = config.hasProperty(CONFIG_SCHEDULER_DETAILED_INFO)
+			? config.getBoolean(CONFIG_SCHEDULER_DETAILED_INFO)
+			: true;
+		if(parallelism < 1) throw new IllegalArgumentException("Invalid scheduler parallelism: " + parallelism);
+		return new FiberForkJoinScheduler("HBaseFiberClient-" + schedulerSerial.incrementAndGet(), parallelism, monitorType, detailedInfo);
+	}
+	
+	/**
+	 * Reads an int from the passed config
+	 * @param config The config to read from
+	 * @param key The config key
+	 * @param defaultValue The value to return if the key is not set
+	 * @return the configured value or the default
+	 */
+	static int configInt(final Config config, final String key, final int defaultValue) {
+		return config.hasProperty(key) ? config.getInt(key) : defaultValue;
 	}
 
+	
+	/**
+	 * Runs the {@link FiberWorkloadDriver} load generator
+	 * @param args The workload driver options
+	 */
+	public static void main(String[] args) {
+		FiberWorkloadDriver.main(args);
+	}
+
+	/**
+	 * Returns the underlying asynchbase client
+	 * @return the asynchbase client, or null if this client was created with its own {@link FiberHBaseOperations}
+	 */
 	public HBaseClient getHbClient() {
 		return hbClient;
 	}
 	
+	/**
+	 * Returns the operations all rpcs issued through this client are sent with
+	 * @return the operations
+	 */
+	public FiberHBaseOperations getOperations() {
+		return ops;
+	}
+	
+	/**
+	 * Returns the scheduler fibers spawned by this client run on
+	 * @return the fiber scheduler, or null if this client runs in virtual thread mode without a scheduler
+	 */
+	public FiberScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Returns the kind of strand this client spawns
+	 * @return the execution mode
+	 */
+	public FiberExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+	
+	/**
+	 * Starts a strand of this client's execution mode, a fiber on its scheduler or a virtual thread
+	 * @param name The strand name
+	 * @param task The task to run
+	 * @return the started strand
+	 */
+	public Strand spawn(final String name, final SuspendableRunnable task) {
+		return executionMode.start(name, scheduler, task);
+	}
+	
+	/**
+	 * Returns the write buffer puts issued through this client are coalesced in
+	 * @return the write buffer
+	 */
+	FiberWriteBuffer getWriteBuffer() {
+		return writeBuffer;
+	}
+	
+	/**
+	 * Returns the aggregator increments issued through this client are summed in
+	 * @return the increment aggregator
+	 */
+	FiberIncrementAggregator getIncrementAggregator() {
+		return incrementAggregator;
+	}
+	
+	/**
+	 * Returns the region location cache
+	 * @return the region locator
+	 */
+	FiberRegionLocator getRegionLocator() {
+		return regionLocator;
+	}
+	
+	/**
+	 * Returns the row cache used by gets that opt in with {@link FiberGetRequestBuilder#cached(boolean)}
+	 * @return the row cache
+	 */
+	public FiberRowCache getRowCache() {
+		return rowCache;
+	}
+	
+	/**
+	 * Returns the coalescer that identical concurrent gets share an rpc through
+	 * @return the get coalescer
+	 */
+	public FiberSingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+	
+	/**
+	 * Wraps a write to a row: detaches the row's in-flight gets from later callers and invalidates
+	 * its cached copies when the write is sent and again when it completes
+	 * @param table The table
+	 * @param key The row key
+	 * @param write The deferred result of the write, already sent
+	 * @return the passed deferred
+	 */
+	<T> Deferred<T> invalidating(final byte[] table, final byte[] key, final Deferred<T> write) {
+		singleFlight.invalidate(table, key);
+		return rowCache.invalidating(table, key, write);
+	}
+	
+	/**
+	 * Returns the admission control that bounds the rpcs in flight per region server
+	 * @return the admission control
+	 */
+	public FiberAdmissionControl getAdmissionControl() {
+		return admissionControl;
+	}
+	
+	/**
+	 * Returns the retrier that failed operations are retried through
+	 * @return the retrier
+	 */
+	public FiberRetrier getRetrier() {
+		return retrier;
+	}
+	
+	/**
+	 * Returns the striped row locks that serialize read-modify-writes
+	 * @return the row locks
+	 */
+	FiberRowLocks getRowLocks() {
+		return rowLocks;
+	}
+	
+	/**
+	 * Returns the hedger that hedged gets are sent through
+	 * @return the get hedger
+	 */
+	public FiberHedger getHedger() {
+		return hedger;
+	}
+	
+	/**
+	 * Returns the per operation latency and throughput metrics, which are also exported over JMX
+	 * @return the client metrics
+	 */
+	public FiberClientMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Flushes all edits buffered in this client
+	 * @return a deferred called back when all the buffered edits have been acknowledged
+	 */
+	public Deferred<Object> flush() {
+		return writeBuffer.flush();
+	}
+	
+	/**
+	 * Shuts down the asynchbase client and, if this client created it, the fiber scheduler
+	 */
 	public void close() {
-		hbClient.shutdown();
+		incrementAggregator.close();
+		hedger.close();
+		ops.shutdown();
+		metrics.close();
+		if(ownedScheduler!=null) {
+			ownedScheduler.getForkJoinPool().shutdown();
+		}
 	}
 	
 
 	public FiberGetRequestBuilder newGetRequest() {
-		return new FiberGetRequestBuilder(hbClient);
+		return new FiberGetRequestBuilder(this);
 	}
 
 
+	/**
+	 * Creates a new put request builder
+	 * @return the put request builder
+	 */
+	public FiberPutRequestBuilder newPutRequest() {
+		return new FiberPutRequestBuilder(this);
+	}
+	
+	/**
+	 * Creates a new atomic increment request builder
+	 * @return the increment request builder
+	 */
+	public FiberIncrementRequestBuilder newIncrementRequest() {
+		return new FiberIncrementRequestBuilder(this);
+	}
+	
+	/**
+	 * Creates a new compare-and-set request builder
+	 * @return the compare-and-set request builder
+	 */
+	public FiberCompareAndSetRequestBuilder newCompareAndSetRequest() {
+		return new FiberCompareAndSetRequestBuilder(this);
+	}
+	
+	/**
+	 * Creates a new delete request builder
+	 * @return the delete request builder
+	 */
+	public FiberDeleteRequestBuilder newDeleteRequest() {
+		return new FiberDeleteRequestBuilder(this);
+	}
+	
+	/**
+	 * Creates a new batch, which sends operations of any kind together and waits once for all of them
+	 * @return the batch
+	 */
+	public FiberBatch newBatch() {
+		return new FiberBatch(this);
+	}
+	
 	public FiberMultiGetRequest newMGetRequest(String table, String... keys) {
-		return new FiberMultiGetRequest(hbClient, table, keys);
+		return new FiberMultiGetRequest(this, table, keys);
 	}
 	
 	public FiberScanRequest newScanRequest(String table) {
-		return new FiberScanRequest(hbClient, table);
+		return new FiberScanRequest(this, table);
 	}
 	
 	
@@ -0,0 +1,256 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: InProcessHBaseClient</p>
+ * <p>Description: An in-process stand-in for an HBase cluster, used to benchmark and exercise the fiber client
+ * without a cluster. Every operation completes its deferred after a configurable latency, from a small
+ * timer pool, or inline when the latency is zero. Rows are synthesized with a configurable payload:
+ * nothing is stored, except counters.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.InProcessHBaseClient</code></p>
+ */
+public final class InProcessHBaseClient implements FiberHBaseOperations {
+	/** Config key for the latency of every operation in microseconds. Defaults to 0 */
+	public static final String CONFIG_LATENCY_MICROS = "hbase.fiber.inprocess.latency.micros";
+	/** Config key for the maximum random latency added to every operation in microseconds. Defaults to 0 */
+	public static final String CONFIG_JITTER_MICROS = "hbase.fiber.inprocess.jitter.micros";
+	/** Config key for the number of key-values in every returned row. Defaults to 4 */
+	public static final String CONFIG_KVS_PER_ROW = "hbase.fiber.inprocess.kvs.per.row";
+	/** Config key for the size in bytes of every returned value. Defaults to 64 */
+	public static final String CONFIG_VALUE_SIZE = "hbase.fiber.inprocess.value.size";
+	/** Config key for the number of rows returned by every scanner. Defaults to 1000 */
+	public static final String CONFIG_SCAN_ROWS = "hbase.fiber.inprocess.scan.rows";
+	/** Config key for the number of rows in every scanner batch. Defaults to 128 */
+	public static final String CONFIG_SCAN_BATCH = "hbase.fiber.inprocess.scan.batch";
+	/** Config key for the number of regions every table is split into. Defaults to 1 */
+	public static final String CONFIG_REGIONS = "hbase.fiber.inprocess.regions";
+	/** Config key for the number of timer threads completing delayed operations. Defaults to 2 */
+	public static final String CONFIG_THREADS = "hbase.fiber.inprocess.threads";
+
+	/** The default family of synthesized rows */
+	private static final byte[] DEFAULT_FAMILY = "f".getBytes();
+	/** Serial number factory for timer thread names */
+	private static final AtomicInteger threadSerial = new AtomicInteger(0);
+
+	/** The latency of every operation in nanos */
+	private final long latencyNanos;
+	/** The maximum random latency added to every operation in nanos */
+	private final long jitterNanos;
+	/** The number of key-values in every returned row */
+	private final int kvsPerRow;
+	/** The value of every returned key-value */
+	private final byte[] value;
+	/** The default qualifiers of synthesized rows */
+	private final byte[][] defaultQualifiers;
+	/** The number of rows returned by every scanner */
+	private final int scanRows;
+	/** The number of rows in every scanner batch */
+	private final int scanBatch;
+	/** The number of regions every table is split into */
+	private final int regions;
+	/** Completes delayed operations */
+	private final ScheduledThreadPoolExecutor timer;
+	/** The number of rows already returned, keyed by open scanner */
+	private final ConcurrentHashMap<Scanner, AtomicInteger> scanners = new ConcurrentHashMap<Scanner, AtomicInteger>();
+	/** The counters, keyed by table/key/family/qualifier */
+	private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Creates a new InProcessHBaseClient with the default latency and payload
+	 */
+	public InProcessHBaseClient() {
+		this(new Config());
+	}
+
+	/**
+	 * Creates a new InProcessHBaseClient
+	 * @param config The config to read the latency and payload options from
+	 */
+	public InProcessHBaseClient(final Config config) {
+		latencyNanos = TimeUnit.MICROSECONDS.toNanos(HBaseFiberClient.configInt(config, CONFIG_LATENCY_MICROS, 0));
+		jitterNanos = TimeUnit.MICROSECONDS.toNanos(HBaseFiberClient.configInt(config, CONFIG_JITTER_MICROS, 0));
+		kvsPerRow = HBaseFiberClient.configInt(config, CONFIG_KVS_PER_ROW, 4);
+		value = new byte[HBaseFiberClient.configInt(config, CONFIG_VALUE_SIZE, 64)];
+		Arrays.fill(value, (byte)'x');
+		defaultQualifiers = new byte[kvsPerRow][];
+		for(int i = 0; i < kvsPerRow; i++) {
+			defaultQualifiers[i] = ("q" + i).getBytes();
+		}
+		scanRows = HBaseFiberClient.configInt(config, CONFIG_SCAN_ROWS, 1000);
+		scanBatch = HBaseFiberClient.configInt(config, CONFIG_SCAN_BATCH, 128);
+		regions = HBaseFiberClient.configInt(config, CONFIG_REGIONS, 1);
+		if(regions < 1 || regions > 256) throw new IllegalArgumentException("Invalid region count: " + regions);
+		if(scanBatch < 1) throw new IllegalArgumentException("Invalid scan batch: " + scanBatch);
+		timer = new ScheduledThreadPoolExecutor(HBaseFiberClient.configInt(config, CONFIG_THREADS, 2), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "InProcessHBaseClient-" + threadSerial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	@Override
+	public Deferred<ArrayList<KeyValue>> get(final GetRequest request) {
+		return complete(row(request.key(), request.family(), request.qualifiers()));
+	}
+
+	@Override
+	public Deferred<Object> put(final PutRequest request) {
+		return complete(null);
+	}
+
+	@Override
+	public Deferred<Long> atomicIncrement(final AtomicIncrementRequest request) {
+		final String id = new String(request.table()) + '/' + new String(request.key()) + '/'
+			+ new String(request.family()) + '/' + new String(request.qualifier());
+		AtomicLong counter = counters.get(id);
+		if(counter==null) {
+			final AtomicLong created = new AtomicLong(0L);
+			counter = counters.putIfAbsent(id, created);
+			if(counter==null) counter = created;
+		}
+		return complete(counter.addAndGet(request.getAmount()));
+	}
+
+	@Override
+	public Deferred<Boolean> compareAndSet(final PutRequest edit, final byte[] expected) {
+		return complete(Boolean.TRUE);
+	}
+
+	@Override
+	public Deferred<Object> delete(final DeleteRequest request) {
+		return complete(null);
+	}
+
+	@Override
+	public Deferred<Object> flush() {
+		return complete(null);
+	}
+
+	@Override
+	public Deferred<List<RegionLocation>> locateRegions(final byte[] table) {
+		final List<RegionLocation> locations = new ArrayList<RegionLocation>(regions);
+		for(int i = 0; i < regions; i++) {
+			final byte[] start = i==0 ? FiberScanRequest.EMPTY_KEY : new byte[]{(byte)(i * 256 / regions)};
+			final byte[] stop = i==regions-1 ? FiberScanRequest.EMPTY_KEY : new byte[]{(byte)((i + 1) * 256 / regions)};
+			final byte[] regionName = (new String(table) + ",region-" + i).getBytes();
+			locations.add(new RegionLocation(new RegionInfo(table, regionName, stop), start, "localhost", 16020 + i));
+		}
+		return complete(locations);
+	}
+
+	@Override
+	public Scanner newScanner(final String table) {
+		final Scanner scanner = new Scanner(null, table.getBytes());
+		scanners.put(scanner, new AtomicInteger(0));
+		return scanner;
+	}
+
+	@Override
+	public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows(final Scanner scanner) {
+		final AtomicInteger returned = scanners.get(scanner);
+		if(returned==null) {
+			return Deferred.fromError(new IllegalStateException("Scanner is closed or was not created by this client"));
+		}
+		final int from = returned.getAndAdd(scanBatch);
+		if(from >= scanRows) {
+			return complete(null);
+		}
+		final int to = Math.min(scanRows, from + scanBatch);
+		final byte[] prefix = scanner.startKey();
+		final ArrayList<ArrayList<KeyValue>> rows = new ArrayList<ArrayList<KeyValue>>(to - from);
+		for(int i = from; i < to; i++) {
+			final byte[] key = Arrays.copyOf(prefix, prefix.length + 4);
+			key[prefix.length] = (byte)(i >>> 24);
+			key[prefix.length + 1] = (byte)(i >>> 16);
+			key[prefix.length + 2] = (byte)(i >>> 8);
+			key[prefix.length + 3] = (byte)i;
+			rows.add(row(key, null, null));
+		}
+		return complete(rows);
+	}
+
+	@Override
+	public Deferred<Object> closeScanner(final Scanner scanner) {
+		scanners.remove(scanner);
+		return complete(null);
+	}
+
+	@Override
+	public Deferred<Object> shutdown() {
+		timer.shutdown();
+		scanners.clear();
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * Synthesizes a row
+	 * @param key The row key
+	 * @param family The requested family, or null for the default family
+	 * @param qualifiers The requested qualifiers, or null for the default qualifiers
+	 * @return the row's key-values
+	 */
+	private ArrayList<KeyValue> row(final byte[] key, final byte[] family, final byte[][] qualifiers) {
+		final byte[] f = family==null ? DEFAULT_FAMILY : family;
+		final byte[][] quals = qualifiers==null ? defaultQualifiers : qualifiers;
+		final ArrayList<KeyValue> kvs = new ArrayList<KeyValue>(quals.length);
+		for(final byte[] q: quals) {
+			kvs.add(new KeyValue(key, f, q, value));
+		}
+		return kvs;
+	}
+
+	/**
+	 * Returns a deferred called back with the passed result after the configured latency
+	 * @param result The result
+	 * @return the deferred result
+	 */
+	private <T> Deferred<T> complete(final T result) {
+		final long delay = jitterNanos > 0 ? latencyNanos + ThreadLocalRandom.current().nextLong(jitterNanos) : latencyNanos;
+		if(delay <= 0L) {
+			return Deferred.fromResult(result);
+		}
+		final Deferred<T> d = new Deferred<T>();
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				d.callback(result);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+		return d;
+	}
+}
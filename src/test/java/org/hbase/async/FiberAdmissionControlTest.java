@@ -0,0 +1,279 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberAdmissionControlTest</p>
+ * <p>Description: Tests the adaptive admission limits and the breaker probe accounting against a fake clock</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberAdmissionControlTest</code></p>
+ */
+public class FiberAdmissionControlTest {
+	/** The region server under test */
+	private static final String SERVER = "rs1:16020";
+
+	/** The fake clock in nanos */
+	private final long[] now = new long[] {TimeUnit.SECONDS.toNanos(100L)};
+
+	@Test
+	public void testLimitHalvesOncePerIntervalDownToMinLimit() {
+		final FiberAdmissionControl admission = adaptive(32, 6, 64);
+		throttle(admission);
+		assertEquals(16, admission.getLimit(SERVER));
+		// the same overload episode only halves the limit once
+		advance(99L);
+		throttle(admission);
+		assertEquals(16, admission.getLimit(SERVER));
+		advance(1L);
+		throttle(admission);
+		assertEquals(8, admission.getLimit(SERVER));
+		advance(100L);
+		throttle(admission);
+		assertEquals(6, admission.getLimit(SERVER));
+		advance(100L);
+		throttle(admission);
+		assertEquals(6, admission.getLimit(SERVER));
+		assertEquals(5L, admission.getThrottled());
+		assertEquals(0, admission.getInFlight(SERVER));
+	}
+
+	@Test
+	public void testTimeoutHalvesLimit() {
+		final FiberAdmissionControl admission = adaptive(32, 6, 64);
+		admission.acquire(SERVER).track(Deferred.<Object>fromError(new RpcTimedOutException("timed out")));
+		assertEquals(16, admission.getLimit(SERVER));
+		assertEquals(0L, admission.getThrottled());
+	}
+
+	@Test
+	public void testLimitGrowsOnlyWhileSaturatedUpToMaxLimit() {
+		final FiberAdmissionControl admission = adaptive(4, 1, 6);
+		// completions below the limit leave it alone
+		for(int i = 0; i < 20; i++) {
+			succeed(admission.acquire(SERVER));
+		}
+		assertEquals(4, admission.getLimit(SERVER));
+		// saturated: about one more per round of completions
+		final List<FiberAdmissionControl.Permit> permits = new ArrayList<FiberAdmissionControl.Permit>();
+		for(int i = 0; i < 4; i++) {
+			permits.add(admission.acquire(SERVER));
+		}
+		int completions = 0;
+		while(admission.getLimit(SERVER) < 5) {
+			succeed(permits.remove(0));
+			permits.add(admission.acquire(SERVER));
+			completions++;
+			assertTrue("Limit did not grow after " + completions + " completions", completions <= 5);
+		}
+		assertEquals(4, admission.getInFlight(SERVER));
+		for(int i = 0; i < 100; i++) {
+			while(admission.getInFlight(SERVER) < admission.getLimit(SERVER)) {
+				permits.add(admission.acquire(SERVER));
+			}
+			succeed(permits.remove(0));
+		}
+		assertEquals(6, admission.getLimit(SERVER));
+	}
+
+	@Test
+	public void testFixedLimitDoesNotAdapt() {
+		final FiberAdmissionControl admission = admission(config(4));
+		throttle(admission);
+		advance(100L);
+		throttle(admission);
+		assertEquals(4, admission.getLimit(SERVER));
+		assertEquals(2L, admission.getThrottled());
+	}
+
+	@Test
+	public void testProbeAccountingThroughCancelProbe() {
+		final Config config = config(16);
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_MIN_CALLS, "1");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_OPEN, "1000");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_PROBES, "1");
+		final FiberAdmissionControl admission = admission(config);
+		throttle(admission);
+		assertEquals("OPEN", admission.getBreakerState(SERVER));
+		assertEquals(1L, admission.getBreakerTrips(SERVER));
+		assertRejected(admission);
+		advance(1000L);
+		final FiberAdmissionControl.Permit unsent = admission.acquire(SERVER);
+		assertNotNull(unsent);
+		assertEquals("HALF_OPEN", admission.getBreakerState(SERVER));
+		// the only probe is out
+		assertRejected(admission);
+		// an rpc that was never sent gives its probe back
+		unsent.release();
+		assertEquals(0, admission.getInFlight(SERVER));
+		final FiberAdmissionControl.Permit probe = admission.acquire(SERVER);
+		assertRejected(admission);
+		succeed(probe);
+		assertEquals("CLOSED", admission.getBreakerState(SERVER));
+		assertEquals(0, admission.getInFlight(SERVER));
+		succeed(admission.acquire(SERVER));
+	}
+
+	@Test
+	public void testProbeFailureReopensBreaker() {
+		final Config config = config(16);
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_MIN_CALLS, "1");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_OPEN, "1000");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_PROBES, "1");
+		final FiberAdmissionControl admission = admission(config);
+		throttle(admission);
+		advance(1000L);
+		throttle(admission);
+		assertEquals("OPEN", admission.getBreakerState(SERVER));
+		assertEquals(2L, admission.getBreakerTrips(SERVER));
+		assertRejected(admission);
+	}
+
+	@Test
+	public void testSlowScanBatchesDoNotTripBreaker() {
+		final FiberAdmissionControl admission = breaking();
+		for(int i = 0; i < 20; i++) {
+			final Deferred<Object> batch = new Deferred<Object>();
+			admission.acquire(SERVER).trackBatch(batch);
+			advance(2000L);
+			batch.callback("rows");
+		}
+		assertEquals("CLOSED", admission.getBreakerState(SERVER));
+		assertEquals(0L, admission.getBreakerTrips(SERVER));
+	}
+
+	@Test
+	public void testSlowRpcsTripBreaker() {
+		final FiberAdmissionControl admission = breaking();
+		for(int i = 0; i < 4; i++) {
+			final Deferred<Object> rpc = new Deferred<Object>();
+			admission.acquire(SERVER).track(rpc);
+			advance(2000L);
+			rpc.callback("ok");
+		}
+		assertEquals("OPEN", admission.getBreakerState(SERVER));
+	}
+
+	@Test
+	public void testFailedScanBatchesTripBreaker() {
+		final FiberAdmissionControl admission = breaking();
+		for(int i = 0; i < 4; i++) {
+			admission.acquire(SERVER).trackBatch(Deferred.<Object>fromError(new RpcTimedOutException("timed out")));
+		}
+		assertEquals("OPEN", admission.getBreakerState(SERVER));
+	}
+
+	/**
+	 * Creates an admission control with a circuit breaker opening after 4 calls with a 1 second slow threshold
+	 * @return the admission control
+	 */
+	private FiberAdmissionControl breaking() {
+		final Config config = config(16);
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_MIN_CALLS, "4");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_SLOW, "1000");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_WINDOW, "60000");
+		return admission(config);
+	}
+
+	/**
+	 * Creates an admission control with an adaptive limit and circuit breakers disabled
+	 * @param limit The initial limit
+	 * @param minLimit The lowest limit
+	 * @param maxLimit The highest limit
+	 * @return the admission control
+	 */
+	private FiberAdmissionControl adaptive(final int limit, final int minLimit, final int maxLimit) {
+		final Config config = config(limit);
+		config.overrideConfig(FiberAdmissionControl.CONFIG_ADMISSION_ADAPTIVE, "true");
+		config.overrideConfig(FiberAdmissionControl.CONFIG_ADMISSION_MIN_LIMIT, String.valueOf(minLimit));
+		config.overrideConfig(FiberAdmissionControl.CONFIG_ADMISSION_MAX_LIMIT, String.valueOf(maxLimit));
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_ENABLED, "false");
+		return admission(config);
+	}
+
+	/**
+	 * Creates a config with the passed limit and circuit breakers enabled
+	 * @param limit The limit per server
+	 * @return the config
+	 */
+	private static Config config(final int limit) {
+		final Config config = new Config();
+		config.overrideConfig(FiberAdmissionControl.CONFIG_ADMISSION_LIMIT, String.valueOf(limit));
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_ENABLED, "true");
+		return config;
+	}
+
+	/**
+	 * Creates an admission control on the fake clock. Only server permits are taken, so no region locator is needed.
+	 * @param config The admission config
+	 * @return the admission control
+	 */
+	private FiberAdmissionControl admission(final Config config) {
+		return new FiberAdmissionControl(null, config, () -> now[0]);
+	}
+
+	/**
+	 * Completes one rpc to the server with a {@link PleaseThrottleException}
+	 * @param admission The admission control
+	 */
+	private static void throttle(final FiberAdmissionControl admission) {
+		admission.acquire(SERVER).track(Deferred.<Object>fromError(new PleaseThrottleException("throttled", null, null, null)));
+	}
+
+	/**
+	 * Completes the rpc of the passed permit successfully
+	 * @param permit The permit
+	 */
+	private static void succeed(final FiberAdmissionControl.Permit permit) {
+		permit.track(Deferred.<Object>fromResult("ok"));
+	}
+
+	/**
+	 * Advances the fake clock
+	 * @param ms The ms to advance by
+	 */
+	private void advance(final long ms) {
+		now[0] += TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * Asserts that the server's rpcs fail fast
+	 * @param admission The admission control
+	 */
+	private static void assertRejected(final FiberAdmissionControl admission) {
+		try {
+			admission.acquire(SERVER);
+			fail("Expected a CircuitOpenException");
+		} catch (CircuitOpenException expected) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberBatchTest</p>
+ * <p>Description: Tests mixed batches return their results in submission order, are executed once and honor deadlines</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberBatchTest</code></p>
+ */
+public class FiberBatchTest {
+	/** The operations the batches are answered by */
+	private ScriptedHBaseOperations ops;
+	/** The client under test */
+	private HBaseFiberClient client;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		client = new HBaseFiberClient(new Config(), ops);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testMixedResultsInSubmissionOrder() throws Exception {
+		final FiberBatch batch = client.newBatch();
+		final FiberIncrementRequestBuilder increment = client.newIncrementRequest().table("t").key("a").family("f").qualifier("n").amount(5L);
+		final FiberBatch.Slot<Long> first = batch.add(increment);
+		final FiberBatch.Slot<ArrayList<KeyValue>> get = batch.add(client.newGetRequest().table("t").key("b").family("f"));
+		final FiberBatch.Slot<Object> put = batch.add(client.newPutRequest().table("t").key("c").family("f").qualifier("q").value("v"));
+		// the builder is reusable once added
+		final FiberBatch.Slot<Long> second = batch.add(increment.amount(2L));
+		final FiberBatch.Slot<Object> delete = batch.add(client.newDeleteRequest().table("t").key("d"));
+		assertEquals(5, batch.size());
+		final FiberBatch.Results results = batch.execute();
+		assertEquals(5, results.size());
+		for(int i = 0; i < results.size(); i++) {
+			assertTrue(results.isSuccess(i));
+		}
+		assertEquals(5L, results.get(first).longValue());
+		assertEquals(7L, results.get(second).longValue());
+		assertTrue(results.get(get).size() > 0);
+		assertEquals(2, put.index());
+		assertEquals(4, delete.index());
+		assertEquals(1, ops.gets.get());
+		assertEquals(2, ops.increments.get());
+		assertEquals(7L, results.toArray()[3]);
+	}
+
+	@Test
+	public void testBatchExecutedOnce() throws Exception {
+		final FiberBatch batch = client.newBatch();
+		batch.add(client.newGetRequest().table("t").key("a"));
+		batch.execute();
+		try {
+			batch.execute();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException expected) {}
+		try {
+			batch.add(client.newGetRequest().table("t").key("b"));
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException expected) {}
+		assertEquals(1, ops.gets.get());
+	}
+
+	@Test
+	public void testEmptyBatch() throws Exception {
+		assertEquals(0, client.newBatch().execute().size());
+	}
+
+	@Test
+	public void testFailuresReportedPerOperation() throws Exception {
+		final RuntimeException failure = new RuntimeException("failed");
+		ops.fail(failure);
+		final FiberBatch batch = client.newBatch();
+		final FiberBatch.Slot<ArrayList<KeyValue>> get = batch.add(client.newGetRequest().table("t").key("a"));
+		final FiberBatch.Results results = batch.execute();
+		assertFalse(results.isSuccess(0));
+		assertSame(failure, results.getError(0));
+		assertSame(failure, results.toArray()[0]);
+		try {
+			results.get(get);
+			fail("Expected the operation failure");
+		} catch (RuntimeException expected) {
+			assertSame(failure, expected);
+		}
+	}
+
+	@Test
+	public void testPendingOperationsAbandonedOnDeadline() throws Exception {
+		ops.hold(true);
+		final FiberBatch batch = client.newBatch();
+		batch.add(client.newGetRequest().table("t").key("a"));
+		batch.add(client.newIncrementRequest().table("t").key("b").family("f").qualifier("n").amount(1L));
+		final FiberBatch.Results results;
+		try (FiberDeadline.Scope scope = FiberDeadline.after(50L, TimeUnit.MILLISECONDS).enter()) {
+			results = batch.execute();
+		}
+		for(int i = 0; i < results.size(); i++) {
+			assertTrue(results.getError(i) instanceof DeadlineExceededException);
+		}
+		// late completions do not change what was returned
+		ops.release();
+		assertTrue(results.getError(0) instanceof DeadlineExceededException);
+		assertTrue(results.getError(1) instanceof DeadlineExceededException);
+	}
+}
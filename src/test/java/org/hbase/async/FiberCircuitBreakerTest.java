@@ -0,0 +1,236 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberCircuitBreakerTest</p>
+ * <p>Description: Tests the circuit breaker trips, resets and probes against a fake clock</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberCircuitBreakerTest</code></p>
+ */
+public class FiberCircuitBreakerTest {
+	/** The breaker window in ms, 100 ms per bucket */
+	private static final long WINDOW_MS = 1000L;
+	/** The breaker open period in ms */
+	private static final long OPEN_MS = 5000L;
+	/** The slow rpc latency in nanos */
+	private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1000L);
+
+	/** The fake clock in nanos */
+	private final long[] now = new long[] {TimeUnit.SECONDS.toNanos(100L)};
+	/** The breaker under test */
+	private FiberCircuitBreaker breaker;
+
+	@Before
+	public void setUp() {
+		breaker = breaker(2);
+	}
+
+	@Test
+	public void testTripsOnFailureRateOnceMinCallsReached() {
+		record(false, true, 3);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+		record(false, false, 1);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(1L, breaker.getTrips());
+		assertRejected();
+	}
+
+	@Test
+	public void testStaysClosedBelowFailureRate() {
+		record(false, true, 1);
+		record(false, false, 9);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+		assertFalse(breaker.allow());
+	}
+
+	@Test
+	public void testFailuresExpireAfterWindow() {
+		record(false, true, 2);
+		advance(WINDOW_MS + 100L);
+		// 3 failures out of 6 calls would trip, but the first 2 failed outside of the window
+		record(false, true, 1);
+		record(false, false, 3);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testFailuresInsideWindowAccumulateAcrossBuckets() {
+		record(false, true, 2);
+		advance(WINDOW_MS / 2);
+		record(false, true, 1);
+		record(false, false, 3);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testTripsOnSlowRate() {
+		breaker.record(false, false, SLOW_NANOS);
+		breaker.record(false, false, SLOW_NANOS);
+		breaker.record(false, false, 1L);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.record(false, false, SLOW_NANOS);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenClosesAfterProbesSucceedAndResetsCounts() {
+		trip();
+		advance(OPEN_MS - 1L);
+		assertRejected();
+		advance(1L);
+		assertTrue(breaker.allow());
+		assertEquals(FiberCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allow());
+		assertRejected();
+		// regular rpcs that completed while half-open are ignored
+		record(false, true, 10);
+		record(true, false, 2);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+		assertFalse(breaker.allow());
+		// the failures from before the trip are gone: 3 failures are below min calls
+		record(false, true, 3);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1L, breaker.getTrips());
+	}
+
+	@Test
+	public void testProbeFailureReopens() {
+		trip();
+		advance(OPEN_MS);
+		assertTrue(breaker.allow());
+		breaker.record(true, true, 1L);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2L, breaker.getTrips());
+		assertRejected();
+	}
+
+	@Test
+	public void testSlowProbeReopens() {
+		trip();
+		advance(OPEN_MS);
+		assertTrue(breaker.allow());
+		breaker.record(true, false, SLOW_NANOS);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testCancelProbeGivesBackSlot() {
+		breaker = breaker(1);
+		trip();
+		advance(OPEN_MS);
+		assertTrue(breaker.allow());
+		assertRejected();
+		breaker.cancelProbe();
+		assertTrue(breaker.allow());
+		assertRejected();
+		breaker.record(true, false, 1L);
+		assertEquals(FiberCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testCancelProbeWhenClosedIsIgnored() {
+		breaker.cancelProbe();
+		trip();
+		advance(OPEN_MS);
+		assertTrue(breaker.allow());
+		assertTrue(breaker.allow());
+		assertRejected();
+	}
+
+	@Test
+	public void testStuckProbesStartNewRound() {
+		trip();
+		advance(OPEN_MS);
+		assertTrue(breaker.allow());
+		assertTrue(breaker.allow());
+		advance(OPEN_MS - 1L);
+		assertRejected();
+		advance(1L);
+		assertTrue(breaker.allow());
+		assertEquals(FiberCircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	/**
+	 * Creates a breaker with a min of 4 calls and 50% thresholds
+	 * @param probes The probes let through while half-open
+	 * @return the breaker
+	 */
+	private FiberCircuitBreaker breaker(final int probes) {
+		final Config config = new Config();
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_WINDOW, String.valueOf(WINDOW_MS));
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_MIN_CALLS, "4");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_FAILURE_PERCENT, "50");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_SLOW, String.valueOf(TimeUnit.NANOSECONDS.toMillis(SLOW_NANOS)));
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_SLOW_PERCENT, "50");
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_OPEN, String.valueOf(OPEN_MS));
+		config.overrideConfig(FiberCircuitBreaker.CONFIG_BREAKER_PROBES, String.valueOf(probes));
+		return new FiberCircuitBreaker("rs1:16020", new FiberCircuitBreaker.Settings(config), () -> now[0]);
+	}
+
+	/**
+	 * Opens the breaker with 4 failed calls
+	 */
+	private void trip() {
+		record(false, true, 4);
+		assertEquals(FiberCircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	/**
+	 * Records a number of fast rpcs
+	 * @param probe true if the rpcs were probes
+	 * @param failed true if the rpcs failed
+	 * @param count The number of rpcs
+	 */
+	private void record(final boolean probe, final boolean failed, final int count) {
+		for(int i = 0; i < count; i++) {
+			breaker.record(probe, failed, 1L);
+		}
+	}
+
+	/**
+	 * Advances the fake clock
+	 * @param ms The ms to advance by
+	 */
+	private void advance(final long ms) {
+		now[0] += TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * Asserts that the breaker fails rpcs fast
+	 */
+	private void assertRejected() {
+		try {
+			breaker.allow();
+			fail("Expected a CircuitOpenException");
+		} catch (CircuitOpenException expected) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberCompareAndSetRequestBuilderTest</p>
+ * <p>Description: Tests compare-and-set read-modify-writes retry lost races, give up after the max attempts and hold the row lock</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberCompareAndSetRequestBuilderTest</code></p>
+ */
+public class FiberCompareAndSetRequestBuilderTest {
+	private static final byte[] NEXT = "next".getBytes();
+
+	/** The operations the updates are answered by */
+	private ScriptedHBaseOperations ops;
+	/** The client under test */
+	private HBaseFiberClient client;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		client = new HBaseFiberClient(config("1"), ops);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testUpdateAppliedOnFirstAttempt() throws Exception {
+		final AtomicReference<byte[]> seen = new AtomicReference<byte[]>();
+		final byte[] written = cas().update(current -> {
+			seen.set(current);
+			return NEXT;
+		});
+		assertArrayEquals(NEXT, written);
+		// the in-process cell holds a zeroed value
+		assertEquals(64, seen.get().length);
+		assertEquals(1, ops.gets.get());
+		assertEquals(1, ops.compareAndSets.get());
+	}
+
+	@Test
+	public void testUnchangedUpdateNotSent() throws Exception {
+		final byte[] current = cas().update(c -> null);
+		assertEquals(64, current.length);
+		assertEquals(0, ops.compareAndSets.get());
+	}
+
+	@Test
+	public void testConflictAfterMaxAttempts() throws Exception {
+		ops.casResult(false);
+		final AtomicInteger applied = new AtomicInteger(0);
+		try {
+			cas().maxAttempts(3).update(current -> {
+				applied.incrementAndGet();
+				return NEXT;
+			});
+			fail("Expected CompareAndSetConflictException");
+		} catch (CompareAndSetConflictException expected) {}
+		// every attempt re-reads the cell before its compare-and-set
+		assertEquals(3, applied.get());
+		assertEquals(3, ops.gets.get());
+		assertEquals(3, ops.compareAndSets.get());
+	}
+
+	@Test
+	public void testBackoffPastDeadlineGivesUp() throws Exception {
+		final ScriptedHBaseOperations slowOps = new ScriptedHBaseOperations();
+		final HBaseFiberClient slow = new HBaseFiberClient(config("10000"), slowOps);
+		try {
+			slowOps.casResult(false);
+			try (FiberDeadline.Scope scope = FiberDeadline.after(1L, TimeUnit.SECONDS).enter()) {
+				slow.newCompareAndSetRequest().table("t").key("a").family("f").qualifier("q").update(current -> NEXT);
+				fail("Expected DeadlineExceededException");
+			} catch (DeadlineExceededException expected) {}
+			assertEquals(1, slowOps.compareAndSets.get());
+		} finally {
+			slow.close();
+		}
+	}
+
+	@Test
+	public void testUpdateHoldsRowLock() throws Exception {
+		final AtomicReference<Throwable> waiter = new AtomicReference<Throwable>();
+		cas().update(current -> {
+			// another writer of the row in this JVM waits for the lock until its deadline
+			final Thread t = new Thread(() -> {
+				try (FiberDeadline.Scope scope = FiberDeadline.after(20L, TimeUnit.MILLISECONDS).enter()) {
+					client.getRowLocks().lock("t".getBytes(), "a".getBytes()).unlock();
+				} catch (Throwable ex) {
+					waiter.set(ex);
+				}
+			});
+			t.start();
+			try {
+				t.join();
+			} catch (InterruptedException iex) {
+				throw new RuntimeException(iex);
+			}
+			return NEXT;
+		});
+		assertTrue(waiter.get() instanceof DeadlineExceededException);
+		assertEquals(1, client.getRowLocks().getContended());
+		// released once the update returns
+		client.getRowLocks().lock("t".getBytes(), "a".getBytes()).unlock();
+	}
+
+	@Test
+	public void testInvalidMaxAttempts() {
+		try {
+			cas().maxAttempts(0);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+	/**
+	 * Creates a compare-and-set builder for the test cell
+	 * @return the builder
+	 */
+	private FiberCompareAndSetRequestBuilder cas() {
+		return client.newCompareAndSetRequest().table("t").key("a").family("f").qualifier("q");
+	}
+
+	/**
+	 * Creates a config with the passed retry base delay
+	 * @param baseDelay The base backoff in ms
+	 * @return the config
+	 */
+	private static Config config(final String baseDelay) {
+		final Config config = new Config();
+		config.overrideConfig(FiberRetrier.CONFIG_RETRY_BASE_DELAY, baseDelay);
+		config.overrideConfig(FiberRetrier.CONFIG_RETRY_MAX_DELAY, baseDelay);
+		return config;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberGetRequestBuilderTest</p>
+ * <p>Description: Tests the get builder</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberGetRequestBuilderTest</code></p>
+ */
+public class FiberGetRequestBuilderTest {
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedAsyncHBaseClientConstructor() throws Exception {
+		final HBaseClient hbClient = new HBaseClient(new Config());
+		try {
+			final FiberGetRequestBuilder builder = new FiberGetRequestBuilder(hbClient);
+			assertSame(hbClient, builder.fiberClient.getHbClient());
+			final GetRequest get = builder.table("t").key("k").family("f").buildRpc();
+			assertArrayEquals("k".getBytes(), get.key());
+		} finally {
+			hbClient.shutdown().joinUninterruptibly();
+		}
+	}
+}
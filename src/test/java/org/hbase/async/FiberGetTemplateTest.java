@@ -0,0 +1,144 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberGetTemplateTest</p>
+ * <p>Description: Tests prepared get templates honor the builder's settings, including failfast</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberGetTemplateTest</code></p>
+ */
+public class FiberGetTemplateTest {
+	/** The operations gets are answered by */
+	private ScriptedHBaseOperations ops;
+	/** The client under test */
+	private HBaseFiberClient client;
+
+	@Before
+	public void setUp() {
+		final Config config = new Config();
+		config.overrideConfig(FiberRetrier.CONFIG_RETRY_MAX_ATTEMPTS, "3");
+		config.overrideConfig(FiberRetrier.CONFIG_RETRY_BASE_DELAY, "1");
+		ops = new ScriptedHBaseOperations();
+		client = new HBaseFiberClient(config, ops);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testTemplateKeepsBuilderSettings() throws Exception {
+		final FiberGetRequestBuilder builder = client.newGetRequest().table("t").family("f").qualifier("q").failFast(true).timeout(250);
+		final FiberGetTemplate template = builder.prepare();
+		assertTrue(template.isFailFast());
+		assertFalse(template.isCached());
+		assertFalse(template.isHedged());
+		// the builder can be reset and reused without changing the template
+		builder.reset().table("u");
+		final GetRequest get = template.newRpc("a".getBytes()).hbaseRpc;
+		assertArrayEquals("t".getBytes(), get.table());
+		assertArrayEquals("a".getBytes(), get.key());
+		assertArrayEquals("f".getBytes(), get.family());
+		assertTrue(get.failfast());
+		assertEquals(250, get.getTimeout());
+		final ArrayList<KeyValue> row = template.execute("a");
+		assertTrue(row.size() > 0);
+		assertEquals(1, ops.gets.get());
+	}
+
+	@Test
+	public void testNamesInterned() {
+		final FiberGetTemplate first = client.newGetRequest().table("t").family("f").prepare();
+		final FiberGetTemplate second = client.newGetRequest().table("t").family("f").prepare();
+		assertSame(first.getTable(), second.getTable());
+		assertSame(first.getFamily(), second.getFamily());
+	}
+
+	@Test
+	public void testFailFastTemplateNotRetried() throws Exception {
+		ops.fail(throttled());
+		final FiberGetTemplate template = client.newGetRequest().table("t").family("f").failFast(true).prepare();
+		try {
+			template.execute("a");
+			fail("Expected PleaseThrottleException");
+		} catch (PleaseThrottleException expected) {}
+		assertEquals(1, ops.gets.get());
+	}
+
+	@Test
+	public void testTemplateRetriedUnlessFailFast() throws Exception {
+		ops.fail(throttled());
+		final FiberGetTemplate template = client.newGetRequest().table("t").family("f").prepare();
+		assertFalse(template.isFailFast());
+		try {
+			template.execute("a");
+			fail("Expected PleaseThrottleException");
+		} catch (PleaseThrottleException expected) {}
+		assertEquals(3, ops.gets.get());
+	}
+
+	@Test
+	public void testAsyncTemplateAttemptedOnce() throws Exception {
+		ops.fail(throttled());
+		final FiberGetTemplate template = client.newGetRequest().table("t").family("f").prepare();
+		try {
+			template.executeAsync("a".getBytes()).get();
+			fail("Expected PleaseThrottleException");
+		} catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof PleaseThrottleException);
+		}
+		assertEquals(1, ops.gets.get());
+	}
+
+	@Test
+	public void testPrepareRejectsFreshGets() {
+		try {
+			client.newGetRequest().table("t").fresh().prepare();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException expected) {}
+		try {
+			client.newGetRequest().prepare();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException expected) {}
+	}
+
+	/**
+	 * Creates a retryable failure
+	 * @return the failure
+	 */
+	private static PleaseThrottleException throttled() {
+		return new PleaseThrottleException("throttled", null, null, null);
+	}
+}
@@ -0,0 +1,162 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberIncrementAggregatorTest</p>
+ * <p>Description: Tests the values handed to aggregated increment waiters, the requeue of failed deltas
+ * and the eviction of idle counters. Flushes are driven by the tests: the flush interval is an hour.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberIncrementAggregatorTest</code></p>
+ */
+public class FiberIncrementAggregatorTest {
+	/** The counter under test */
+	private static final FiberIncrementAggregator.CounterKey COUNTER =
+		new FiberIncrementAggregator.CounterKey("t".getBytes(), "row".getBytes(), "f".getBytes(), "hits".getBytes());
+
+	/** The scripted operations */
+	private ScriptedHBaseOperations ops;
+	/** The client the aggregator flushes through */
+	private HBaseFiberClient client;
+	/** The aggregator under test */
+	private FiberIncrementAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		final Config config = new Config();
+		config.overrideConfig(FiberIncrementAggregator.CONFIG_FLUSH_INTERVAL, "3600000");
+		client = new HBaseFiberClient(config, ops);
+		aggregator = client.getIncrementAggregator();
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testEachWaiterGetsItsOwnValue() throws Exception {
+		final Deferred<Long> first = aggregator.addAndGet(COUNTER, 1L);
+		final Deferred<Long> second = aggregator.addAndGet(COUNTER, 2L);
+		final Deferred<Long> third = aggregator.addAndGet(COUNTER, 3L);
+		aggregator.flush();
+		assertEquals(1, ops.increments.get());
+		assertEquals(1L, first.joinUninterruptibly().longValue());
+		assertEquals(3L, second.joinUninterruptibly().longValue());
+		assertEquals(6L, third.joinUninterruptibly().longValue());
+	}
+
+	@Test
+	public void testConcurrentWaitersGetDistinctValues() throws Exception {
+		final int threads = 4, increments = 500;
+		final List<Deferred<Long>> results = new ArrayList<Deferred<Long>>();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicBoolean adding = new AtomicBoolean(true);
+		for(int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					final List<Deferred<Long>> mine = new ArrayList<Deferred<Long>>();
+					for(int i = 0; i < increments; i++) {
+						mine.add(aggregator.addAndGet(COUNTER, 1L));
+					}
+					synchronized(results) {
+						results.addAll(mine);
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		final Thread flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(adding.get()) {
+					aggregator.flush();
+				}
+			}
+		});
+		flusher.start();
+		done.await();
+		adding.set(false);
+		flusher.join();
+		aggregator.flush();
+		final Set<Long> values = new HashSet<Long>();
+		for(final Deferred<Long> d: results) {
+			values.add(d.joinUninterruptibly());
+		}
+		assertEquals(threads * increments, values.size());
+		assertTrue(values.contains(1L));
+		assertTrue(values.contains((long)(threads * increments)));
+	}
+
+	@Test
+	public void testFailedFlushRequeuesDeltas() throws Exception {
+		aggregator.add(COUNTER, 5L);
+		final Deferred<Long> waiter = aggregator.addAndGet(COUNTER, 1L);
+		ops.fail(new RuntimeException("region server down"));
+		aggregator.flush();
+		assertEquals(1L, aggregator.getFailedRpcs());
+		try {
+			waiter.joinUninterruptibly();
+			fail("Expected the flush failure");
+		} catch (RuntimeException expected) {
+			assertEquals("region server down", expected.getMessage());
+		}
+		ops.fail(null);
+		// the fire-and-forget delta is flushed again, the failed waiter's delta is not
+		final Deferred<Long> value = aggregator.addAndGet(COUNTER, 0L);
+		aggregator.flush();
+		assertEquals(5L, value.joinUninterruptibly().longValue());
+	}
+
+	@Test
+	public void testIdleCountersAreEvicted() throws Exception {
+		aggregator.add(COUNTER, 1L);
+		assertEquals(1, aggregator.getCounters());
+		aggregator.flush();
+		assertEquals(1, aggregator.getCounters());
+		// nothing to flush: the cell is retired
+		aggregator.flush();
+		assertEquals(0, aggregator.getCounters());
+		assertEquals(1, ops.increments.get());
+		final Deferred<Long> value = aggregator.addAndGet(COUNTER, 1L);
+		assertEquals(1, aggregator.getCounters());
+		aggregator.flush();
+		assertEquals(2L, value.joinUninterruptibly().longValue());
+		assertEquals(2, ops.increments.get());
+	}
+}
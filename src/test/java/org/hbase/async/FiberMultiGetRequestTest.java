@@ -0,0 +1,80 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberMultiGetRequestTest</p>
+ * <p>Description: Tests the multi-get results when a deadline expires before every key completed</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberMultiGetRequestTest</code></p>
+ */
+public class FiberMultiGetRequestTest {
+	/** The scripted operations */
+	private ScriptedHBaseOperations ops;
+	/** The client under test */
+	private HBaseFiberClient client;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		client = new HBaseFiberClient(new Config(), ops);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testCompletedKeysKeepResultsWhenDeadlineExpires() throws Exception {
+		ops.hold(true);
+		final ArrayList<FiberMultiGetRequest.Result> results;
+		try (FiberDeadline.Scope scope = FiberDeadline.after(50L, TimeUnit.MILLISECONDS).enter()) {
+			results = client.newMGetRequest("t", "a", "b", "c").get();
+		}
+		assertEquals(3, results.size());
+		for(final FiberMultiGetRequest.Result result: results) {
+			assertTrue(result.getException() instanceof DeadlineExceededException);
+		}
+		// late completions do not change what was returned
+		ops.release();
+		assertTrue(results.get(0).getException() instanceof DeadlineExceededException);
+	}
+
+	@Test
+	public void testResultsInKeyOrder() throws Exception {
+		final ArrayList<FiberMultiGetRequest.Result> results = client.newMGetRequest("t", "a", "b", "c").get();
+		assertEquals(3, results.size());
+		assertEquals("a", results.get(0).getKey());
+		assertEquals("c", results.get(2).getKey());
+		for(final FiberMultiGetRequest.Result result: results) {
+			assertTrue(result.isSuccess());
+		}
+	}
+}
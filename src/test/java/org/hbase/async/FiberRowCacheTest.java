@@ -0,0 +1,205 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberRowCacheTest</p>
+ * <p>Description: Tests the row cache ttls, byte bounds and invalidation generations against a fake clock</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRowCacheTest</code></p>
+ */
+public class FiberRowCacheTest {
+	private static final byte[] TABLE = "t".getBytes();
+	private static final byte[] FAMILY = "f".getBytes();
+	private static final byte[][] QUALIFIERS = new byte[][] {"q".getBytes()};
+	/** The estimated size of a row built by {@link #row(byte[], int)} with a 10 byte value */
+	private static final long ROW_SIZE = 2 * FiberRowCache.KV_OVERHEAD + 4 + 1 + 1 + 10;
+
+	/** The fake clock in ms */
+	private final long[] now = new long[] {100000L};
+
+	@Test
+	public void testHitReturnsCopy() {
+		final FiberRowCache cache = cache(null, null);
+		final byte[] key = "row0".getBytes();
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		final ArrayList<KeyValue> first = cache.get(TABLE, key, FAMILY, QUALIFIERS);
+		assertEquals(1, first.size());
+		first.clear();
+		assertEquals(1, cache.get(TABLE, key, FAMILY, QUALIFIERS).size());
+		assertNull(cache.get(TABLE, key, FAMILY, null));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(ROW_SIZE, cache.getBytes());
+	}
+
+	@Test
+	public void testEntriesExpireAfterTtl() {
+		final FiberRowCache cache = cache(null, "1000");
+		final byte[] key = "row0".getBytes();
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		now[0] += 999L;
+		assertNotNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		now[0] += 1L;
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		assertEquals(1, cache.getExpirations());
+		assertEquals(0, cache.getRows());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testTableTtlOverridesDefault() {
+		final Config config = new Config();
+		config.overrideConfig(FiberRowCache.CONFIG_CACHE_TTL + ".t", "10");
+		final FiberRowCache cache = new FiberRowCache(config, () -> now[0]);
+		final byte[] key = "row0".getBytes();
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		now[0] += 10L;
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		cache.setTableTtl("t", 0L);
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		assertEquals(0, cache.getRows());
+	}
+
+	@Test
+	public void testBytesStayWithinBound() {
+		final long max = FiberRowCache.SEGMENTS * (ROW_SIZE * 2 + 10);
+		final FiberRowCache cache = cache(String.valueOf(max), null);
+		for(int i = 0; i < 500; i++) {
+			final byte[] key = String.format("r%03d", i).getBytes();
+			cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+			assertTrue(cache.getBytes() <= max);
+		}
+		assertTrue(cache.getRows() <= FiberRowCache.SEGMENTS * 2);
+		assertEquals(500, cache.getRows() + cache.getEvictions());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedRow() {
+		final FiberRowCache cache = cache(String.valueOf(FiberRowCache.SEGMENTS * (ROW_SIZE * 2 + 10)), null);
+		final byte[][] keys = sameSegment(cache, 3);
+		for(int i = 0; i < 2; i++) {
+			cache.put(TABLE, keys[i], FAMILY, QUALIFIERS, row(keys[i], 10), cache.generation(TABLE, keys[i]));
+		}
+		assertNotNull(cache.get(TABLE, keys[0], FAMILY, QUALIFIERS));
+		cache.put(TABLE, keys[2], FAMILY, QUALIFIERS, row(keys[2], 10), cache.generation(TABLE, keys[2]));
+		assertEquals(1, cache.getEvictions());
+		assertNotNull(cache.get(TABLE, keys[0], FAMILY, QUALIFIERS));
+		assertNull(cache.get(TABLE, keys[1], FAMILY, QUALIFIERS));
+		assertNotNull(cache.get(TABLE, keys[2], FAMILY, QUALIFIERS));
+	}
+
+	@Test
+	public void testOversizedEntryNotCached() {
+		final FiberRowCache cache = cache(String.valueOf(FiberRowCache.SEGMENTS * ROW_SIZE), null);
+		final byte[] key = "row0".getBytes();
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 11), cache.generation(TABLE, key));
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		assertNotNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+	}
+
+	@Test
+	public void testRacingFetchNotCached() {
+		final FiberRowCache cache = cache(null, null);
+		final byte[] key = "row0".getBytes();
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), cache.generation(TABLE, key));
+		final long generation = cache.generation(TABLE, key);
+		cache.invalidate(TABLE, key);
+		assertEquals(1, cache.getInvalidations());
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), generation);
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testInvalidatingInvalidatesAgainOnCompletion() {
+		final FiberRowCache cache = cache(null, null);
+		final byte[] key = "row0".getBytes();
+		final Deferred<Object> write = new Deferred<Object>();
+		final long before = cache.generation(TABLE, key);
+		cache.invalidating(TABLE, key, write);
+		// a get racing with the write fetches the old row and caches it
+		final long generation = cache.generation(TABLE, key);
+		assertTrue(generation > before);
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), generation);
+		assertNotNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		write.callback(null);
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+		cache.put(TABLE, key, FAMILY, QUALIFIERS, row(key, 10), generation);
+		assertNull(cache.get(TABLE, key, FAMILY, QUALIFIERS));
+	}
+
+	/**
+	 * Creates a cache on the fake clock
+	 * @param bytes The cache bytes or null for the default
+	 * @param ttl The default ttl or null for the default
+	 * @return the cache
+	 */
+	private FiberRowCache cache(final String bytes, final String ttl) {
+		final Config config = new Config();
+		if(bytes!=null) config.overrideConfig(FiberRowCache.CONFIG_CACHE_BYTES, bytes);
+		if(ttl!=null) config.overrideConfig(FiberRowCache.CONFIG_CACHE_TTL, ttl);
+		return new FiberRowCache(config, () -> now[0]);
+	}
+
+	/**
+	 * Finds row keys held by the same segment, using the generation bump an invalidation makes to the whole segment
+	 * @param cache The cache
+	 * @param count The number of keys to find
+	 * @return the keys
+	 */
+	private static byte[][] sameSegment(final FiberRowCache cache, final int count) {
+		final byte[][] keys = new byte[count][];
+		keys[0] = "r000".getBytes();
+		int found = 1;
+		for(int i = 1; found < count; i++) {
+			final byte[] key = String.format("r%03d", i).getBytes();
+			final long generation = cache.generation(TABLE, key);
+			cache.invalidate(TABLE, keys[0]);
+			if(cache.generation(TABLE, key)!=generation) keys[found++] = key;
+		}
+		return keys;
+	}
+
+	/**
+	 * Builds a single cell row
+	 * @param key The row key
+	 * @param valueSize The value size in bytes
+	 * @return the row
+	 */
+	private static ArrayList<KeyValue> row(final byte[] key, final int valueSize) {
+		return new ArrayList<KeyValue>(Arrays.asList(new KeyValue(key, FAMILY, QUALIFIERS[0], 1L, new byte[valueSize])));
+	}
+}
@@ -0,0 +1,149 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberRowTest</p>
+ * <p>Description: Tests the row view's column lookups, including columns with several versions, and its decoders</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberRowTest</code></p>
+ */
+public class FiberRowTest {
+	private static final byte[] KEY = "row".getBytes();
+	private static final byte[] F1 = "f1".getBytes();
+	private static final byte[] F2 = "f2".getBytes();
+
+	@Test
+	public void testLookupReturnsMostRecentVersion() {
+		// every column has several versions, newest first, as returned by a region server
+		final List<KeyValue> kvs = new ArrayList<KeyValue>();
+		for(final byte[] family: new byte[][] {F1, F2}) {
+			for(final String qualifier: new String[] {"a", "b", "c", "d", "e"}) {
+				for(long ts = 7; ts > 0; ts--) {
+					kvs.add(kv(family, qualifier, ts));
+				}
+			}
+		}
+		final FiberRow row = FiberRow.wrap(kvs);
+		for(final byte[] family: new byte[][] {F1, F2}) {
+			for(final String qualifier: new String[] {"a", "b", "c", "d", "e"}) {
+				final int index = row.indexOf(family, qualifier.getBytes());
+				assertEquals(7L, kvs.get(index).timestamp());
+				assertEquals(kvs.indexOf(row.column(family, qualifier.getBytes())), index);
+				if(index > 0) {
+					// the match is the first cell of its column
+					assertFalse(Arrays.equals(kvs.get(index - 1).qualifier(), qualifier.getBytes()) && Arrays.equals(kvs.get(index - 1).family(), family));
+				}
+				assertEquals(7L, row.getLong(family, qualifier.getBytes(), -1L));
+			}
+		}
+	}
+
+	@Test
+	public void testSingleColumnWithManyVersions() {
+		for(int versions = 1; versions <= 16; versions++) {
+			final List<KeyValue> kvs = new ArrayList<KeyValue>();
+			for(long ts = versions; ts > 0; ts--) {
+				kvs.add(kv(F1, "a", ts));
+			}
+			final FiberRow row = FiberRow.wrap(kvs);
+			assertEquals(0, row.indexOf(F1, "a".getBytes()));
+			assertEquals(-1, row.indexOf(F1, "b".getBytes()));
+			assertEquals(-1, row.indexOf(F2, "a".getBytes()));
+		}
+	}
+
+	@Test
+	public void testMissingColumns() {
+		final FiberRow row = FiberRow.wrap(Arrays.asList(kv(F1, "b", 1L), kv(F1, "d", 1L), kv(F2, "b", 1L)));
+		assertFalse(row.has(F1, "a".getBytes()));
+		assertFalse(row.has(F1, "c".getBytes()));
+		assertFalse(row.has(F1, "e".getBytes()));
+		assertFalse(row.has("f3".getBytes(), "b".getBytes()));
+		assertTrue(row.has(F2, "b".getBytes()));
+		assertNull(row.value(F1, "a".getBytes()));
+		assertEquals(42L, row.getLong(F1, "a".getBytes(), 42L));
+	}
+
+	@Test
+	public void testUnsortedCellsScanned() {
+		final List<KeyValue> kvs = new LinkedList<KeyValue>(Arrays.asList(kv(F2, "b", 2L), kv(F1, "a", 1L), kv(F2, "b", 1L)));
+		final FiberRow row = FiberRow.wrap(kvs);
+		assertEquals(0, row.indexOf(F2, "b".getBytes()));
+		assertEquals(1, row.indexOf(F1, "a".getBytes()));
+		final FiberRow unsorted = FiberRow.wrap(new ArrayList<KeyValue>(Arrays.asList(kv(F2, "b", 2L), kv(F1, "a", 1L))));
+		assertEquals(1, unsorted.indexOf(F1, "a".getBytes()));
+	}
+
+	@Test
+	public void testDecoders() {
+		final FiberRow row = FiberRow.wrap(Arrays.asList(
+			new KeyValue(KEY, F1, "d".getBytes(), 1L, Bytes.fromLong(Double.doubleToRawLongBits(1.5d))),
+			new KeyValue(KEY, F1, "i".getBytes(), 1L, Bytes.fromInt(-3)),
+			new KeyValue(KEY, F1, "l".getBytes(), 1L, Bytes.fromLong(Long.MAX_VALUE))));
+		assertEquals(1.5d, row.getDouble(F1, "d".getBytes(), 0d), 0d);
+		assertEquals(-3, row.getInt(F1, "i".getBytes(), 0));
+		assertEquals(Long.MAX_VALUE, row.getLong(F1, "l".getBytes(), 0L));
+		assertTrue(row.valueEquals(F1, "i".getBytes(), Bytes.fromInt(-3)));
+		assertFalse(row.valueEquals(F1, "x".getBytes(), Bytes.fromInt(-3)));
+		try {
+			row.getLong(F1, "i".getBytes(), 0L);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+	@Test
+	public void testEmptyRowsAndBatches() {
+		final FiberRow empty = FiberRow.wrap(null);
+		assertTrue(empty.isEmpty());
+		assertNull(empty.key());
+		assertEquals(-1, empty.indexOf(F1, "a".getBytes()));
+		assertTrue(FiberRow.rows(null).isEmpty());
+		final ArrayList<ArrayList<KeyValue>> batch = new ArrayList<ArrayList<KeyValue>>();
+		batch.add(new ArrayList<KeyValue>(Arrays.asList(kv(F1, "a", 1L))));
+		final List<FiberRow> rows = FiberRow.rows(batch);
+		assertEquals(1, rows.size());
+		assertArrayEquals(KEY, rows.get(0).key());
+	}
+
+	/**
+	 * Builds a key-value whose value is its timestamp
+	 * @param family The family
+	 * @param qualifier The qualifier
+	 * @param ts The timestamp
+	 * @return the key-value
+	 */
+	private static KeyValue kv(final byte[] family, final String qualifier, final long ts) {
+		return new KeyValue(KEY, family, qualifier.getBytes(), ts, Bytes.fromLong(ts));
+	}
+}
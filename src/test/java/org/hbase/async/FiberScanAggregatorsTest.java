@@ -0,0 +1,154 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberScanAggregatorsTest</p>
+ * <p>Description: Tests the built-in scan aggregators, folding rows directly and over in-process scans</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanAggregatorsTest</code></p>
+ */
+public class FiberScanAggregatorsTest {
+	/** The number of rows each in-process scan returns */
+	private static final int SCAN_ROWS = 300;
+
+	/** The operations scans are answered by */
+	private ScriptedHBaseOperations ops;
+	/** The client under test */
+	private HBaseFiberClient client;
+
+	@Before
+	public void setUp() {
+		final Config config = new Config();
+		config.overrideConfig(InProcessHBaseClient.CONFIG_SCAN_ROWS, String.valueOf(SCAN_ROWS));
+		config.overrideConfig(InProcessHBaseClient.CONFIG_SCAN_BATCH, "64");
+		ops = new ScriptedHBaseOperations(config);
+		client = new HBaseFiberClient(config, ops);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+	}
+
+	@Test
+	public void testColumnAggregatorsSkipRowsWithoutColumn() {
+		final FiberScanAggregator<Long> sum = FiberScanAggregators.sum("f", "n");
+		final FiberScanAggregator<Long> min = FiberScanAggregators.min("f", "n");
+		final FiberScanAggregator<Long> max = FiberScanAggregators.max("f", "n");
+		assertNull(min.result());
+		assertNull(max.result());
+		for(final FiberRow row: new FiberRow[] {row("a", 5L), row("b", -2L), row("c", null), row("d", 9L)}) {
+			sum.add(row);
+			min.add(row);
+			max.add(row);
+		}
+		assertEquals(12L, sum.result().longValue());
+		assertEquals(-2L, min.result().longValue());
+		assertEquals(9L, max.result().longValue());
+		assertNull(sum.pushDown());
+	}
+
+	@Test
+	public void testHistogramCountsValuesInFirstSeenOrder() {
+		final FiberScanAggregator<Map<String, Long>> histogram = FiberScanAggregators.histogram("f", "s");
+		for(final String value: new String[] {"red", "blue", "red", "red"}) {
+			histogram.add(FiberRow.wrap(Arrays.asList(new KeyValue("k".getBytes(), "f".getBytes(), "s".getBytes(), value.getBytes()))));
+		}
+		histogram.add(row("x", 1L));
+		assertEquals(Arrays.asList("red", "blue"), Arrays.asList(histogram.result().keySet().toArray()));
+		assertEquals(3L, histogram.result().get("red").longValue());
+		assertEquals(1L, histogram.result().get("blue").longValue());
+	}
+
+	@Test
+	public void testGroupByPrefixKeepsGroupsSeparate() {
+		final FiberScanAggregator<Map<String, Long>> grouped = FiberScanAggregators.groupByPrefix(2, () -> FiberScanAggregators.sum("f", "n"));
+		grouped.add(row("aa1", 1L));
+		grouped.add(row("aa2", 2L));
+		grouped.add(row("b", 4L));
+		grouped.add(row("cc1", 8L));
+		final Map<String, Long> result = grouped.result();
+		assertEquals(3, result.size());
+		assertEquals(3L, result.get("aa").longValue());
+		assertEquals(4L, result.get("b").longValue());
+		assertEquals(8L, result.get("cc").longValue());
+		try {
+			FiberScanAggregators.groupByPrefix(0, FiberScanAggregators::count);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+	@Test
+	public void testCountPushesDownKeyOnlyFilter() {
+		assertTrue(FiberScanAggregators.count().pushDown() instanceof FilterList);
+		assertTrue(FiberScanAggregators.groupByPrefix(1, FiberScanAggregators::count).pushDown() instanceof FilterList);
+	}
+
+	@Test
+	public void testCountScan() throws Exception {
+		assertEquals(SCAN_ROWS, client.newScanRequest("t").aggregate(FiberScanAggregators.count()).longValue());
+	}
+
+	@Test
+	public void testGroupedCountScan() throws Exception {
+		// in-process row keys are the big-endian row index, so the first 3 bytes group rows by index / 256
+		final Map<String, Long> counts = client.newScanRequest("t").aggregate(FiberScanAggregators.groupByPrefix(3, FiberScanAggregators::count));
+		assertEquals(2, counts.size());
+		assertEquals(256L, counts.get(new String(new byte[3])).longValue());
+		assertEquals(SCAN_ROWS - 256L, counts.get(new String(new byte[] {0, 0, 1})).longValue());
+	}
+
+	@Test
+	public void testFailedScanPropagates() throws Exception {
+		ops.fail(new RuntimeException("scan failed"));
+		try {
+			client.newScanRequest("t").aggregate(FiberScanAggregators.count());
+			fail("Expected the scan failure");
+		} catch (RuntimeException expected) {
+			assertEquals("scan failed", expected.getMessage());
+		}
+	}
+
+	/**
+	 * Builds a row with an optional long column f:n
+	 * @param key The row key
+	 * @param n The column value or null to omit the column
+	 * @return the row
+	 */
+	private static FiberRow row(final String key, final Long n) {
+		final byte[] k = key.getBytes();
+		if(n==null) {
+			return FiberRow.wrap(Arrays.asList(new KeyValue(k, "f".getBytes(), "other".getBytes(), Bytes.fromLong(0L))));
+		}
+		return FiberRow.wrap(Arrays.asList(new KeyValue(k, "f".getBytes(), "n".getBytes(), Bytes.fromLong(n))));
+	}
+}
@@ -0,0 +1,183 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberScanExporterTest</p>
+ * <p>Description: Tests scan exports round-trip through {@link FiberScanFileReader}, across window boundaries,
+ * and that failed exports leave no readable file</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberScanExporterTest</code></p>
+ */
+public class FiberScanExporterTest {
+	/** The smallest window size */
+	private static final int WINDOW = 4096;
+
+	/** The export file */
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("FiberScanExporterTest", ".fsx");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testRoundTripAcrossWindowBoundaries() throws IOException {
+		final List<List<KeyValue>> rows = new ArrayList<List<KeyValue>>();
+		for(int i = 0; i < 500; i++) {
+			// sizes straddle the window, and every 100th row is larger than a window
+			final byte[] value = new byte[i % 100==99 ? 3 * WINDOW : i * 7 % 300];
+			Arrays.fill(value, (byte)i);
+			rows.add(Arrays.asList(
+				new KeyValue(("row" + i).getBytes(), "f".getBytes(), "a".getBytes(), i, value),
+				new KeyValue(("row" + i).getBytes(), "f".getBytes(), "b".getBytes(), i, Bytes.fromLong(i))));
+		}
+		final FiberScanExporter exporter = new FiberScanExporter(file, WINDOW);
+		for(final List<KeyValue> row: rows) {
+			exporter.write(row);
+		}
+		exporter.write(new ArrayList<KeyValue>());
+		exporter.close();
+		assertEquals(500L, exporter.getRows());
+		assertEquals(exporter.getBytes(), Files.size(file));
+		try(FiberScanFileReader reader = new FiberScanFileReader(file, WINDOW)) {
+			assertEquals(500L, reader.getRows());
+			int i = 0;
+			while(reader.next()) {
+				final List<KeyValue> row = rows.get(i);
+				assertEquals(ByteBuffer.wrap(row.get(0).key()), reader.key());
+				assertEquals(2, reader.cellCount());
+				assertTrue(reader.nextCell());
+				final KeyValue kv = reader.keyValue();
+				assertArrayEquals(row.get(0).qualifier(), kv.qualifier());
+				assertArrayEquals(row.get(0).value(), kv.value());
+				assertEquals(i, reader.timestamp());
+				assertTrue(reader.nextCell());
+				assertEquals(i, reader.valueAsLong());
+				assertFalse(reader.nextCell());
+				i++;
+			}
+			assertEquals(500, i);
+		}
+	}
+
+	@Test
+	public void testEmptyExport() throws IOException {
+		new FiberScanExporter(file, WINDOW).close();
+		try(FiberScanFileReader reader = new FiberScanFileReader(file, WINDOW)) {
+			assertEquals(0L, reader.getRows());
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testAbortDeletesFile() throws IOException {
+		final FiberScanExporter exporter = new FiberScanExporter(file, WINDOW);
+		exporter.write(Arrays.asList(new KeyValue("row".getBytes(), "f".getBytes(), "q".getBytes(), 1L, new byte[10])));
+		exporter.abort();
+		exporter.abort();
+		assertFalse(Files.exists(file));
+		try {
+			exporter.write(Arrays.asList(new KeyValue("row".getBytes(), "f".getBytes(), "q".getBytes(), 1L, new byte[10])));
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testUnfinishedExportIsRejected() throws IOException {
+		final FiberScanExporter exporter = new FiberScanExporter(file, WINDOW);
+		exporter.write(Arrays.asList(new KeyValue("row".getBytes(), "f".getBytes(), "q".getBytes(), 1L, new byte[10])));
+		try {
+			new FiberScanFileReader(file, WINDOW).close();
+			fail("Expected an IOException");
+		} catch (IOException expected) {
+			// the header is only written on close
+		} finally {
+			exporter.abort();
+		}
+	}
+
+	@Test
+	public void testClosedReaderReleasesFile() throws IOException {
+		final FiberScanExporter exporter = new FiberScanExporter(file, WINDOW);
+		exporter.write(Arrays.asList(new KeyValue("row".getBytes(), "f".getBytes(), "q".getBytes(), 1L, new byte[10])));
+		exporter.close();
+		final FiberScanFileReader reader = new FiberScanFileReader(file, WINDOW);
+		assertTrue(reader.next());
+		reader.close();
+		reader.close();
+		Files.delete(file);
+	}
+
+	@Test
+	public void testFailedScanExportDeletesFile() throws Exception {
+		final ScriptedHBaseOperations ops = new ScriptedHBaseOperations();
+		final HBaseFiberClient client = new HBaseFiberClient(new Config(), ops);
+		try {
+			ops.fail(new RuntimeException("scan failed"));
+			try {
+				client.newScanRequest("t").export(file);
+				fail("Expected the scan failure");
+			} catch (RuntimeException expected) {
+				assertEquals("scan failed", expected.getMessage());
+			}
+			assertFalse(Files.exists(file));
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testScanExport() throws Exception {
+		final HBaseFiberClient client = new HBaseFiberClient(new Config(), new ScriptedHBaseOperations());
+		try {
+			assertEquals(1000L, client.newScanRequest("t").export(file));
+			try(FiberScanFileReader reader = new FiberScanFileReader(file)) {
+				assertEquals(1000L, reader.getRows());
+			}
+		} finally {
+			client.close();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: FiberSingleFlightTest</p>
+ * <p>Description: Tests identical gets share an rpc and that writes detach in-flight gets from later callers</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberSingleFlightTest</code></p>
+ */
+public class FiberSingleFlightTest {
+	private static final byte[] TABLE = "t".getBytes();
+	private static final byte[] KEY = "a".getBytes();
+
+	/** The operations gets are answered by */
+	private ScriptedHBaseOperations ops;
+	/** The coalescer under test */
+	private FiberSingleFlight singleFlight;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		singleFlight = new FiberSingleFlight(ops, coalescing());
+		ops.hold(true);
+	}
+
+	@Test
+	public void testDisabledByDefault() {
+		final FiberSingleFlight disabled = new FiberSingleFlight(ops, new Config());
+		assertFalse(disabled.isEnabled());
+		disabled.get(get("q"));
+		disabled.get(get("q"));
+		assertEquals(2, ops.gets.get());
+		assertEquals(0, disabled.getCoalesced());
+	}
+
+	@Test
+	public void testIdenticalGetsShareOneRpc() throws Exception {
+		final Deferred<ArrayList<KeyValue>> leader = singleFlight.get(get("q"));
+		final Deferred<ArrayList<KeyValue>> joiner = singleFlight.get(get("q"));
+		assertEquals(1, ops.gets.get());
+		assertEquals(1, singleFlight.getCoalesced());
+		assertEquals(1, singleFlight.getInFlight());
+		ops.release();
+		final ArrayList<KeyValue> first = leader.joinUninterruptibly();
+		final ArrayList<KeyValue> second = joiner.joinUninterruptibly();
+		assertEquals(first.size(), second.size());
+		assertTrue(first.size() > 0);
+		// each caller owns its list
+		assertNotSame(first, second);
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void testDifferentColumnsNotCoalesced() {
+		singleFlight.get(get("q"));
+		singleFlight.get(get("r"));
+		assertEquals(2, ops.gets.get());
+		assertEquals(0, singleFlight.getCoalesced());
+	}
+
+	@Test
+	public void testCompletedFlightNotJoined() throws Exception {
+		final Deferred<ArrayList<KeyValue>> first = singleFlight.get(get("q"));
+		ops.release();
+		first.joinUninterruptibly();
+		singleFlight.get(get("q"));
+		assertEquals(2, ops.gets.get());
+		assertEquals(0, singleFlight.getCoalesced());
+	}
+
+	@Test
+	public void testWriteDetachesInFlightGet() throws Exception {
+		final Deferred<ArrayList<KeyValue>> stale = singleFlight.get(get("q"));
+		singleFlight.invalidate(TABLE, KEY);
+		// sent after the write, so must not join the get sent before it
+		final Deferred<ArrayList<KeyValue>> fresh = singleFlight.get(get("q"));
+		assertEquals(2, ops.gets.get());
+		assertEquals(0, singleFlight.getCoalesced());
+		// later callers join the new flight
+		final Deferred<ArrayList<KeyValue>> joiner = singleFlight.get(get("q"));
+		assertEquals(2, ops.gets.get());
+		assertEquals(1, singleFlight.getCoalesced());
+		ops.release();
+		stale.joinUninterruptibly();
+		fresh.joinUninterruptibly();
+		joiner.joinUninterruptibly();
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void testClientWriteDetachesInFlightGet() throws Exception {
+		final ScriptedHBaseOperations clientOps = new ScriptedHBaseOperations();
+		final HBaseFiberClient client = new HBaseFiberClient(coalescing(), clientOps);
+		try {
+			final FiberSingleFlight flight = client.getSingleFlight();
+			clientOps.hold(true);
+			flight.get(get("q"));
+			client.invalidating(TABLE, KEY, clientOps.put(new PutRequest(TABLE, KEY, "f".getBytes(), "q".getBytes(), "v".getBytes())));
+			flight.get(get("q"));
+			assertEquals(2, clientOps.gets.get());
+			assertEquals(0, flight.getCoalesced());
+			clientOps.release();
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Builds a get of the test row
+	 * @param qualifier The qualifier to get
+	 * @return the get
+	 */
+	private static GetRequest get(final String qualifier) {
+		return new GetRequest(TABLE, KEY).family("f".getBytes()).qualifier(qualifier.getBytes());
+	}
+
+	/**
+	 * Creates a config with get coalescing enabled
+	 * @return the config
+	 */
+	private static Config coalescing() {
+		final Config config = new Config();
+		config.overrideConfig(FiberSingleFlight.CONFIG_COALESCE_GETS, "true");
+		return config;
+	}
+}
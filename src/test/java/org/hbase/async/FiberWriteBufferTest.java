@@ -0,0 +1,91 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: FiberWriteBufferTest</p>
+ * <p>Description: Tests the byte threshold flushes of the write buffer against a cluster that does not acknowledge puts</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.FiberWriteBufferTest</code></p>
+ */
+public class FiberWriteBufferTest {
+	/** The operations puts are buffered in */
+	private ScriptedHBaseOperations ops;
+	/** The buffer under test, flushing every 1000 bytes */
+	private FiberWriteBuffer buffer;
+
+	@Before
+	public void setUp() {
+		ops = new ScriptedHBaseOperations();
+		final Config config = new Config();
+		config.overrideConfig(FiberWriteBuffer.CONFIG_BUFFER_BYTES, "1000");
+		buffer = new FiberWriteBuffer(ops, config);
+	}
+
+	@Test
+	public void testEveryThresholdCrossingFlushesWhileUnacknowledged() {
+		ops.hold(true);
+		for(int i = 0; i < 10; i++) {
+			buffer.put(put(i), 300L);
+		}
+		// 1200 bytes after the 4th and the 8th put
+		assertEquals(2L, buffer.getByteFlushes());
+		assertEquals(2, ops.flushes.get());
+		assertEquals(600L, buffer.getPendingBytes());
+		assertEquals(3000L, buffer.getBufferedBytes());
+		ops.release();
+		assertEquals(0L, buffer.getBufferedBytes());
+		assertEquals(600L, buffer.getPendingBytes());
+	}
+
+	@Test
+	public void testExplicitFlushResetsPendingBytes() {
+		buffer.put(put(0), 900L);
+		buffer.flush();
+		assertEquals(0L, buffer.getPendingBytes());
+		buffer.put(put(1), 900L);
+		assertEquals(0L, buffer.getByteFlushes());
+		buffer.put(put(2), 200L);
+		assertEquals(1L, buffer.getByteFlushes());
+		assertEquals(0L, buffer.getPendingBytes());
+	}
+
+	@Test
+	public void testUnbufferedPutsAreNotCounted() {
+		final PutRequest put = put(0);
+		put.setBufferable(false);
+		buffer.put(put, 5000L);
+		assertEquals(0L, buffer.getByteFlushes());
+		assertEquals(0L, buffer.getPendingBytes());
+	}
+
+	/**
+	 * Creates a put
+	 * @param row The row number
+	 * @return the put
+	 */
+	private static PutRequest put(final int row) {
+		return new PutRequest("t".getBytes(), ("row" + row).getBytes(), "f".getBytes(), "q".getBytes(), "v".getBytes());
+	}
+}
@@ -0,0 +1,201 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package org.hbase.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: ScriptedHBaseOperations</p>
+ * <p>Description: An {@link InProcessHBaseClient} whose answers tests can hold back, fail or override.
+ * While {@link #hold(boolean) holding}, gets, puts, increments, compare-and-sets and deletes only complete
+ * once {@link #release()} is called, simulating a slow cluster.</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.hbase.async.ScriptedHBaseOperations</code></p>
+ */
+final class ScriptedHBaseOperations implements FiberHBaseOperations {
+	/** The in-process client answering the operations */
+	private final InProcessHBaseClient delegate;
+	/** The answers held back, completed on release */
+	private final List<Runnable> held = new ArrayList<Runnable>();
+	/** The number of gets sent */
+	final AtomicInteger gets = new AtomicInteger(0);
+	/** The number of puts sent */
+	final AtomicInteger puts = new AtomicInteger(0);
+	/** The number of increments sent */
+	final AtomicInteger increments = new AtomicInteger(0);
+	/** The number of compare-and-sets sent */
+	final AtomicInteger compareAndSets = new AtomicInteger(0);
+	/** The number of flushes */
+	final AtomicInteger flushes = new AtomicInteger(0);
+	/** Indicates if answers are held back until released */
+	private volatile boolean holding = false;
+	/** The failure every operation completes with, or null to answer normally */
+	private volatile Exception failure = null;
+	/** The answer of every compare-and-set */
+	private volatile boolean casResult = true;
+
+	/**
+	 * Creates a new ScriptedHBaseOperations with the default in-process payload
+	 */
+	ScriptedHBaseOperations() {
+		this(new Config());
+	}
+
+	/**
+	 * Creates a new ScriptedHBaseOperations
+	 * @param config The config of the in-process client
+	 */
+	ScriptedHBaseOperations(final Config config) {
+		delegate = new InProcessHBaseClient(config);
+	}
+
+	/**
+	 * Starts or stops holding answers back. Answers already held stay held until released.
+	 * @param holding true to hold answers back
+	 */
+	void hold(final boolean holding) {
+		this.holding = holding;
+	}
+
+	/**
+	 * Sets the failure every operation completes with
+	 * @param failure The failure, or null to answer normally
+	 */
+	void fail(final Exception failure) {
+		this.failure = failure;
+	}
+
+	/**
+	 * Sets the answer of every compare-and-set
+	 * @param casResult true if compare-and-sets succeed
+	 */
+	void casResult(final boolean casResult) {
+		this.casResult = casResult;
+	}
+
+	/**
+	 * Completes every held answer
+	 */
+	void release() {
+		final List<Runnable> answers;
+		synchronized(held) {
+			answers = new ArrayList<Runnable>(held);
+			held.clear();
+		}
+		for(final Runnable answer: answers) {
+			answer.run();
+		}
+	}
+
+	/**
+	 * Returns the number of answers held back
+	 * @return the held answer count
+	 */
+	int held() {
+		synchronized(held) {
+			return held.size();
+		}
+	}
+
+	@Override
+	public Deferred<ArrayList<KeyValue>> get(final GetRequest request) {
+		gets.incrementAndGet();
+		return answer(delegate.get(request));
+	}
+
+	@Override
+	public Deferred<Object> put(final PutRequest request) {
+		puts.incrementAndGet();
+		return answer(delegate.put(request));
+	}
+
+	@Override
+	public Deferred<Long> atomicIncrement(final AtomicIncrementRequest request) {
+		increments.incrementAndGet();
+		if(failure!=null) return Deferred.fromError(failure);
+		return answer(delegate.atomicIncrement(request));
+	}
+
+	@Override
+	public Deferred<Boolean> compareAndSet(final PutRequest edit, final byte[] expected) {
+		compareAndSets.incrementAndGet();
+		return answer(Deferred.fromResult(casResult));
+	}
+
+	@Override
+	public Deferred<Object> delete(final DeleteRequest request) {
+		return answer(delegate.delete(request));
+	}
+
+	@Override
+	public Deferred<Object> flush() {
+		flushes.incrementAndGet();
+		return delegate.flush();
+	}
+
+	@Override
+	public Deferred<List<RegionLocation>> locateRegions(final byte[] table) {
+		return delegate.locateRegions(table);
+	}
+
+	@Override
+	public Scanner newScanner(final String table) {
+		return delegate.newScanner(table);
+	}
+
+	@Override
+	public Deferred<ArrayList<ArrayList<KeyValue>>> nextRows(final Scanner scanner) {
+		return answer(delegate.nextRows(scanner));
+	}
+
+	@Override
+	public Deferred<Object> closeScanner(final Scanner scanner) {
+		return delegate.closeScanner(scanner);
+	}
+
+	@Override
+	public Deferred<Object> shutdown() {
+		return delegate.shutdown();
+	}
+
+	/**
+	 * Fails, holds back or passes through an answer
+	 * @param answer The in-process answer
+	 * @return the deferred answer
+	 */
+	private <T> Deferred<T> answer(final Deferred<T> answer) {
+		final Exception ex = failure;
+		if(ex!=null) return Deferred.fromError(ex);
+		if(!holding) return answer;
+		final Deferred<T> d = new Deferred<T>();
+		synchronized(held) {
+			held.add(new Runnable() {
+				@Override
+				public void run() {
+					answer.chain(d);
+				}
+			});
+		}
+		return d;
+	}
+}